@@ -0,0 +1,319 @@
+/**
+ * Copyright 2017 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf;
+
+import java.io.*;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+
+import de.interactive_instruments.exceptions.ExcUtils;
+
+/**
+ * Size bounded store of fetched response bodies, keyed by the normalized URI.
+ *
+ * Small bodies are kept in memory as long as the memory limit is not exceeded, all others are
+ * spilled to temporary files. Bodies are evicted after a time to live or if the total size
+ * exceeds the maximum, evicted files are deleted.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class BodyStore {
+
+	// Bodies up to this size are recorded in memory
+	private static final int SPILL_THRESHOLD = 256 * 1024;
+
+	private final long maxMemoryBytes;
+	private final long maxEntryBytes;
+	private final AtomicLong memoryBytes = new AtomicLong();
+	private final Cache<URI, Body> bodies;
+
+	/**
+	 * A stored body, either in memory or in a file
+	 */
+	private static final class Body {
+		private final byte[] bytes;
+		private final Path file;
+		private final long size;
+
+		private Body(final byte[] bytes, final Path file, final long size) {
+			this.bytes = bytes;
+			this.file = file;
+			this.size = size;
+		}
+
+		private InputStream open() throws IOException {
+			return bytes != null ? new ByteArrayInputStream(bytes) : Files.newInputStream(file);
+		}
+	}
+
+	/**
+	 * Create a new store
+	 *
+	 * @param maxMemoryBytes maximum number of bytes of all bodies kept in memory
+	 * @param maxBytes maximum number of bytes of all bodies, 0 disables the store
+	 * @param timeToLive time after which a body is evicted
+	 * @param unit unit of the time to live
+	 */
+	BodyStore(final long maxMemoryBytes, final long maxBytes, final long timeToLive, final TimeUnit unit) {
+		if (maxMemoryBytes < 0 || maxBytes < 0) {
+			throw new IllegalArgumentException("The limits must not be negative");
+		}
+		this.maxMemoryBytes = maxMemoryBytes;
+		// a single body must not displace most of the others
+		this.maxEntryBytes = maxBytes / 4;
+		this.bodies = Caffeine.newBuilder()
+				.maximumWeight(maxBytes)
+				.<URI, Body> weigher((uri, body) -> (int) Math.min(Integer.MAX_VALUE, body.size))
+				.expireAfterWrite(timeToLive, unit)
+				.removalListener((URI uri, Body body, RemovalCause cause) -> discard(body))
+				.build();
+	}
+
+	boolean isEnabled() {
+		return maxEntryBytes > 0;
+	}
+
+	private void discard(final Body body) {
+		if (body == null) {
+			return;
+		}
+		if (body.bytes != null) {
+			memoryBytes.addAndGet(-body.bytes.length);
+		} else {
+			try {
+				Files.deleteIfExists(body.file);
+			} catch (final IOException e) {
+				ExcUtils.suppress(e);
+			}
+		}
+	}
+
+	/**
+	 * Open a stored body
+	 *
+	 * @param uri normalized URI
+	 * @return stream of the body or null if no body is stored
+	 */
+	InputStream open(final URI uri) {
+		final Body body = bodies.getIfPresent(uri.normalize());
+		if (body != null) {
+			try {
+				return body.open();
+			} catch (final NoSuchFileException e) {
+				// evicted concurrently
+				ExcUtils.suppress(e);
+			} catch (final IOException e) {
+				ExcUtils.suppress(e);
+				bodies.invalidate(uri.normalize());
+			}
+		}
+		return null;
+	}
+
+	void invalidateAll() {
+		bodies.invalidateAll();
+	}
+
+	/**
+	 * Record a response body while it is read
+	 *
+	 * @return recorder of the body
+	 */
+	Recorder record() {
+		return new Recorder();
+	}
+
+	/**
+	 * Records the bytes of a response that are read through {@link #tee(InputStream)}
+	 */
+	final class Recorder {
+		private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		private Path file;
+		private OutputStream fileOut;
+		private long size;
+		// set if the body exceeds the limits or could not be written
+		private boolean discarded;
+		private boolean committed;
+		private boolean closed;
+
+		private Recorder() {}
+
+		/**
+		 * Returns true if the body can not be stored
+		 *
+		 * @return true if the body exceeded the limits
+		 */
+		boolean isDiscarded() {
+			return discarded;
+		}
+
+		/**
+		 * Wrap the response stream
+		 *
+		 * @param in response stream
+		 * @return stream that records all bytes read
+		 */
+		InputStream tee(final InputStream in) {
+			return new FilterInputStream(in) {
+				@Override
+				public int read() throws IOException {
+					final int read = super.read();
+					if (read != -1) {
+						write(new byte[]{(byte) read}, 0, 1);
+					}
+					return read;
+				}
+
+				@Override
+				public int read(final byte[] b, final int off, final int len) throws IOException {
+					final int read = super.read(b, off, len);
+					if (read > 0) {
+						write(b, off, read);
+					}
+					return read;
+				}
+
+				@Override
+				public long skip(final long n) throws IOException {
+					// skipped bytes are not recorded
+					discard();
+					return super.skip(n);
+				}
+
+				@Override
+				public boolean markSupported() {
+					return false;
+				}
+			};
+		}
+
+		private void write(final byte[] b, final int off, final int len) {
+			if (discarded || closed) {
+				return;
+			}
+			size += len;
+			if (size > maxEntryBytes) {
+				discard();
+				return;
+			}
+			try {
+				if (buffer != null && size > SPILL_THRESHOLD) {
+					// spill
+					file = Files.createTempFile("etf-stdtot-body-", ".tmp");
+					fileOut = new BufferedOutputStream(Files.newOutputStream(file));
+					buffer.writeTo(fileOut);
+					buffer = null;
+				}
+				if (buffer != null) {
+					buffer.write(b, off, len);
+				} else {
+					fileOut.write(b, off, len);
+				}
+			} catch (final IOException e) {
+				ExcUtils.suppress(e);
+				discard();
+			}
+		}
+
+		/**
+		 * Read the rest of the response so that the complete body can be stored
+		 *
+		 * @param in stream returned by {@link #tee(InputStream)}, or a stream that wraps it
+		 * @throws IOException if the response can not be read
+		 */
+		void readFully(final InputStream in) throws IOException {
+			final byte[] buf = new byte[8192];
+			while (!discarded && in.read(buf) != -1) {
+				// recorded by the tee
+			}
+		}
+
+		/**
+		 * Store the body, if it has been read completely
+		 *
+		 * @param uri normalized URI that the detected type references
+		 */
+		void commit(final URI uri) {
+			if (discarded || closed) {
+				return;
+			}
+			closed = true;
+			try {
+				final Body body;
+				if (buffer != null) {
+					if (memoryBytes.addAndGet(buffer.size()) <= maxMemoryBytes) {
+						body = new Body(buffer.toByteArray(), null, size);
+					} else {
+						memoryBytes.addAndGet(-buffer.size());
+						file = Files.createTempFile("etf-stdtot-body-", ".tmp");
+						Files.write(file, buffer.toByteArray());
+						body = new Body(null, file, size);
+					}
+					buffer = null;
+				} else {
+					fileOut.close();
+					fileOut = null;
+					body = new Body(null, file, size);
+				}
+				committed = true;
+				bodies.put(uri.normalize(), body);
+			} catch (final IOException e) {
+				ExcUtils.suppress(e);
+				discard();
+			}
+		}
+
+		/**
+		 * Release the recorded bytes without storing them, has no effect after a commit
+		 */
+		void discard() {
+			if (committed) {
+				return;
+			}
+			discarded = true;
+			closed = true;
+			buffer = null;
+			if (fileOut != null) {
+				try {
+					fileOut.close();
+				} catch (final IOException e) {
+					ExcUtils.suppress(e);
+				}
+				fileOut = null;
+			}
+			if (file != null) {
+				try {
+					Files.deleteIfExists(file);
+				} catch (final IOException e) {
+					ExcUtils.suppress(e);
+				}
+				file = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,206 @@
+/**
+ * Copyright 2017 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Input stream with a maximum number of bytes, a read deadline and a total deadline.
+ *
+ * A watchdog aborts the request if no byte has been received within the read timeout or if
+ * the total timeout has elapsed, which unblocks a pending read. The wrapped stream itself is
+ * only closed by the reading thread, as a decompressing stream must not be closed while it
+ * is read. Reads beyond the limits throw a {@link LimitExceededException}, the detection of the
+ * resource is undecided.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class BoundedInputStream extends FilterInputStream {
+
+	private static final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(
+			DetectionExecutors.daemonThreadFactory("etf-stdtot-watchdog-"));
+
+	private static final String READ_TIMEOUT = "read timeout exceeded";
+
+	// Interval in which the deadlines are checked
+	private static final long CHECK_INTERVAL_MILLIS = 250;
+
+	/**
+	 * Thrown if the byte budget or a deadline has been exceeded
+	 */
+	static final class LimitExceededException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		private LimitExceededException(final String message) {
+			super(message);
+		}
+	}
+
+	private final long maxBytes;
+	private final long readTimeoutNanos;
+	private final long totalDeadline;
+	private final RequestAbort abort;
+	private final ScheduledFuture<?> check;
+	private long remainingBytes;
+	private volatile long lastProgress;
+	private volatile String expired;
+
+	/**
+	 * Wrap a stream
+	 *
+	 * @param in stream
+	 * @param abort request of the stream, which is aborted when a deadline expires
+	 * @param maxBytes maximum number of bytes that are read
+	 * @param readTimeout maximum time between two successful reads
+	 * @param totalTimeout maximum time until the stream is closed
+	 * @param unit unit of the timeouts
+	 * @param start {@link System#nanoTime()} when the request was sent, from which the total timeout
+	 *              is measured
+	 */
+	BoundedInputStream(final InputStream in, final RequestAbort abort, final long maxBytes, final long readTimeout,
+			final long totalTimeout, final TimeUnit unit, final long start) {
+		super(in);
+		this.abort = Objects.requireNonNull(abort);
+		this.maxBytes = maxBytes;
+		this.remainingBytes = maxBytes;
+		this.readTimeoutNanos = unit.toNanos(readTimeout);
+		this.lastProgress = System.nanoTime();
+		this.totalDeadline = start + unit.toNanos(totalTimeout);
+		this.check = watchdog.scheduleWithFixedDelay(this::checkDeadlines,
+				CHECK_INTERVAL_MILLIS, CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Abort a request that has not been answered within the total timeout. The connect and
+	 * read timeouts of the connections only apply to single connects and reads.
+	 *
+	 * @param abort request
+	 * @param totalTimeout maximum time until the request is answered
+	 * @param unit unit of the timeout
+	 * @return the scheduled abort, which must be cancelled when the response arrived
+	 */
+	static ScheduledFuture<?> abortAfter(final RequestAbort abort, final long totalTimeout, final TimeUnit unit) {
+		return watchdog.schedule(abort::abort, totalTimeout, unit);
+	}
+
+	private void checkDeadlines() {
+		final long now = System.nanoTime();
+		if (now - lastProgress > readTimeoutNanos) {
+			expire(READ_TIMEOUT);
+		} else if (now - totalDeadline > 0) {
+			expire("total timeout exceeded");
+		}
+	}
+
+	private void expire(final String reason) {
+		expired = reason;
+		check.cancel(false);
+		// disconnect, the reading thread closes the stream
+		abort.abort();
+	}
+
+	private void checkExpired() throws LimitExceededException {
+		if (expired != null) {
+			throw new LimitExceededException(expired);
+		}
+	}
+
+	private void checkRemaining() throws LimitExceededException {
+		checkExpired();
+		if (remainingBytes <= 0) {
+			throw new LimitExceededException("maximum of " + maxBytes + " bytes exceeded");
+		}
+	}
+
+	private void count(final long read) {
+		if (read > 0) {
+			remainingBytes -= read;
+			lastProgress = System.nanoTime();
+		}
+	}
+
+	/**
+	 * Returns true if the read timeout has been exceeded
+	 *
+	 * @return true if the server stopped sending data
+	 */
+	boolean isReadTimeoutExceeded() {
+		return READ_TIMEOUT.equals(expired);
+	}
+
+	@Override
+	public int read() throws IOException {
+		checkRemaining();
+		try {
+			final int read = in.read();
+			if (read != -1) {
+				count(1);
+			}
+			return read;
+		} catch (final IOException e) {
+			checkExpired();
+			throw e;
+		}
+	}
+
+	@Override
+	public int read(final byte[] b, final int off, final int len) throws IOException {
+		checkRemaining();
+		try {
+			final int read = in.read(b, off, (int) Math.min(len, remainingBytes));
+			count(read);
+			return read;
+		} catch (final IOException e) {
+			checkExpired();
+			throw e;
+		}
+	}
+
+	@Override
+	public long skip(final long n) throws IOException {
+		checkRemaining();
+		try {
+			final long skipped = in.skip(Math.min(n, remainingBytes));
+			count(skipped);
+			return skipped;
+		} catch (final IOException e) {
+			checkExpired();
+			throw e;
+		}
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+	@Override
+	public void close() throws IOException {
+		check.cancel(false);
+		super.close();
+	}
+}
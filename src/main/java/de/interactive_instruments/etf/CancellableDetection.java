@@ -0,0 +1,83 @@
+/**
+ * Copyright 2017 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Result of an asynchronous detection, which interrupts the detecting thread when it is cancelled.
+ *
+ * A detection checks the interrupted state of its thread between requests and a request
+ * that is blocked in an interruptible operation is aborted.
+ *
+ * @param <T> result type
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class CancellableDetection<T> extends CompletableFuture<T> {
+
+	private final Object lock = new Object();
+	private Thread runner;
+
+	@Override
+	public boolean cancel(final boolean mayInterruptIfRunning) {
+		final boolean cancelled = super.cancel(mayInterruptIfRunning);
+		if (cancelled) {
+			synchronized (lock) {
+				if (runner != null) {
+					runner.interrupt();
+				}
+			}
+		}
+		return cancelled;
+	}
+
+	/**
+	 * Run one stage of the detection in the current thread, so that it can be interrupted
+	 * if the detection is cancelled
+	 *
+	 * @param stage stage of the detection
+	 * @param <R> result type of the stage
+	 * @return result of the stage or null if the detection has been cancelled
+	 */
+	<R> R run(final Supplier<R> stage) {
+		if (isDone()) {
+			return null;
+		}
+		synchronized (lock) {
+			if (isCancelled()) {
+				return null;
+			}
+			runner = Thread.currentThread();
+		}
+		try {
+			return stage.get();
+		} finally {
+			synchronized (lock) {
+				runner = null;
+			}
+			if (isCancelled()) {
+				// do not leak the interrupt to the next task of a pooled thread
+				Thread.interrupted();
+			}
+		}
+	}
+}
@@ -20,7 +20,7 @@
 package de.interactive_instruments.etf;
 
 import java.net.URI;
-import java.util.Collection;
+import java.util.*;
 import java.util.regex.Pattern;
 
 import javax.xml.xpath.XPathExpressionException;
@@ -37,6 +37,7 @@ import de.interactive_instruments.SUtils;
 import de.interactive_instruments.UriUtils;
 import de.interactive_instruments.etf.dal.dto.capabilities.TestObjectTypeDto;
 import de.interactive_instruments.etf.detector.DetectedTestObjectType;
+import de.interactive_instruments.etf.model.EID;
 import de.interactive_instruments.etf.model.capabilities.*;
 
 /**
@@ -49,6 +50,11 @@ final class CompiledDetectionExpression implements Comparable<CompiledDetectionE
 	private final Expression descriptionExpression;
 	private final int priority;
 	private final Pattern uriDetectionPattern;
+	private final ExpressionAnalysis detectionAnalysis;
+	private final ExpressionAnalysis labelAnalysis;
+	private final ExpressionAnalysis descriptionAnalysis;
+	// default query without version parameters or null if the default query has no version parameters
+	private final Map<String, String> versionNegotiatingQuery;
 
 	CompiledDetectionExpression(final TestObjectTypeDto testObjectType, final XMLDog dog)
 			throws SAXPathException {
@@ -75,6 +81,14 @@ final class CompiledDetectionExpression implements Comparable<CompiledDetectionE
 			uriDetectionPattern = null;
 		}
 
+		// Determine which parts of a document must be read to resolve the expressions
+		detectionAnalysis = ExpressionAnalysis.analyze(testObjectType.getDetectionExpression());
+		labelAnalysis = labelExpression != null ? ExpressionAnalysis.analyze(testObjectType.getLabelExpression())
+				: null;
+		descriptionAnalysis = descriptionExpression != null
+				? ExpressionAnalysis.analyze(testObjectType.getDescriptionExpression())
+				: null;
+
 		// order objects with parents before objects without parents
 		TestObjectTypeDto parent = this.testObjectType.getParent();
 		int cmp = 0;
@@ -83,6 +97,80 @@ final class CompiledDetectionExpression implements Comparable<CompiledDetectionE
 		}
 		cmp += this.testObjectType.getSubTypes() == null ? -1 : 0;
 		priority = cmp;
+
+		// OWS servers answer a GetCapabilities request without version with their highest version
+		if (this.testObjectType.getDefaultQuery() != null) {
+			// KVP parameter names are case insensitive: WFS 2.0 uses REQUEST and WFS 1.x request.
+			// Upper case names let all versions share one request.
+			final Map<String, String> query = new LinkedHashMap<>();
+			for (final Map.Entry<String, String> parameter : UriUtils
+					.toSingleQueryParameterValues(this.testObjectType.getDefaultQuery()).entrySet()) {
+				query.put(parameter.getKey().toUpperCase(Locale.ENGLISH), parameter.getValue());
+			}
+			if (query.keySet().removeIf(key -> "VERSION".equals(key) || "ACCEPTVERSIONS".equals(key))) {
+				versionNegotiatingQuery = Collections.unmodifiableMap(query);
+			} else {
+				versionNegotiatingQuery = null;
+			}
+		} else {
+			versionNegotiatingQuery = null;
+		}
+	}
+
+	/**
+	 * Adds the expressions of this type that are not resolved by the results, which were
+	 * evaluated on the start tag of the root element. Label and description expressions are
+	 * only relevant if the type is detected.
+	 *
+	 * @param rootResults results from the start tag of the root element
+	 * @param pending collection the unresolved expressions are added to
+	 */
+	void addPendingExpressions(final XPathResults rootResults, final Collection<ExpressionAnalysis> pending) {
+		if (!detectionAnalysis.isRootElementOnly()) {
+			pending.add(detectionAnalysis);
+		} else {
+			final Object detected = rootResults.getResult(detectionExpression);
+			if (detected == null || !((Boolean) detected)) {
+				return;
+			}
+		}
+		if (labelAnalysis != null && !labelAnalysis.isRootElementOnly()) {
+			pending.add(labelAnalysis);
+		}
+		if (descriptionAnalysis != null && !descriptionAnalysis.isRootElementOnly()) {
+			pending.add(descriptionAnalysis);
+		}
+	}
+
+	EID getId() {
+		return testObjectType.getId();
+	}
+
+	/**
+	 * Returns the priority, lower values are evaluated first
+	 *
+	 * @return priority of the type
+	 */
+	int getPriority() {
+		return priority;
+	}
+
+	ExpressionAnalysis getDetectionAnalysis() {
+		return detectionAnalysis;
+	}
+
+	/**
+	 * Returns the combinations of namespace and local name of the root element, for which
+	 * the detection expression can be true
+	 *
+	 * @return list of {namespace, local name} pairs, null values match anything
+	 */
+	List<String[]> getRootNameKeys() {
+		return detectionAnalysis.getRootNameKeys();
+	}
+
+	boolean hasValueExpressions() {
+		return labelExpression != null || descriptionExpression != null;
 	}
 
 	String getValue(final XPathResults results, final Expression expression) {
@@ -110,6 +198,10 @@ final class CompiledDetectionExpression implements Comparable<CompiledDetectionE
 		return null;
 	}
 
+	DetectedTestObjectType getDetectedTestObjectType(final Resource normalizedResource) {
+		return new StdDetectedTestObjectType(this.testObjectType, normalizedResource, null, null, priority);
+	}
+
 	boolean isUriKnown(final URI uri) {
 		if (uriDetectionPattern != null) {
 			return uriDetectionPattern.matcher(uri.toString()).matches();
@@ -127,6 +219,31 @@ final class CompiledDetectionExpression implements Comparable<CompiledDetectionE
 		return resource;
 	}
 
+	/**
+	 * Returns the normalized resource without version parameters, for version negotiation
+	 * with OWS servers
+	 *
+	 * @param resource resource
+	 * @return normalized resource without version parameters or the normalized resource
+	 */
+	Resource getVersionNegotiatingResource(final Resource resource) {
+		if (versionNegotiatingQuery != null && resource instanceof RemoteResource) {
+			final MutableRemoteResource normalizedResource = Resource.toMutable((RemoteResource) resource);
+			normalizedResource.setQueyParameters(versionNegotiatingQuery);
+			return Resource.toImmutable(normalizedResource);
+		}
+		return getNormalizedResource(resource);
+	}
+
+	/**
+	 * Returns true if the default query contains version parameters
+	 *
+	 * @return true if the version can be negotiated
+	 */
+	boolean isVersionNegotiable() {
+		return versionNegotiatingQuery != null;
+	}
+
 	@Override
 	public int compareTo(final CompiledDetectionExpression o) {
 		final int cmp = Integer.compare(this.priority, o.priority);
@@ -0,0 +1,166 @@
+/**
+ * Copyright 2017 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.interactive_instruments.etf.detector.DetectedTestObjectType;
+import de.interactive_instruments.etf.model.capabilities.Resource;
+
+/**
+ * Detection of many resources with a bounded number of parallel detections in total and per host.
+ *
+ * The resources are queued per host. A host never has more than the maximum number of running
+ * detections, the next resource of a host is started when a detection of the host completes,
+ * so that a slow host does not block the detection of the resources of other hosts. Resources
+ * without host, like local directories, are not limited by each other and each have their own queue.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class DetectionBatch {
+
+	private static final Logger logger = LoggerFactory.getLogger(DetectionBatch.class);
+
+	private final Function<Resource, DetectedTestObjectType> detection;
+	private final DetectionBatchOptions options;
+	private final ExecutorService executor;
+	// limits the number of parallel detections if each detection runs on a new virtual thread
+	private final Semaphore permits;
+	// keyed by the host name, or by the resource itself if it has no host
+	private final Map<Object, Deque<Resource>> queuesByHost = new LinkedHashMap<>();
+	private final AtomicInteger remaining;
+	private final CompletableFuture<Void> completion = new CompletableFuture<>();
+
+	DetectionBatch(final Collection<Resource> resources, final DetectionBatchOptions options,
+			final Function<Resource, DetectedTestObjectType> detection) {
+		this.detection = detection;
+		this.options = options;
+		final ExecutorService virtualThreadExecutor = options.isVirtualThreads()
+				? DetectionExecutors.newVirtualThreadPerTaskExecutor()
+				: null;
+		if (virtualThreadExecutor != null) {
+			this.executor = virtualThreadExecutor;
+			this.permits = new Semaphore(options.getParallelism());
+		} else {
+			this.executor = Executors.newFixedThreadPool(options.getParallelism(),
+					DetectionExecutors.daemonThreadFactory("etf-stdtot-batch-"));
+			this.permits = null;
+		}
+		for (final Resource resource : resources) {
+			queuesByHost.computeIfAbsent(queueKey(resource), h -> new ArrayDeque<>()).add(resource);
+		}
+		this.remaining = new AtomicInteger(resources.size());
+		completion.whenComplete((v, e) -> {
+			if (completion.isCancelled()) {
+				executor.shutdownNow();
+			} else {
+				executor.shutdown();
+			}
+		});
+	}
+
+	private static Object queueKey(final Resource resource) {
+		if (resource.getUri() == null || resource.getUri().getHost() == null) {
+			return resource;
+		}
+		return resource.getUri().getHost().toLowerCase(Locale.ENGLISH);
+	}
+
+	/**
+	 * Start the detections
+	 *
+	 * @return future that completes when all resources have been detected, cancelling it
+	 * interrupts the running detections
+	 */
+	CompletableFuture<Void> start() {
+		if (remaining.get() == 0) {
+			completion.complete(null);
+			return completion;
+		}
+		for (final Deque<Resource> queue : queuesByHost.values()) {
+			for (int i = 0; i < options.getMaxPerHost(); i++) {
+				if (!submitNext(queue)) {
+					break;
+				}
+			}
+		}
+		return completion;
+	}
+
+	private boolean submitNext(final Deque<Resource> queue) {
+		final Resource resource;
+		synchronized (queue) {
+			resource = queue.poll();
+		}
+		if (resource == null) {
+			return false;
+		}
+		try {
+			executor.execute(() -> run(resource, queue));
+		} catch (final RejectedExecutionException e) {
+			// the resource would never complete, fails unless the batch has been cancelled
+			completion.completeExceptionally(e);
+			return false;
+		}
+		return true;
+	}
+
+	private void run(final Resource resource, final Deque<Resource> queue) {
+		try {
+			if (permits != null) {
+				permits.acquire();
+			}
+			try {
+				DetectedTestObjectType detectedType = null;
+				try {
+					detectedType = detection.apply(resource);
+				} catch (final RuntimeException e) {
+					logger.error("Error occurred during Test Object Type detection of {} ", resource.getUri(), e);
+				}
+				if (!completion.isDone()) {
+					options.getResultListener().accept(resource, detectedType);
+				}
+			} finally {
+				if (permits != null) {
+					permits.release();
+				}
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (final RuntimeException e) {
+			logger.error("Result listener failed for {} ", resource.getUri(), e);
+		} catch (final Error e) {
+			completion.completeExceptionally(e);
+			throw e;
+		} finally {
+			if (remaining.decrementAndGet() == 0) {
+				completion.complete(null);
+			} else if (!completion.isDone()) {
+				submitNext(queue);
+			}
+		}
+	}
+}
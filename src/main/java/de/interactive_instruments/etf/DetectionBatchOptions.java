@@ -0,0 +1,110 @@
+/**
+ * Copyright 2017 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf;
+
+import java.util.Objects;
+import java.util.function.BiConsumer;
+
+import de.interactive_instruments.etf.detector.DetectedTestObjectType;
+import de.interactive_instruments.etf.model.capabilities.Resource;
+
+/**
+ * Options for the detection of many resources with
+ * {@link StdTestObjectDetector#detectTypes(java.util.Collection, java.util.Set, DetectionBatchOptions)}.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+public class DetectionBatchOptions {
+
+	private int parallelism = 16;
+	private int maxPerHost = 4;
+	private boolean virtualThreads = false;
+	private BiConsumer<Resource, DetectedTestObjectType> resultListener = (resource, detectedType) -> {};
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Sets the maximum number of resources that are detected in parallel. Default is 16.
+	 *
+	 * @param parallelism maximum number of parallel detections
+	 * @return this
+	 */
+	public DetectionBatchOptions setParallelism(final int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Parallelism must be greater than 0");
+		}
+		this.parallelism = parallelism;
+		return this;
+	}
+
+	public int getMaxPerHost() {
+		return maxPerHost;
+	}
+
+	/**
+	 * Sets the maximum number of resources of the same host that are detected in parallel.
+	 * Default is 4.
+	 *
+	 * @param maxPerHost maximum number of parallel detections per host
+	 * @return this
+	 */
+	public DetectionBatchOptions setMaxPerHost(final int maxPerHost) {
+		if (maxPerHost < 1) {
+			throw new IllegalArgumentException("The maximum number of detections per host must be greater than 0");
+		}
+		this.maxPerHost = maxPerHost;
+		return this;
+	}
+
+	public boolean isVirtualThreads() {
+		return virtualThreads;
+	}
+
+	/**
+	 * Run each detection on a virtual thread, if the Java runtime supports virtual threads.
+	 * Otherwise a pool with parallelism platform threads is used. Disabled by default.
+	 *
+	 * @param virtualThreads true to use virtual threads
+	 * @return this
+	 */
+	public DetectionBatchOptions setVirtualThreads(final boolean virtualThreads) {
+		this.virtualThreads = virtualThreads;
+		return this;
+	}
+
+	public BiConsumer<Resource, DetectedTestObjectType> getResultListener() {
+		return resultListener;
+	}
+
+	/**
+	 * Sets the listener that is called as soon as the detection of a resource completes. The
+	 * listener is called concurrently by the detecting threads, with null as detected type if
+	 * the type of the resource could not be detected.
+	 *
+	 * @param resultListener listener for results
+	 * @return this
+	 */
+	public DetectionBatchOptions setResultListener(final BiConsumer<Resource, DetectedTestObjectType> resultListener) {
+		this.resultListener = Objects.requireNonNull(resultListener);
+		return this;
+	}
+}
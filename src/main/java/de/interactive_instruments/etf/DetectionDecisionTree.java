@@ -0,0 +1,198 @@
+/**
+ * Copyright 2017 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf;
+
+import java.util.*;
+
+/**
+ * All detection expressions merged into one decision tree, which is evaluated against the
+ * start tag of a root element.
+ *
+ * The first two levels dispatch on the local name and the namespace of the root element
+ * with the {@link RootElementIndex}. The remaining predicates of the candidates, like
+ * the version attribute tests, are interned, so that every distinct predicate is evaluated at
+ * most once per document, regardless of how many types share it. The leaves are the candidate
+ * expressions in priority order.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class DetectionDecisionTree {
+
+	private final RootElementIndex index;
+
+	// compiled root conditions, expressions that can not be decided with the root element are missing
+	private final Map<CompiledDetectionExpression, Node> compiledConditions = new HashMap<>();
+
+	// distinct predicates, the position is the id
+	private final List<ExpressionAnalysis.Condition> predicates = new ArrayList<>();
+
+	/**
+	 * Result of the evaluation
+	 */
+	static final class Decision {
+		private final List<CompiledDetectionExpression> candidates;
+		private final CompiledDetectionExpression detected;
+		private final boolean decided;
+
+		private Decision(final List<CompiledDetectionExpression> candidates,
+				final CompiledDetectionExpression detected, final boolean decided) {
+			this.candidates = candidates;
+			this.detected = detected;
+			this.decided = decided;
+		}
+
+		/**
+		 * Returns the candidates for the root element
+		 *
+		 * @return sorted candidates
+		 */
+		List<CompiledDetectionExpression> getCandidates() {
+			return candidates;
+		}
+
+		/**
+		 * Returns the first expression in priority order that is true
+		 *
+		 * @return detected expression or null if no expression is true or the result is not decided
+		 */
+		CompiledDetectionExpression getDetected() {
+			return detected;
+		}
+
+		/**
+		 * Returns true if all candidates with a higher priority than the detected expression
+		 * could be evaluated. If no expression was detected, all candidates have been evaluated.
+		 *
+		 * @return true if the decision is final
+		 */
+		boolean isDecided() {
+			return decided;
+		}
+	}
+
+	private interface Node {
+		boolean test(final Evaluation evaluation);
+	}
+
+	/**
+	 * Per document state with the memoized predicate results
+	 */
+	private final class Evaluation {
+		private final ExpressionAnalysis.Element rootElement;
+		// 0 not evaluated, 1 false, 2 true
+		private final byte[] results = new byte[predicates.size()];
+
+		private Evaluation(final ExpressionAnalysis.Element rootElement) {
+			this.rootElement = rootElement;
+		}
+
+		private boolean predicate(final int id) {
+			if (results[id] == 0) {
+				results[id] = ExpressionAnalysis.evaluate(predicates.get(id), rootElement) ? (byte) 2 : (byte) 1;
+			}
+			return results[id] == 2;
+		}
+	}
+
+	DetectionDecisionTree(final List<CompiledDetectionExpression> sortedExpressions) {
+		this.index = new RootElementIndex(sortedExpressions);
+		final Map<String, Integer> predicateIds = new HashMap<>();
+		for (final CompiledDetectionExpression expression : sortedExpressions) {
+			final ExpressionAnalysis.Condition condition = expression.getDetectionAnalysis().getRootCondition();
+			if (condition != null) {
+				compiledConditions.put(expression, compile(condition, predicateIds));
+			}
+		}
+	}
+
+	private Node compile(final ExpressionAnalysis.Condition condition, final Map<String, Integer> predicateIds) {
+		if (condition instanceof ExpressionAnalysis.Or) {
+			final Node[] nodes = compile(((ExpressionAnalysis.Or) condition).conditions, predicateIds);
+			return evaluation -> {
+				for (final Node node : nodes) {
+					if (node.test(evaluation)) {
+						return true;
+					}
+				}
+				return false;
+			};
+		} else if (condition instanceof ExpressionAnalysis.And) {
+			final Node[] nodes = compile(((ExpressionAnalysis.And) condition).conditions, predicateIds);
+			return evaluation -> {
+				for (final Node node : nodes) {
+					if (!node.test(evaluation)) {
+						return false;
+					}
+				}
+				return true;
+			};
+		} else if (condition instanceof ExpressionAnalysis.Not) {
+			final Node node = compile(((ExpressionAnalysis.Not) condition).condition, predicateIds);
+			return evaluation -> !node.test(evaluation);
+		}
+		final Integer id = predicateIds.computeIfAbsent(condition.toString(), k -> {
+			predicates.add(condition);
+			return predicates.size() - 1;
+		});
+		return evaluation -> evaluation.predicate(id);
+	}
+
+	private Node[] compile(final List<ExpressionAnalysis.Condition> conditions,
+			final Map<String, Integer> predicateIds) {
+		final Node[] nodes = new Node[conditions.size()];
+		for (int i = 0; i < nodes.length; i++) {
+			nodes[i] = compile(conditions.get(i), predicateIds);
+		}
+		return nodes;
+	}
+
+	/**
+	 * Evaluates the candidates for the root element in priority order, until the first
+	 * expression is true or an expression can not be decided with the root element.
+	 *
+	 * @param rootElement scanned root element
+	 * @param scope expressions that are evaluated or null for all expressions
+	 * @return decision
+	 */
+	Decision decide(final ExpressionAnalysis.Element rootElement,
+			final Collection<CompiledDetectionExpression> scope) {
+		List<CompiledDetectionExpression> candidates = index.getCandidates(
+				rootElement.getNamespaceUri(), rootElement.getLocalName());
+		if (scope != null) {
+			final List<CompiledDetectionExpression> scopedCandidates = new ArrayList<>(candidates.size());
+			for (final CompiledDetectionExpression candidate : candidates) {
+				if (scope.contains(candidate)) {
+					scopedCandidates.add(candidate);
+				}
+			}
+			candidates = scopedCandidates;
+		}
+		final Evaluation evaluation = new Evaluation(rootElement);
+		for (final CompiledDetectionExpression candidate : candidates) {
+			final Node node = compiledConditions.get(candidate);
+			if (node == null) {
+				return new Decision(candidates, null, false);
+			} else if (node.test(evaluation)) {
+				return new Decision(candidates, candidate, true);
+			}
+		}
+		return new Decision(candidates, null, true);
+	}
+}
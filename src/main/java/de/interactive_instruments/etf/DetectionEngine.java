@@ -0,0 +1,203 @@
+/**
+ * Copyright 2017 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+
+import javax.xml.xpath.XPathException;
+import javax.xml.xpath.XPathExpressionException;
+
+import jlibs.xml.DefaultNamespaceContext;
+import jlibs.xml.sax.dog.XMLDog;
+import jlibs.xml.sax.dog.XPathResults;
+
+import org.jaxen.saxpath.SAXPathException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.InputSource;
+
+import de.interactive_instruments.SUtils;
+import de.interactive_instruments.etf.dal.dto.capabilities.TestObjectTypeDto;
+import de.interactive_instruments.etf.detector.DetectedTestObjectType;
+import de.interactive_instruments.etf.model.DefaultEidMap;
+import de.interactive_instruments.etf.model.EID;
+import de.interactive_instruments.etf.model.EidMap;
+import de.interactive_instruments.etf.model.capabilities.Resource;
+
+/**
+ * Evaluates the detection expressions of a set of Test Object Types.
+ *
+ * The expressions are compiled into an own XMLDog instance, so that a sniff only evaluates
+ * the expressions of these types and not the expressions of all supported types.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class DetectionEngine {
+
+	private static final Logger logger = LoggerFactory.getLogger(DetectionEngine.class);
+
+	private final XMLDog xmlDog = new XMLDog(new DefaultNamespaceContext(), null, null);
+
+	private final List<CompiledDetectionExpression> detectionExpressions;
+
+	private final EidMap<CompiledDetectionExpression> detectionExpressionsEidMap = new DefaultEidMap<>();
+
+	// All detection expressions merged for the evaluation of scanned root elements
+	private final DetectionDecisionTree decisionTree;
+
+	/**
+	 * Compile the detection expressions of the types
+	 *
+	 * @param testObjectTypes types
+	 * @param logCompileErrors false if the expressions have already been compiled and errors
+	 *                         have been logged by another engine
+	 */
+	DetectionEngine(final Collection<TestObjectTypeDto> testObjectTypes, final boolean logCompileErrors) {
+		final List<CompiledDetectionExpression> expressions = new ArrayList<>();
+		for (final TestObjectTypeDto testObjectType : testObjectTypes) {
+			if (!SUtils.isNullOrEmpty(testObjectType.getDetectionExpression())) {
+				try {
+					final CompiledDetectionExpression compiledExpression = new CompiledDetectionExpression(testObjectType,
+							this.xmlDog);
+					expressions.add(compiledExpression);
+					detectionExpressionsEidMap.put(testObjectType.getId(), compiledExpression);
+				} catch (final SAXPathException e) {
+					if (logCompileErrors) {
+						logger.error("Could not compile XPath expression: ", e);
+					}
+				}
+			}
+		}
+		Collections.sort(expressions);
+		detectionExpressions = Collections.unmodifiableList(expressions);
+		decisionTree = new DetectionDecisionTree(detectionExpressions);
+	}
+
+	/**
+	 * Returns the detection expressions
+	 *
+	 * @return sorted expressions
+	 */
+	List<CompiledDetectionExpression> getExpressions() {
+		return detectionExpressions;
+	}
+
+	/**
+	 * Returns the detection expression of a Test Object Type
+	 *
+	 * @param testObjectTypeId Test Object Type ID
+	 * @return detection expression or null if the type is not detected by this engine
+	 */
+	CompiledDetectionExpression getExpression(final EID testObjectTypeId) {
+		return detectionExpressionsEidMap.get(testObjectTypeId);
+	}
+
+	/**
+	 * Returns the expressions of this engine for the types of expressions, which may
+	 * have been compiled by another engine
+	 *
+	 * @param expressions expressions of any engine
+	 * @return expressions of this engine in the same order
+	 */
+	List<CompiledDetectionExpression> getExpressions(final List<CompiledDetectionExpression> expressions) {
+		final List<CompiledDetectionExpression> ownExpressions = new ArrayList<>(expressions.size());
+		for (final CompiledDetectionExpression expression : expressions) {
+			ownExpressions.add(Objects.requireNonNull(detectionExpressionsEidMap.get(expression.getId())));
+		}
+		return ownExpressions;
+	}
+
+	private XPathResults sniff(final InputStream inputStream, final List<CompiledDetectionExpression> expressions,
+			final boolean earlyAbortSniffing) throws IOException, XPathException {
+		if (earlyAbortSniffing) {
+			return PrefixSniffer.sniff(xmlDog, inputStream, rootResults -> {
+				final List<ExpressionAnalysis> pending = new ArrayList<>();
+				for (final CompiledDetectionExpression expression : expressions) {
+					expression.addPendingExpressions(rootResults, pending);
+				}
+				return pending;
+			});
+		}
+		return xmlDog.sniff(new InputSource(inputStream));
+	}
+
+	/**
+	 * Detect the first matching type in a document. If possible, the types are decided with
+	 * the scanned start tag of the root element. XMLDog is only used if an expression can not
+	 * be decided with the root element or if a label or description must be extracted.
+	 *
+	 * @param inputStream document
+	 * @param resource resource that is referenced by the detected type
+	 * @param expressions sorted expressions of this engine
+	 * @param rootElementScanning true if the root element is scanned
+	 * @param earlyAbortSniffing true if sniffing stops after all expressions are resolved
+	 * @return Test Object Type or null if unknown
+	 */
+	DetectedTestObjectType detect(final InputStream inputStream, final Resource resource,
+			final List<CompiledDetectionExpression> expressions, final boolean rootElementScanning,
+			final boolean earlyAbortSniffing) throws IOException, XPathException {
+		if (!rootElementScanning) {
+			return detectFromResults(sniff(inputStream, expressions, earlyAbortSniffing), resource, expressions);
+		}
+		final BufferedInputStream bufferedStream = new BufferedInputStream(inputStream);
+		bufferedStream.mark(RootElementScanner.MAX_SCAN_BYTES);
+		final RootElementScanner.ScannedElement rootElement = RootElementScanner.scan(bufferedStream);
+		if (rootElement != null) {
+			final DetectionDecisionTree.Decision decision = decisionTree.decide(rootElement,
+					expressions == detectionExpressions ? null : expressions);
+			final CompiledDetectionExpression detected = decision.getDetected();
+			final List<CompiledDetectionExpression> candidates;
+			if (decision.isDecided()) {
+				if (detected == null) {
+					return null;
+				} else if (!detected.hasValueExpressions()) {
+					return detected.getDetectedTestObjectType(resource);
+				}
+				// only the label and description of the detected type must be extracted
+				candidates = Collections.singletonList(detected);
+			} else {
+				candidates = decision.getCandidates();
+			}
+			bufferedStream.reset();
+			return detectFromResults(sniff(bufferedStream, candidates, earlyAbortSniffing), resource, candidates);
+		}
+		bufferedStream.reset();
+		return detectFromResults(sniff(bufferedStream, expressions, earlyAbortSniffing), resource, expressions);
+	}
+
+	private DetectedTestObjectType detectFromResults(final XPathResults results,
+			final Resource resource, final List<CompiledDetectionExpression> expressions) {
+		for (final CompiledDetectionExpression detectionExpression : expressions) {
+			try {
+				final DetectedTestObjectType type = detectionExpression.getDetectedTestObjectType(
+						results, resource);
+				if (type != null) {
+					return type;
+				}
+			} catch (ClassCastException | XPathExpressionException e) {
+				logger.error("Could not evaluate XPath expression: ", e);
+			}
+		}
+		return null;
+	}
+}
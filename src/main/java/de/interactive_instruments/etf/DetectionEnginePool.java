@@ -0,0 +1,97 @@
+/**
+ * Copyright 2017 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.interactive_instruments.etf.dal.dto.capabilities.TestObjectTypeDto;
+import de.interactive_instruments.etf.model.EID;
+
+/**
+ * Lock-free pool of detection engines for a set of Test Object Types.
+ *
+ * The compiled expressions of an engine are bound to its XMLDog instance, which is not
+ * documented to be thread-safe. An engine is therefore only used by one thread at a time:
+ * threads borrow an idle engine or build a new one, and return it after the detection.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class DetectionEnginePool {
+
+	// Maximum number of idle engines that are kept
+	private static final int MAX_IDLE_ENGINES = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+	private final List<TestObjectTypeDto> testObjectTypes;
+	private final Set<EID> detectableTypes;
+	private final ConcurrentLinkedQueue<DetectionEngine> idleEngines = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger idleCount = new AtomicInteger();
+
+	DetectionEnginePool(final Collection<TestObjectTypeDto> testObjectTypes) {
+		this.testObjectTypes = Collections.unmodifiableList(new ArrayList<>(testObjectTypes));
+		// errors are only logged once per pool, the other engines compile the same expressions
+		final DetectionEngine engine = new DetectionEngine(this.testObjectTypes, true);
+		final Set<EID> types = new HashSet<>();
+		for (final TestObjectTypeDto testObjectType : this.testObjectTypes) {
+			if (engine.getExpression(testObjectType.getId()) != null) {
+				types.add(testObjectType.getId());
+			}
+		}
+		this.detectableTypes = Collections.unmodifiableSet(types);
+		release(engine);
+	}
+
+	/**
+	 * Returns the IDs of the types that have a valid detection expression
+	 *
+	 * @return unmodifiable set of Test Object Type IDs
+	 */
+	Set<EID> getDetectableTypes() {
+		return detectableTypes;
+	}
+
+	/**
+	 * Borrow an engine, which must be returned with {@link #release(DetectionEngine)}
+	 *
+	 * @return engine that is exclusively used by the caller
+	 */
+	DetectionEngine borrow() {
+		final DetectionEngine engine = idleEngines.poll();
+		if (engine != null) {
+			idleCount.decrementAndGet();
+			return engine;
+		}
+		return new DetectionEngine(testObjectTypes, false);
+	}
+
+	/**
+	 * Return a borrowed engine
+	 *
+	 * @param engine borrowed engine
+	 */
+	void release(final DetectionEngine engine) {
+		if (idleCount.incrementAndGet() <= MAX_IDLE_ENGINES) {
+			idleEngines.offer(engine);
+		} else {
+			idleCount.decrementAndGet();
+		}
+	}
+}
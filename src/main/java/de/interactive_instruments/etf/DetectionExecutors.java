@@ -0,0 +1,108 @@
+/**
+ * Copyright 2017 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.interactive_instruments.exceptions.ExcUtils;
+
+/**
+ * Executors for detections.
+ *
+ * Virtual threads are created with reflection, as the module is compiled for Java 8.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class DetectionExecutors {
+
+	// Executors.newVirtualThreadPerTaskExecutor() or null if not supported by the runtime
+	private static final Method newVirtualThreadPerTaskExecutor;
+	static {
+		Method method = null;
+		try {
+			method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (final NoSuchMethodException e) {
+			ExcUtils.suppress(e);
+		}
+		newVirtualThreadPerTaskExecutor = method;
+	}
+
+	private DetectionExecutors() {}
+
+	// Lazily created executor that is shared by all detectors
+	private static final class SharedVirtualThreadExecutor {
+		private static final ExecutorService instance = newVirtualThreadPerTaskExecutor();
+	}
+
+	/**
+	 * Returns true if the Java runtime supports virtual threads
+	 *
+	 * @return true if virtual threads can be used
+	 */
+	static boolean isVirtualThreadSupported() {
+		return newVirtualThreadPerTaskExecutor != null;
+	}
+
+	/**
+	 * Create an executor that starts a virtual thread for each task
+	 *
+	 * @return new executor or null if virtual threads are not supported
+	 */
+	static ExecutorService newVirtualThreadPerTaskExecutor() {
+		if (newVirtualThreadPerTaskExecutor == null) {
+			return null;
+		}
+		try {
+			return (ExecutorService) newVirtualThreadPerTaskExecutor.invoke(null);
+		} catch (final ReflectiveOperationException e) {
+			ExcUtils.suppress(e);
+			return null;
+		}
+	}
+
+	/**
+	 * Returns an executor that starts a virtual thread for each task, which is shared by all
+	 * detectors and never shut down
+	 *
+	 * @return shared executor or null if virtual threads are not supported
+	 */
+	static ExecutorService sharedVirtualThreadExecutor() {
+		return isVirtualThreadSupported() ? SharedVirtualThreadExecutor.instance : null;
+	}
+
+	/**
+	 * Create a factory for daemon threads
+	 *
+	 * @param namePrefix prefix of the thread names
+	 * @return new thread factory
+	 */
+	static ThreadFactory daemonThreadFactory(final String namePrefix) {
+		final AtomicInteger count = new AtomicInteger();
+		return runnable -> {
+			final Thread thread = new Thread(runnable, namePrefix + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+}
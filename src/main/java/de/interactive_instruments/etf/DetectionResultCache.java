@@ -0,0 +1,135 @@
+/**
+ * Copyright 2017 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+import de.interactive_instruments.etf.detector.DetectedTestObjectType;
+import de.interactive_instruments.etf.model.EID;
+import de.interactive_instruments.etf.model.capabilities.Resource;
+
+/**
+ * Size bounded cache of detected types of remote resources, which are evicted after a time to live.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class DetectionResultCache {
+
+	private final Cache<Key, DetectedTestObjectType> cache;
+
+	/**
+	 * Normalized URI and the expected types of a detection
+	 */
+	static final class Key {
+		private final URI uri;
+		// null if all types are expected
+		private final Set<EID> expectedTypes;
+		private final int hashCode;
+
+		Key(final Resource resource, final Set<EID> expectedTypes) {
+			this.uri = resource.getUri().normalize();
+			this.expectedTypes = expectedTypes != null ? Collections.unmodifiableSet(new HashSet<>(expectedTypes)) : null;
+			this.hashCode = Objects.hash(uri, this.expectedTypes);
+		}
+
+		URI getUri() {
+			return uri;
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			final Key key = (Key) o;
+			return uri.equals(key.uri) && Objects.equals(expectedTypes, key.expectedTypes);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public String toString() {
+			return expectedTypes != null ? uri + " " + expectedTypes : uri.toString();
+		}
+	}
+
+	/**
+	 * Create a new cache
+	 *
+	 * @param maximumSize maximum number of cached results, 0 disables the cache
+	 * @param timeToLive time after which a result is evicted
+	 * @param unit unit of the time to live
+	 */
+	DetectionResultCache(final long maximumSize, final long timeToLive, final TimeUnit unit) {
+		this.cache = Caffeine.newBuilder()
+				.maximumSize(maximumSize)
+				.expireAfterWrite(timeToLive, unit)
+				.recordStats()
+				.build();
+	}
+
+	/**
+	 * Returns a cached result
+	 *
+	 * @param key normalized URI and expected types
+	 * @return detected type or null if not cached
+	 */
+	DetectedTestObjectType get(final Key key) {
+		return cache.getIfPresent(key);
+	}
+
+	/**
+	 * Cache a detected type
+	 *
+	 * @param key normalized URI and expected types
+	 * @param detectedType detected type, must not be null
+	 */
+	void put(final Key key, final DetectedTestObjectType detectedType) {
+		cache.put(key, detectedType);
+	}
+
+	/**
+	 * Returns hit, miss and eviction counters
+	 *
+	 * @return statistics since the creation of the cache
+	 */
+	CacheStats stats() {
+		return cache.stats();
+	}
+
+	void invalidateAll() {
+		cache.invalidateAll();
+	}
+}
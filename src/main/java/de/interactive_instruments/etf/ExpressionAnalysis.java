@@ -0,0 +1,776 @@
+/**
+ * Copyright 2017 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Static analysis of a detection XPath expression.
+ *
+ * Only the subset of XPath that is used by the detection expressions is understood: an
+ * absolute location path with child steps, optionally wrapped in boolean() or (...)[1],
+ * with predicates that compare local-name(), namespace-uri(), name() or attributes of the
+ * context node. Expressions outside of this subset are marked as not analyzable and are
+ * always evaluated on the full document.
+ *
+ * The analysis determines the deepest element level an expression can access and whether
+ * text content or attributes are required, so that the parser can stop reading a document
+ * as soon as no pending expression can match any more.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class ExpressionAnalysis {
+
+	// Depth of expressions that require the whole document
+	static final int UNBOUNDED = Integer.MAX_VALUE;
+
+	enum StepKind {
+		ELEMENT, TEXT, ATTRIBUTE
+	}
+
+	/**
+	 * One step of an absolute location path
+	 */
+	static final class Step {
+		final StepKind kind;
+		// null for the wildcard
+		final String name;
+		// null if there is no predicate
+		final Condition condition;
+		// 0 if there is no positional predicate
+		final int position;
+
+		private Step(final StepKind kind, final String name, final Condition condition, final int position) {
+			this.kind = kind;
+			this.name = name;
+			this.condition = condition;
+			this.position = position;
+		}
+	}
+
+	/**
+	 * Predicate on the context element
+	 */
+	interface Condition {}
+
+	static final class Or implements Condition {
+		final List<Condition> conditions;
+
+		private Or(final List<Condition> conditions) {
+			this.conditions = Collections.unmodifiableList(conditions);
+		}
+	}
+
+	static final class And implements Condition {
+		final List<Condition> conditions;
+
+		private And(final List<Condition> conditions) {
+			this.conditions = Collections.unmodifiableList(conditions);
+		}
+	}
+
+	static final class Not implements Condition {
+		final Condition condition;
+
+		private Not(final Condition condition) {
+			this.condition = condition;
+		}
+	}
+
+	/**
+	 * Comparisons with '=', '!=', starts-with() and contains()
+	 */
+	static final class Compare implements Condition {
+		enum Op {
+			EQUALS, NOT_EQUALS, STARTS_WITH, CONTAINS
+		}
+
+		final Operand left;
+		final Op op;
+		final Operand right;
+
+		private Compare(final Operand left, final Op op, final Operand right) {
+			this.left = left;
+			this.op = op;
+			this.right = right;
+		}
+
+		@Override
+		public String toString() {
+			return op + "(" + left + "," + right + ")";
+		}
+	}
+
+	/**
+	 * Attribute existence test
+	 */
+	static final class Exists implements Condition {
+		final String attribute;
+
+		private Exists(final String attribute) {
+			this.attribute = attribute;
+		}
+
+		@Override
+		public String toString() {
+			return "EXISTS(@" + attribute + ")";
+		}
+	}
+
+	/**
+	 * Element, that is tested against a step
+	 */
+	interface Element {
+		String getNamespaceUri();
+
+		String getLocalName();
+
+		String getQName();
+
+		/**
+		 * Returns the value of an attribute without namespace
+		 *
+		 * @param name local name of the attribute
+		 * @return attribute value or null if the attribute does not exist
+		 */
+		String getAttribute(final String name);
+	}
+
+	static final class Operand {
+		enum Kind {
+			LOCAL_NAME, NAMESPACE_URI, NAME, ATTRIBUTE, LITERAL
+		}
+
+		final Kind kind;
+		// attribute name or literal value
+		final String value;
+
+		private Operand(final Kind kind, final String value) {
+			this.kind = kind;
+			this.value = value;
+		}
+
+		@Override
+		public String toString() {
+			return value != null ? kind + "'" + value + "'" : kind.toString();
+		}
+	}
+
+	private static final class UnsupportedExpressionException extends Exception {
+		private static final long serialVersionUID = 1L;
+
+		private UnsupportedExpressionException(final String message) {
+			super(message, null, false, false);
+		}
+	}
+
+	private final String xpath;
+	// null if the expression could not be analyzed
+	private final List<Step> steps;
+	private final boolean booleanResult;
+	private final int maxDepth;
+	private final boolean needsText;
+	private final boolean needsAttributes;
+
+	private ExpressionAnalysis(final String xpath, final List<Step> steps, final boolean booleanResult) {
+		this.xpath = xpath;
+		this.steps = steps;
+		this.booleanResult = booleanResult;
+		if (steps == null) {
+			this.maxDepth = UNBOUNDED;
+			this.needsText = true;
+			this.needsAttributes = true;
+		} else {
+			int depth = 0;
+			boolean attributes = false;
+			for (final Step step : steps) {
+				if (step.kind == StepKind.ELEMENT) {
+					depth++;
+				} else if (step.kind == StepKind.ATTRIBUTE) {
+					attributes = true;
+				}
+				attributes |= usesAttributes(step.condition);
+			}
+			final StepKind lastKind = steps.get(steps.size() - 1).kind;
+			// the string value of an element requires the whole subtree
+			this.maxDepth = lastKind == StepKind.ELEMENT && !booleanResult ? UNBOUNDED : depth;
+			this.needsText = lastKind == StepKind.TEXT;
+			this.needsAttributes = attributes;
+		}
+	}
+
+	private static boolean usesAttributes(final Condition condition) {
+		if (condition instanceof Or) {
+			return ((Or) condition).conditions.stream().anyMatch(ExpressionAnalysis::usesAttributes);
+		} else if (condition instanceof And) {
+			return ((And) condition).conditions.stream().anyMatch(ExpressionAnalysis::usesAttributes);
+		} else if (condition instanceof Not) {
+			return usesAttributes(((Not) condition).condition);
+		} else if (condition instanceof Compare) {
+			return ((Compare) condition).left.kind == Operand.Kind.ATTRIBUTE
+					|| ((Compare) condition).right.kind == Operand.Kind.ATTRIBUTE;
+		}
+		return condition instanceof Exists;
+	}
+
+	static ExpressionAnalysis analyze(final String xpath) {
+		try {
+			final Parser parser = new Parser(tokenize(xpath));
+			final List<Step> steps = parser.parseTop();
+			return new ExpressionAnalysis(xpath, Collections.unmodifiableList(steps), parser.booleanResult);
+		} catch (final UnsupportedExpressionException e) {
+			return new ExpressionAnalysis(xpath, null, false);
+		}
+	}
+
+	String getXPath() {
+		return xpath;
+	}
+
+	boolean isAnalyzable() {
+		return steps != null;
+	}
+
+	/**
+	 * Returns the steps of the location path or null if the expression is not analyzable
+	 *
+	 * @return unmodifiable list of steps
+	 */
+	List<Step> getSteps() {
+		return steps;
+	}
+
+	/**
+	 * Returns true if the expression can be evaluated with the start tag of the root element only
+	 *
+	 * @return true if only the name, the namespace and the attributes of the root element are accessed
+	 */
+	boolean isRootElementOnly() {
+		return maxDepth == 1 && !needsText;
+	}
+
+	/**
+	 * Returns the combinations of namespace and local name the root element must have, so
+	 * that the expression can select a node. A null value in a combination matches any
+	 * namespace or any local name.
+	 *
+	 * @return list of {namespace, local name} pairs
+	 */
+	List<String[]> getRootNameKeys() {
+		final List<String[]> any = Collections.singletonList(new String[]{null, null});
+		if (steps == null || steps.get(0).kind != StepKind.ELEMENT) {
+			return any;
+		}
+		final Step rootStep = steps.get(0);
+		List<String[]> keys = rootStep.name != null
+				? Collections.singletonList(new String[]{"", rootStep.name})
+				: any;
+		if (rootStep.condition != null) {
+			keys = combine(keys, nameKeys(rootStep.condition));
+		}
+		return keys;
+	}
+
+	private static List<String[]> nameKeys(final Condition condition) {
+		if (condition instanceof Or) {
+			final List<String[]> keys = new ArrayList<>();
+			for (final Condition c : ((Or) condition).conditions) {
+				keys.addAll(nameKeys(c));
+			}
+			return keys;
+		} else if (condition instanceof And) {
+			List<String[]> keys = Collections.singletonList(new String[]{null, null});
+			for (final Condition c : ((And) condition).conditions) {
+				keys = combine(keys, nameKeys(c));
+			}
+			return keys;
+		} else if (condition instanceof Compare && ((Compare) condition).op == Compare.Op.EQUALS) {
+			final Compare compare = (Compare) condition;
+			final Operand function = compare.left.kind == Operand.Kind.LITERAL ? compare.right : compare.left;
+			final Operand literal = compare.left.kind == Operand.Kind.LITERAL ? compare.left : compare.right;
+			if (literal.kind == Operand.Kind.LITERAL) {
+				if (function.kind == Operand.Kind.LOCAL_NAME) {
+					return Collections.singletonList(new String[]{null, literal.value});
+				} else if (function.kind == Operand.Kind.NAMESPACE_URI) {
+					return Collections.singletonList(new String[]{literal.value, null});
+				}
+			}
+		}
+		// all other conditions do not restrict the name
+		return Collections.singletonList(new String[]{null, null});
+	}
+
+	/**
+	 * Combines the keys of two conjunct conditions, contradicting combinations are dropped
+	 */
+	private static List<String[]> combine(final List<String[]> first, final List<String[]> second) {
+		final List<String[]> combined = new ArrayList<>(first.size() * second.size());
+		for (final String[] a : first) {
+			for (final String[] b : second) {
+				if (!contradicts(a[0], b[0]) && !contradicts(a[1], b[1])) {
+					combined.add(new String[]{a[0] != null ? a[0] : b[0], a[1] != null ? a[1] : b[1]});
+				}
+			}
+		}
+		return combined;
+	}
+
+	private static boolean contradicts(final String a, final String b) {
+		return a != null && b != null && !a.equals(b);
+	}
+
+	/**
+	 * Returns the condition the root element must fulfill, so that a boolean expression, which
+	 * only accesses the root element, is true. The node test of the root step and a selected
+	 * attribute are included in the condition.
+	 *
+	 * @return condition or null if the expression can not be decided with the root element only
+	 */
+	Condition getRootCondition() {
+		if (!booleanResult || !isRootElementOnly()) {
+			return null;
+		}
+		final Step rootStep = steps.get(0);
+		if (rootStep.position > 1) {
+			return null;
+		}
+		final List<Condition> conditions = new ArrayList<>(4);
+		if (rootStep.name != null) {
+			conditions.add(new Compare(new Operand(Operand.Kind.LOCAL_NAME, null), Compare.Op.EQUALS,
+					new Operand(Operand.Kind.LITERAL, rootStep.name)));
+			conditions.add(new Compare(new Operand(Operand.Kind.NAMESPACE_URI, null), Compare.Op.EQUALS,
+					new Operand(Operand.Kind.LITERAL, "")));
+		}
+		if (rootStep.condition != null) {
+			conditions.add(rootStep.condition);
+		}
+		if (steps.size() == 2) {
+			conditions.add(new Exists(steps.get(1).name));
+		}
+		return conditions.size() == 1 ? conditions.get(0) : new And(conditions);
+	}
+
+	/**
+	 * Returns the deepest element level the expression can access, starting with 1 for the
+	 * root element
+	 *
+	 * @return depth or UNBOUNDED if the whole document is required
+	 */
+	int getMaxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * Returns true if the text content of the elements on the deepest level is accessed
+	 *
+	 * @return true if text nodes are required
+	 */
+	boolean needsText() {
+		return needsText;
+	}
+
+	/**
+	 * Returns true if attributes are accessed in a predicate or selected
+	 *
+	 * @return true if attributes are required
+	 */
+	boolean needsAttributes() {
+		return needsAttributes;
+	}
+
+	/**
+	 * Returns the element step for a level
+	 *
+	 * @param depth level starting with 1 for the root element
+	 * @return step or null if the expression does not access elements on this level
+	 */
+	Step getElementStep(final int depth) {
+		if (steps == null || depth < 1 || depth > steps.size()) {
+			return null;
+		}
+		final Step step = steps.get(depth - 1);
+		return step.kind == StepKind.ELEMENT ? step : null;
+	}
+
+	/**
+	 * Returns the number of matching elements on the second level after which no further
+	 * node can match, as the second step of the expression has a positional predicate.
+	 *
+	 * @return position of the second step or 0 if all elements must be read
+	 */
+	int getCompletionPosition() {
+		final Step step = getElementStep(2);
+		return step != null ? step.position : 0;
+	}
+
+	/**
+	 * Tests an element against the node test and the predicates of a step
+	 *
+	 * @param step element step
+	 * @param element element to test
+	 * @return true if the element is selected by the step, ignoring positional predicates
+	 */
+	static boolean matches(final Step step, final Element element) {
+		if (step.name != null && (!step.name.equals(element.getLocalName())
+				|| !isNullOrEmpty(element.getNamespaceUri()))) {
+			return false;
+		}
+		return step.condition == null || evaluate(step.condition, element);
+	}
+
+	static boolean evaluate(final Condition condition, final Element element) {
+		if (condition instanceof Or) {
+			for (final Condition c : ((Or) condition).conditions) {
+				if (evaluate(c, element)) {
+					return true;
+				}
+			}
+			return false;
+		} else if (condition instanceof And) {
+			for (final Condition c : ((And) condition).conditions) {
+				if (!evaluate(c, element)) {
+					return false;
+				}
+			}
+			return true;
+		} else if (condition instanceof Not) {
+			return !evaluate(((Not) condition).condition, element);
+		} else if (condition instanceof Exists) {
+			return element.getAttribute(((Exists) condition).attribute) != null;
+		}
+		final Compare compare = (Compare) condition;
+		final String left = value(compare.left, element);
+		final String right = value(compare.right, element);
+		switch (compare.op) {
+		case EQUALS:
+			// comparisons with an empty node set are always false
+			return left != null && right != null && left.equals(right);
+		case NOT_EQUALS:
+			return left != null && right != null && !left.equals(right);
+		case STARTS_WITH:
+			return (left != null ? left : "").startsWith(right != null ? right : "");
+		default:
+			return (left != null ? left : "").contains(right != null ? right : "");
+		}
+	}
+
+	private static String value(final Operand operand, final Element element) {
+		switch (operand.kind) {
+		case LOCAL_NAME:
+			return element.getLocalName();
+		case NAMESPACE_URI:
+			return element.getNamespaceUri() != null ? element.getNamespaceUri() : "";
+		case NAME:
+			return element.getQName();
+		case ATTRIBUTE:
+			return element.getAttribute(operand.value);
+		default:
+			return operand.value;
+		}
+	}
+
+	private static boolean isNullOrEmpty(final String value) {
+		return value == null || value.isEmpty();
+	}
+
+	private static List<String> tokenize(final String xpath) throws UnsupportedExpressionException {
+		if (xpath == null) {
+			throw new UnsupportedExpressionException("No expression");
+		}
+		final List<String> tokens = new ArrayList<>();
+		int i = 0;
+		final int length = xpath.length();
+		while (i < length) {
+			final char c = xpath.charAt(i);
+			if (Character.isWhitespace(c)) {
+				i++;
+			} else if (c == '\'' || c == '"') {
+				final int end = xpath.indexOf(c, i + 1);
+				if (end == -1) {
+					throw new UnsupportedExpressionException("Unterminated literal");
+				}
+				// literals keep the leading quote as marker
+				tokens.add(xpath.substring(i, end));
+				i = end + 1;
+			} else if (i + 1 < length && (xpath.startsWith("//", i) || xpath.startsWith("::", i)
+					|| xpath.startsWith("!=", i) || xpath.startsWith("..", i))) {
+				tokens.add(xpath.substring(i, i + 2));
+				i += 2;
+			} else if (Character.isLetter(c) || c == '_') {
+				int end = i + 1;
+				while (end < length) {
+					final char n = xpath.charAt(end);
+					if (Character.isLetterOrDigit(n) || n == '-' || n == '_' || n == '.'
+							|| (n == ':' && (end + 1 >= length || xpath.charAt(end + 1) != ':'))) {
+						end++;
+					} else {
+						break;
+					}
+				}
+				tokens.add(xpath.substring(i, end));
+				i = end;
+			} else if (Character.isDigit(c)) {
+				int end = i + 1;
+				while (end < length && (Character.isDigit(xpath.charAt(end)) || xpath.charAt(end) == '.')) {
+					end++;
+				}
+				tokens.add(xpath.substring(i, end));
+				i = end;
+			} else {
+				tokens.add(String.valueOf(c));
+				i++;
+			}
+		}
+		return tokens;
+	}
+
+	private static boolean isLiteral(final String token) {
+		return token.charAt(0) == '\'' || token.charAt(0) == '"';
+	}
+
+	private static boolean isNumber(final String token) {
+		return Character.isDigit(token.charAt(0));
+	}
+
+	private static final class Parser {
+		private final List<String> tokens;
+		private int pos;
+		private boolean booleanResult;
+
+		private Parser(final List<String> tokens) {
+			this.tokens = tokens;
+		}
+
+		private String peek() {
+			return pos < tokens.size() ? tokens.get(pos) : null;
+		}
+
+		private String peek(final int offset) {
+			return pos + offset < tokens.size() ? tokens.get(pos + offset) : null;
+		}
+
+		private boolean accept(final String token) {
+			if (token.equals(peek())) {
+				pos++;
+				return true;
+			}
+			return false;
+		}
+
+		private void expect(final String token) throws UnsupportedExpressionException {
+			if (!accept(token)) {
+				throw new UnsupportedExpressionException("Expected '" + token + "'");
+			}
+		}
+
+		private String next() throws UnsupportedExpressionException {
+			final String token = peek();
+			if (token == null) {
+				throw new UnsupportedExpressionException("Unexpected end of expression");
+			}
+			pos++;
+			return token;
+		}
+
+		List<Step> parseTop() throws UnsupportedExpressionException {
+			final List<Step> steps;
+			if ("boolean".equals(peek()) && "(".equals(peek(1))) {
+				pos += 2;
+				booleanResult = true;
+				steps = parsePath();
+				expect(")");
+			} else if (accept("(")) {
+				steps = parsePath();
+				expect(")");
+				// only selecting the first node keeps the semantic of the inner path
+				if (accept("[")) {
+					expect("1");
+					expect("]");
+				}
+			} else {
+				steps = parsePath();
+			}
+			if (peek() != null) {
+				throw new UnsupportedExpressionException("Unexpected token " + peek());
+			}
+			return steps;
+		}
+
+		private List<Step> parsePath() throws UnsupportedExpressionException {
+			final List<Step> steps = new ArrayList<>();
+			expect("/");
+			steps.add(parseStep());
+			while (accept("/")) {
+				if (steps.get(steps.size() - 1).kind != StepKind.ELEMENT) {
+					throw new UnsupportedExpressionException("Only element steps can have children");
+				}
+				steps.add(parseStep());
+			}
+			return steps;
+		}
+
+		private Step parseStep() throws UnsupportedExpressionException {
+			final String token = next();
+			if ("@".equals(token)) {
+				final String name = next();
+				if (!Character.isLetter(name.charAt(0)) || name.indexOf(':') != -1) {
+					throw new UnsupportedExpressionException("Unsupported attribute step");
+				}
+				return new Step(StepKind.ATTRIBUTE, name, null, 0);
+			} else if ("text".equals(token)) {
+				expect("(");
+				expect(")");
+				return new Step(StepKind.TEXT, null, null, 0);
+			}
+			final String name;
+			if ("*".equals(token)) {
+				name = null;
+			} else if (Character.isLetter(token.charAt(0)) && token.indexOf(':') == -1
+					&& !"(".equals(peek()) && !"::".equals(peek())) {
+				name = token;
+			} else {
+				throw new UnsupportedExpressionException("Unsupported step " + token);
+			}
+			Condition condition = null;
+			int position = 0;
+			while (accept("[")) {
+				final String first = peek();
+				if (first != null && isNumber(first) && "]".equals(peek(1))) {
+					if (position != 0) {
+						throw new UnsupportedExpressionException("Multiple positional predicates");
+					}
+					try {
+						position = Integer.parseInt(first);
+					} catch (final NumberFormatException e) {
+						throw new UnsupportedExpressionException("Unsupported position " + first);
+					}
+					if (position < 1) {
+						throw new UnsupportedExpressionException("Unsupported position " + first);
+					}
+					pos++;
+				} else {
+					if (position != 0) {
+						// a filter after a positional predicate changes the semantic of the position
+						throw new UnsupportedExpressionException("Filter after positional predicate");
+					}
+					final Condition predicate = parseOr();
+					condition = condition == null ? predicate : new And(asList(condition, predicate));
+				}
+				expect("]");
+			}
+			return new Step(StepKind.ELEMENT, name, condition, position);
+		}
+
+		private Condition parseOr() throws UnsupportedExpressionException {
+			final Condition first = parseAnd();
+			if (!"or".equals(peek())) {
+				return first;
+			}
+			final List<Condition> conditions = new ArrayList<>();
+			conditions.add(first);
+			while (accept("or")) {
+				conditions.add(parseAnd());
+			}
+			return new Or(conditions);
+		}
+
+		private Condition parseAnd() throws UnsupportedExpressionException {
+			final Condition first = parsePrimary();
+			if (!"and".equals(peek())) {
+				return first;
+			}
+			final List<Condition> conditions = new ArrayList<>();
+			conditions.add(first);
+			while (accept("and")) {
+				conditions.add(parsePrimary());
+			}
+			return new And(conditions);
+		}
+
+		private Condition parsePrimary() throws UnsupportedExpressionException {
+			final String token = peek();
+			if (token == null) {
+				throw new UnsupportedExpressionException("Unexpected end of expression");
+			}
+			if (accept("(")) {
+				final Condition condition = parseOr();
+				expect(")");
+				return condition;
+			}
+			if ("not".equals(token) && "(".equals(peek(1))) {
+				pos += 2;
+				final Condition condition = parseOr();
+				expect(")");
+				return new Not(condition);
+			}
+			if (("starts-with".equals(token) || "contains".equals(token)) && "(".equals(peek(1))) {
+				pos += 2;
+				final Operand left = parseOperand();
+				expect(",");
+				final Operand right = parseOperand();
+				expect(")");
+				return new Compare(left,
+						"starts-with".equals(token) ? Compare.Op.STARTS_WITH : Compare.Op.CONTAINS, right);
+			}
+			final Operand left = parseOperand();
+			if (accept("=")) {
+				return new Compare(left, Compare.Op.EQUALS, parseOperand());
+			} else if (accept("!=")) {
+				return new Compare(left, Compare.Op.NOT_EQUALS, parseOperand());
+			} else if (left.kind == Operand.Kind.ATTRIBUTE) {
+				return new Exists(left.value);
+			}
+			throw new UnsupportedExpressionException("Unsupported predicate");
+		}
+
+		private Operand parseOperand() throws UnsupportedExpressionException {
+			final String token = next();
+			if (isLiteral(token)) {
+				return new Operand(Operand.Kind.LITERAL, token.substring(1));
+			} else if ("@".equals(token)) {
+				final String name = next();
+				if (!Character.isLetter(name.charAt(0)) || name.indexOf(':') != -1) {
+					throw new UnsupportedExpressionException("Unsupported attribute");
+				}
+				return new Operand(Operand.Kind.ATTRIBUTE, name);
+			} else if ("local-name".equals(token) || "namespace-uri".equals(token) || "name".equals(token)) {
+				// only the context node is supported as argument
+				expect("(");
+				expect(")");
+				if ("local-name".equals(token)) {
+					return new Operand(Operand.Kind.LOCAL_NAME, null);
+				} else if ("namespace-uri".equals(token)) {
+					return new Operand(Operand.Kind.NAMESPACE_URI, null);
+				}
+				return new Operand(Operand.Kind.NAME, null);
+			}
+			throw new UnsupportedExpressionException("Unsupported operand " + token);
+		}
+
+		private static List<Condition> asList(final Condition first, final Condition second) {
+			final List<Condition> conditions = new ArrayList<>(2);
+			conditions.add(first);
+			conditions.add(second);
+			return conditions;
+		}
+	}
+}
@@ -0,0 +1,250 @@
+/**
+ * Copyright 2017 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf;
+
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+/**
+ * Limits the requests to each host.
+ *
+ * A host has a maximum number of requests in flight and a token bucket that limits the
+ * request rate. A circuit breaker opens after repeated timeouts: requests to the host fail
+ * fast until the open duration has elapsed, then one trial request is sent which closes
+ * the circuit again if it does not time out.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class HostGuard {
+
+	private final int maxInFlight;
+	private final double requestsPerNano;
+	private final double burst;
+	private final int failureThreshold;
+	private final long openNanos;
+
+	// hosts that have not been requested for an hour are forgotten
+	private final Cache<String, HostState> hosts = Caffeine.newBuilder()
+			.expireAfterAccess(1, TimeUnit.HOURS).build();
+
+	/**
+	 * Permission to send one request
+	 */
+	final class Permit {
+		private final HostState state;
+		private final boolean trial;
+
+		private Permit(final HostState state, final boolean trial) {
+			this.state = state;
+			this.trial = trial;
+		}
+
+		/**
+		 * Release the permit after the request
+		 *
+		 * @param timedOut true if the request timed out
+		 */
+		void release(final boolean timedOut) {
+			state.release(this, timedOut);
+		}
+
+		/**
+		 * Release the permit of an aborted request without affecting the circuit
+		 */
+		void cancel() {
+			state.inFlight.release();
+			state.cancelTrial(trial);
+		}
+	}
+
+	private final class HostState {
+		private final String host;
+		private final Semaphore inFlight = new Semaphore(maxInFlight);
+		private double tokens = burst;
+		private long lastRefill = System.nanoTime();
+		private HostProbeMetrics.CircuitState circuitState = HostProbeMetrics.CircuitState.CLOSED;
+		private long openedAt;
+		private int consecutiveTimeouts;
+		private long requests;
+		private long timeouts;
+		private long rejected;
+
+		private HostState(final String host) {
+			this.host = host;
+		}
+
+		// returns null if the circuit is open, otherwise whether a trial request is sent
+		private synchronized Boolean checkCircuit() {
+			if (circuitState == HostProbeMetrics.CircuitState.OPEN) {
+				if (System.nanoTime() - openedAt < openNanos) {
+					++rejected;
+					return null;
+				}
+				circuitState = HostProbeMetrics.CircuitState.HALF_OPEN;
+				return Boolean.TRUE;
+			} else if (circuitState == HostProbeMetrics.CircuitState.HALF_OPEN) {
+				// a trial request is running
+				++rejected;
+				return null;
+			}
+			return Boolean.FALSE;
+		}
+
+		private synchronized boolean isClosed() {
+			return circuitState == HostProbeMetrics.CircuitState.CLOSED;
+		}
+
+		// returns the nanoseconds to wait for the next token, or 0 if a token was taken
+		private synchronized long takeToken() {
+			final long now = System.nanoTime();
+			tokens = Math.min(burst, tokens + (now - lastRefill) * requestsPerNano);
+			lastRefill = now;
+			if (tokens >= 1) {
+				tokens -= 1;
+				++requests;
+				return 0;
+			}
+			return Math.max(1, (long) ((1 - tokens) / requestsPerNano));
+		}
+
+		private synchronized void release(final Permit permit, final boolean timedOut) {
+			inFlight.release();
+			if (timedOut) {
+				++timeouts;
+				++consecutiveTimeouts;
+				if (permit.trial || consecutiveTimeouts >= failureThreshold) {
+					circuitState = HostProbeMetrics.CircuitState.OPEN;
+					openedAt = System.nanoTime();
+				}
+			} else {
+				consecutiveTimeouts = 0;
+				circuitState = HostProbeMetrics.CircuitState.CLOSED;
+			}
+		}
+
+		private synchronized void cancelTrial(final boolean trial) {
+			if (trial && circuitState == HostProbeMetrics.CircuitState.HALF_OPEN) {
+				circuitState = HostProbeMetrics.CircuitState.OPEN;
+			}
+		}
+
+		private synchronized HostProbeMetrics metrics() {
+			final HostProbeMetrics.CircuitState state = circuitState == HostProbeMetrics.CircuitState.OPEN
+					&& System.nanoTime() - openedAt >= openNanos ? HostProbeMetrics.CircuitState.HALF_OPEN
+							: circuitState;
+			return new HostProbeMetrics(host, maxInFlight - inFlight.availablePermits(), state,
+					consecutiveTimeouts, requests, timeouts, rejected);
+		}
+	}
+
+	/**
+	 * Create a new guard
+	 *
+	 * @param maxInFlight maximum number of requests in flight per host
+	 * @param requestsPerSecond maximum request rate per host, which may be exceeded by a burst
+	 *                          of maxInFlight requests
+	 * @param failureThreshold number of consecutive timeouts that open the circuit
+	 * @param openDuration time in which requests fail fast
+	 * @param unit unit of the open duration
+	 */
+	HostGuard(final int maxInFlight, final double requestsPerSecond, final int failureThreshold,
+			final long openDuration, final TimeUnit unit) {
+		if (maxInFlight < 1 || requestsPerSecond <= 0 || failureThreshold < 1) {
+			throw new IllegalArgumentException("Invalid host limits");
+		}
+		this.maxInFlight = maxInFlight;
+		this.requestsPerNano = requestsPerSecond / TimeUnit.SECONDS.toNanos(1);
+		this.burst = Math.max(1, maxInFlight);
+		this.failureThreshold = failureThreshold;
+		this.openNanos = unit.toNanos(openDuration);
+	}
+
+	private static String hostOf(final URI uri) {
+		return uri.getHost() != null ? uri.getHost().toLowerCase(Locale.ENGLISH) : "";
+	}
+
+	/**
+	 * Wait until a request to the host of the URI may be sent
+	 *
+	 * @param uri URI of the request
+	 * @return permit that must be released after the request, or null if the circuit of the host is open
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	Permit acquire(final URI uri) throws InterruptedException {
+		final HostState state = hosts.get(hostOf(uri), HostState::new);
+		final Boolean trial = state.checkCircuit();
+		if (trial == null) {
+			return null;
+		}
+		boolean acquired = false;
+		try {
+			state.inFlight.acquire();
+			acquired = true;
+			for (long wait = state.takeToken(); wait > 0; wait = state.takeToken()) {
+				TimeUnit.NANOSECONDS.sleep(wait);
+			}
+			return new Permit(state, trial);
+		} catch (final InterruptedException e) {
+			if (acquired) {
+				state.inFlight.release();
+			}
+			state.cancelTrial(trial);
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns a permit if a request to the host of the URI may be sent immediately
+	 *
+	 * No trial request is sent while the circuit is not closed.
+	 *
+	 * @param uri URI of the request
+	 * @return permit that must be released after the request, or null if no request may be sent now
+	 */
+	Permit tryAcquire(final URI uri) {
+		final HostState state = hosts.get(hostOf(uri), HostState::new);
+		if (!state.isClosed() || !state.inFlight.tryAcquire()) {
+			return null;
+		}
+		if (state.takeToken() > 0) {
+			state.inFlight.release();
+			return null;
+		}
+		return new Permit(state, false);
+	}
+
+	/**
+	 * Returns the metrics of all hosts that have been requested in the last hour
+	 *
+	 * @return metrics by host
+	 */
+	Map<String, HostProbeMetrics> metrics() {
+		final Map<String, HostProbeMetrics> metrics = new TreeMap<>();
+		for (final HostState state : hosts.asMap().values()) {
+			metrics.put(state.host, state.metrics());
+		}
+		return metrics;
+	}
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright 2017 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf;
+
+/**
+ * Metrics of the requests that the detector sends to one host.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+public final class HostProbeMetrics {
+
+	/**
+	 * State of the circuit breaker of a host
+	 */
+	public enum CircuitState {
+		/** Requests are sent */
+		CLOSED,
+		/** Requests fail fast after repeated timeouts */
+		OPEN,
+		/** One trial request is sent after the open duration */
+		HALF_OPEN
+	}
+
+	private final String host;
+	private final int inFlight;
+	private final CircuitState circuitState;
+	private final int consecutiveTimeouts;
+	private final long requests;
+	private final long timeouts;
+	private final long rejected;
+
+	HostProbeMetrics(final String host, final int inFlight, final CircuitState circuitState,
+			final int consecutiveTimeouts, final long requests, final long timeouts, final long rejected) {
+		this.host = host;
+		this.inFlight = inFlight;
+		this.circuitState = circuitState;
+		this.consecutiveTimeouts = consecutiveTimeouts;
+		this.requests = requests;
+		this.timeouts = timeouts;
+		this.rejected = rejected;
+	}
+
+	public String getHost() {
+		return host;
+	}
+
+	/**
+	 * Returns the number of running requests
+	 *
+	 * @return running requests
+	 */
+	public int getInFlight() {
+		return inFlight;
+	}
+
+	public CircuitState getCircuitState() {
+		return circuitState;
+	}
+
+	public int getConsecutiveTimeouts() {
+		return consecutiveTimeouts;
+	}
+
+	/**
+	 * Returns the number of sent requests
+	 *
+	 * @return sent requests
+	 */
+	public long getRequests() {
+		return requests;
+	}
+
+	public long getTimeouts() {
+		return timeouts;
+	}
+
+	/**
+	 * Returns the number of requests that were not sent because the circuit was open
+	 *
+	 * @return rejected requests
+	 */
+	public long getRejected() {
+		return rejected;
+	}
+
+	@Override
+	public String toString() {
+		return host + " {inFlight=" + inFlight + ", circuit=" + circuitState + ", requests=" + requests
+				+ ", timeouts=" + timeouts + ", rejected=" + rejected + "}";
+	}
+}
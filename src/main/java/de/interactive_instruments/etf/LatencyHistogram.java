@@ -0,0 +1,78 @@
+/**
+ * Copyright 2017 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf;
+
+/**
+ * Histogram of request latencies with logarithmic buckets, four buckets per power of two
+ * microseconds. Old samples decay: when the maximum number of samples is reached, all
+ * counts are halved.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class LatencyHistogram {
+
+	private static final int BUCKETS_PER_POWER_OF_TWO = 4;
+	private static final int BUCKETS = 40 * BUCKETS_PER_POWER_OF_TWO;
+	private static final int MAX_SAMPLES = 1024;
+
+	private final long[] counts = new long[BUCKETS];
+	private long samples;
+
+	/**
+	 * Record a latency
+	 *
+	 * @param nanos latency in nanoseconds
+	 */
+	synchronized void record(final long nanos) {
+		final long micros = Math.max(1, nanos / 1000);
+		final double log2 = Math.log(micros) / Math.log(2);
+		final int bucket = (int) Math.min(BUCKETS - 1, Math.floor(log2 * BUCKETS_PER_POWER_OF_TWO));
+		++counts[bucket];
+		if (++samples >= MAX_SAMPLES) {
+			samples = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				counts[i] /= 2;
+				samples += counts[i];
+			}
+		}
+	}
+
+	/**
+	 * Returns the upper bound of the bucket that contains the percentile
+	 *
+	 * @param percentile percentile between 0 and 1
+	 * @param minSamples minimum number of recorded samples
+	 * @return latency in nanoseconds or -1 if less than minSamples have been recorded
+	 */
+	synchronized long percentile(final double percentile, final int minSamples) {
+		if (samples < minSamples || samples == 0) {
+			return -1;
+		}
+		final long rank = Math.max(1, (long) Math.ceil(percentile * samples));
+		long cumulative = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			cumulative += counts[i];
+			if (cumulative >= rank) {
+				return (long) (Math.pow(2, (double) (i + 1) / BUCKETS_PER_POWER_OF_TWO) * 1000);
+			}
+		}
+		return Long.MAX_VALUE;
+	}
+}
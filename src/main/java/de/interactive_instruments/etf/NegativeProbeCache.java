@@ -0,0 +1,152 @@
+/**
+ * Copyright 2017 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf;
+
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+import de.interactive_instruments.etf.model.EID;
+
+/**
+ * Size bounded cache of normalized remote resources that could not be requested or that did not
+ * match any of the requested types. Both outcomes are evicted after separate times to live.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class NegativeProbeCache {
+
+	enum Outcome {
+		UNREACHABLE, NO_MATCH
+	}
+
+	/**
+	 * Normalized URI and the types that have been evaluated on the response
+	 */
+	private static final class NoMatchKey {
+		private final URI uri;
+		private final Set<EID> types;
+
+		private NoMatchKey(final URI uri, final Collection<CompiledDetectionExpression> expressions) {
+			this.uri = uri;
+			this.types = new HashSet<>();
+			for (final CompiledDetectionExpression expression : expressions) {
+				this.types.add(expression.getId());
+			}
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof NoMatchKey)) {
+				return false;
+			}
+			final NoMatchKey key = (NoMatchKey) o;
+			return uri.equals(key.uri) && types.equals(key.types);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * uri.hashCode() + types.hashCode();
+		}
+	}
+
+	// keyed by the URI for unreachable resources, or by NoMatchKey
+	private final Cache<Object, Outcome> cache;
+
+	/**
+	 * Create a new cache
+	 *
+	 * @param maximumSize maximum number of cached outcomes, 0 disables the cache
+	 * @param unreachableTimeToLive time after which an unreachable resource is requested again
+	 * @param noMatchTimeToLive time after which a resource without matching type is requested again
+	 * @param unit unit of the times to live
+	 */
+	NegativeProbeCache(final long maximumSize, final long unreachableTimeToLive, final long noMatchTimeToLive,
+			final TimeUnit unit) {
+		final long unreachableNanos = unit.toNanos(unreachableTimeToLive);
+		final long noMatchNanos = unit.toNanos(noMatchTimeToLive);
+		this.cache = Caffeine.newBuilder()
+				.maximumSize(maximumSize)
+				.expireAfter(new Expiry<Object, Outcome>() {
+					@Override
+					public long expireAfterCreate(final Object key, final Outcome outcome, final long currentTime) {
+						return outcome == Outcome.UNREACHABLE ? unreachableNanos : noMatchNanos;
+					}
+
+					@Override
+					public long expireAfterUpdate(final Object key, final Outcome outcome, final long currentTime,
+							final long currentDuration) {
+						return expireAfterCreate(key, outcome, currentTime);
+					}
+
+					@Override
+					public long expireAfterRead(final Object key, final Outcome outcome, final long currentTime,
+							final long currentDuration) {
+						return currentDuration;
+					}
+				})
+				.recordStats()
+				.build();
+	}
+
+	/**
+	 * Returns the cached outcome of a request
+	 *
+	 * @param uri normalized URI
+	 * @param expressions expressions that are evaluated on the response
+	 * @return outcome or null if the resource must be requested
+	 */
+	Outcome get(final URI uri, final Collection<CompiledDetectionExpression> expressions) {
+		final Outcome outcome = cache.getIfPresent(uri);
+		if (outcome != null) {
+			return outcome;
+		}
+		return cache.getIfPresent(new NoMatchKey(uri, expressions));
+	}
+
+	void putUnreachable(final URI uri) {
+		cache.put(uri, Outcome.UNREACHABLE);
+	}
+
+	void putNoMatch(final URI uri, final Collection<CompiledDetectionExpression> expressions) {
+		cache.put(new NoMatchKey(uri, expressions), Outcome.NO_MATCH);
+	}
+
+	/**
+	 * Returns hit, miss and eviction counters
+	 *
+	 * @return statistics since the creation of the cache
+	 */
+	CacheStats stats() {
+		return cache.stats();
+	}
+
+	void invalidateAll() {
+		cache.invalidateAll();
+	}
+}
@@ -0,0 +1,512 @@
+/**
+ * Copyright 2017 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Function;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.xpath.XPathException;
+
+import jlibs.xml.sax.dog.XMLDog;
+import jlibs.xml.sax.dog.XPathResults;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import de.interactive_instruments.exceptions.ExcUtils;
+
+/**
+ * Evaluates XMLDog expressions on the beginning of a document.
+ *
+ * The start tag of the root element is copied into a small synthetic document which is
+ * evaluated with XMLDog. The caller decides which expressions are still pending with these
+ * results. If there are none, the rest of the input is never read. Otherwise, the elements
+ * up to the deepest level of the pending expressions are copied into the synthetic document
+ * until no pending expression can match any more, which is determined with the
+ * {@link ExpressionAnalysis}. Only if a pending expression requires the whole document, the
+ * stream is reset and sniffed as usual.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class PrefixSniffer {
+
+	private static final Logger logger = LoggerFactory.getLogger(PrefixSniffer.class);
+
+	// Maximum number of bytes that are read before the root element must have been found
+	private static final int MAX_PREFIX_BYTES = 256 * 1024;
+
+	// Maximum size of the synthetic document, the rest of the document is ignored
+	private static final int MAX_SYNTHETIC_CHARS = 16 * 1024 * 1024;
+
+	// SAX parsers are not thread-safe. Idle parsers are pooled instead of kept per thread,
+	// as virtual threads would each create their own parser.
+	private static final BlockingQueue<SAXParser> idleParsers = new ArrayBlockingQueue<>(
+			Math.max(2, Runtime.getRuntime().availableProcessors()));
+
+	private static SAXParser borrowParser() {
+		final SAXParser parser = idleParsers.poll();
+		if (parser != null) {
+			return parser;
+		}
+		final SAXParserFactory saxParserFactory = SAXParserFactory.newInstance();
+		saxParserFactory.setNamespaceAware(true);
+		saxParserFactory.setValidating(false);
+		try {
+			saxParserFactory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+			saxParserFactory.setFeature("http://xml.org/sax/features/external-general-entities", false);
+			saxParserFactory.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+		} catch (final ParserConfigurationException | SAXException e) {
+			ExcUtils.suppress(e);
+		}
+		try {
+			return saxParserFactory.newSAXParser();
+		} catch (final ParserConfigurationException | SAXException e) {
+			throw new IllegalStateException("Could not create SAX parser", e);
+		}
+	}
+
+	private static void releaseParser(final SAXParser parser) {
+		parser.reset();
+		// dropped if the pool is full
+		idleParsers.offer(parser);
+	}
+
+	private PrefixSniffer() {}
+
+	/**
+	 * Sniff the document and stop as soon as all pending expressions are resolved
+	 *
+	 * @param dog XMLDog with the compiled expressions
+	 * @param inputStream document
+	 * @param pendingAfterRoot returns the expressions that are not resolved by the results,
+	 *                         which were evaluated on the start tag of the root element
+	 * @return results for all expressions of the XMLDog
+	 * @throws IOException if the stream can not be read
+	 * @throws XPathException if the document can not be sniffed
+	 */
+	static XPathResults sniff(final XMLDog dog, final InputStream inputStream,
+			final Function<XPathResults, Collection<ExpressionAnalysis>> pendingAfterRoot)
+			throws IOException, XPathException {
+		final BufferedInputStream bufferedStream = new BufferedInputStream(inputStream);
+		bufferedStream.mark(MAX_PREFIX_BYTES);
+		final PrefixInputStream prefixStream = new PrefixInputStream(bufferedStream);
+		final PrefixHandler handler = new PrefixHandler(dog, pendingAfterRoot, prefixStream);
+		Exception parseException = null;
+		final SAXParser parser = borrowParser();
+		try {
+			parser.parse(prefixStream, handler);
+		} catch (final SAXException | IOException e) {
+			if (!handler.stopped) {
+				// not well-formed, prefix limit exceeded or whole document required
+				parseException = e;
+			}
+		} finally {
+			releaseParser(parser);
+		}
+		if (handler.xPathException != null) {
+			throw handler.xPathException;
+		}
+		if (handler.results != null) {
+			return handler.results;
+		}
+		if (handler.synthetic != null) {
+			if (handler.stopped || handler.documentEnded) {
+				return dog.sniff(new InputSource(new StringReader(handler.closeSyntheticDocument())));
+			}
+			// the stream can not be reset after the root element has been evaluated
+			if (parseException instanceof IOException) {
+				throw (IOException) parseException;
+			}
+			throw new XPathException(parseException);
+		}
+		bufferedStream.reset();
+		return dog.sniff(new InputSource(bufferedStream));
+	}
+
+	static String escape(final String value, final boolean attribute) {
+		StringBuilder escaped = null;
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			final String replacement;
+			switch (c) {
+			case '&':
+				replacement = "&amp;";
+				break;
+			case '<':
+				replacement = "&lt;";
+				break;
+			case '>':
+				replacement = "&gt;";
+				break;
+			case '"':
+				replacement = attribute ? "&quot;" : null;
+				break;
+			case '\t':
+				replacement = attribute ? "&#9;" : null;
+				break;
+			case '\n':
+				replacement = attribute ? "&#10;" : null;
+				break;
+			case '\r':
+				replacement = "&#13;";
+				break;
+			default:
+				replacement = null;
+			}
+			if (replacement != null) {
+				if (escaped == null) {
+					escaped = new StringBuilder(value.length() + 16);
+					escaped.append(value, 0, i);
+				}
+				escaped.append(replacement);
+			} else if (escaped != null) {
+				escaped.append(c);
+			}
+		}
+		return escaped != null ? escaped.toString() : value;
+	}
+
+	private static final class StopParsingException extends SAXException {
+		private static final long serialVersionUID = 1L;
+
+		private StopParsingException() {
+			super("All pending expressions resolved");
+		}
+
+		@Override
+		public synchronized Throwable fillInStackTrace() {
+			return this;
+		}
+	}
+
+	private static final class PrefixLimitException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		private PrefixLimitException() {
+			super("Prefix limit of " + MAX_PREFIX_BYTES + " bytes exceeded");
+		}
+	}
+
+	private static final class SaxElement implements ExpressionAnalysis.Element {
+		private final String uri;
+		private final String localName;
+		private final String qName;
+		private final Attributes attributes;
+
+		private SaxElement(final String uri, final String localName, final String qName,
+				final Attributes attributes) {
+			this.uri = uri;
+			this.localName = localName;
+			this.qName = qName;
+			this.attributes = attributes;
+		}
+
+		@Override
+		public String getNamespaceUri() {
+			return uri;
+		}
+
+		@Override
+		public String getLocalName() {
+			return localName;
+		}
+
+		@Override
+		public String getQName() {
+			return qName;
+		}
+
+		@Override
+		public String getAttribute(final String name) {
+			return attributes.getValue("", name);
+		}
+	}
+
+	/**
+	 * Tracks when a pending expression can not match any more nodes
+	 */
+	private static final class Watermark {
+		private final ExpressionAnalysis analysis;
+		private final int completionPosition;
+		private boolean complete;
+		private boolean currentMatches;
+		private int matches;
+
+		private Watermark(final ExpressionAnalysis analysis) {
+			this.analysis = analysis;
+			this.completionPosition = analysis.getCompletionPosition();
+		}
+
+		private void onRootElement(final ExpressionAnalysis.Element root) {
+			if (!ExpressionAnalysis.matches(analysis.getElementStep(1), root)) {
+				// nothing below the root element can match
+				complete = true;
+			} else if (analysis.getMaxDepth() == 1 && !analysis.needsText()) {
+				complete = true;
+			}
+		}
+
+		private void onSecondLevelStart(final ExpressionAnalysis.Element element) {
+			currentMatches = completionPosition > 0
+					&& ExpressionAnalysis.matches(analysis.getElementStep(2), element);
+		}
+
+		private void onSecondLevelEnd() {
+			if (currentMatches && ++matches >= completionPosition) {
+				complete = true;
+			}
+			currentMatches = false;
+		}
+	}
+
+	private static final class PrefixHandler extends DefaultHandler {
+		private final XMLDog dog;
+		private final Function<XPathResults, Collection<ExpressionAnalysis>> pendingAfterRoot;
+		private final PrefixInputStream prefixStream;
+		private final List<String[]> prefixMappings = new ArrayList<>();
+		private final Deque<String> openElements = new ArrayDeque<>();
+		private List<Watermark> watermarks;
+		private int depth;
+		private int copyDepth;
+		private int textDepth;
+		private StringBuilder synthetic;
+		private XPathResults results;
+		private XPathException xPathException;
+		private boolean stopped;
+		private boolean documentEnded;
+
+		private PrefixHandler(final XMLDog dog,
+				final Function<XPathResults, Collection<ExpressionAnalysis>> pendingAfterRoot,
+				final PrefixInputStream prefixStream) {
+			this.dog = dog;
+			this.pendingAfterRoot = pendingAfterRoot;
+			this.prefixStream = prefixStream;
+		}
+
+		private String closeSyntheticDocument() {
+			while (!openElements.isEmpty()) {
+				synthetic.append("</").append(openElements.pop()).append('>');
+			}
+			return synthetic.toString();
+		}
+
+		private void stop() throws StopParsingException {
+			stopped = true;
+			throw new StopParsingException();
+		}
+
+		@Override
+		public void startPrefixMapping(final String prefix, final String uri) {
+			prefixMappings.add(new String[]{prefix, uri});
+		}
+
+		@Override
+		public void startElement(final String uri, final String localName, final String qName,
+				final Attributes attributes) throws SAXException {
+			depth++;
+			if (depth == 1) {
+				onRootElement(new SaxElement(uri, localName, qName, attributes), attributes);
+			} else {
+				if (depth <= copyDepth) {
+					appendStartTag(qName, attributes);
+				}
+				if (depth == 2) {
+					final SaxElement element = new SaxElement(uri, localName, qName, attributes);
+					for (final Watermark watermark : watermarks) {
+						watermark.onSecondLevelStart(element);
+					}
+				}
+			}
+			prefixMappings.clear();
+		}
+
+		private void onRootElement(final SaxElement root, final Attributes attributes) throws SAXException {
+			synthetic = new StringBuilder(4096);
+			appendStartTag(root.getQName(), attributes);
+			final String rootDocument = synthetic.substring(0, synthetic.length() - 1) + "/>";
+			final XPathResults rootResults;
+			try {
+				rootResults = dog.sniff(new InputSource(new StringReader(rootDocument)));
+			} catch (final XPathException e) {
+				xPathException = e;
+				throw new StopParsingException();
+			}
+			final Collection<ExpressionAnalysis> pending = pendingAfterRoot.apply(rootResults);
+			watermarks = new ArrayList<>(pending.size());
+			for (final ExpressionAnalysis analysis : pending) {
+				if (analysis.getMaxDepth() == ExpressionAnalysis.UNBOUNDED) {
+					// the whole document is required, the stream is reset
+					synthetic = null;
+					throw new StopParsingException();
+				}
+				final Watermark watermark = new Watermark(analysis);
+				watermark.onRootElement(root);
+				if (!watermark.complete) {
+					watermarks.add(watermark);
+					copyDepth = Math.max(copyDepth, analysis.getMaxDepth());
+					if (analysis.needsText()) {
+						textDepth = Math.max(textDepth, analysis.getMaxDepth());
+					}
+				}
+			}
+			if (watermarks.isEmpty()) {
+				results = rootResults;
+				stop();
+			}
+			// continue with the elements up to the copy depth, the stream can not be reset any more
+			prefixStream.unlimit();
+		}
+
+		private void appendStartTag(final String qName, final Attributes attributes) {
+			synthetic.append('<').append(qName);
+			for (final String[] prefixMapping : prefixMappings) {
+				synthetic.append(" xmlns");
+				if (!prefixMapping[0].isEmpty()) {
+					synthetic.append(':').append(prefixMapping[0]);
+				}
+				synthetic.append("=\"").append(escape(prefixMapping[1], true)).append('"');
+			}
+			for (int i = 0; i < attributes.getLength(); i++) {
+				synthetic.append(' ').append(attributes.getQName(i)).append("=\"")
+						.append(escape(attributes.getValue(i), true)).append('"');
+			}
+			synthetic.append('>');
+			openElements.push(qName);
+		}
+
+		@Override
+		public void characters(final char[] ch, final int start, final int length) throws SAXException {
+			if (depth >= 1 && depth <= textDepth) {
+				synthetic.append(escape(new String(ch, start, length), false));
+				checkSize();
+			}
+		}
+
+		@Override
+		public void endElement(final String uri, final String localName, final String qName) throws SAXException {
+			if (depth <= copyDepth) {
+				synthetic.append("</").append(openElements.pop()).append('>');
+				checkSize();
+			}
+			if (depth == 2) {
+				boolean complete = true;
+				for (final Watermark watermark : watermarks) {
+					watermark.onSecondLevelEnd();
+					complete &= watermark.complete;
+				}
+				if (complete) {
+					stop();
+				}
+			}
+			depth--;
+		}
+
+		@Override
+		public void endDocument() {
+			documentEnded = true;
+		}
+
+		private void checkSize() throws StopParsingException {
+			if (synthetic.length() > MAX_SYNTHETIC_CHARS) {
+				logger.debug("Synthetic document exceeds {} characters, ignoring the rest of the document",
+						MAX_SYNTHETIC_CHARS);
+				stop();
+			}
+		}
+	}
+
+	/**
+	 * Limits the number of bytes the parser can read before the root element has been
+	 * evaluated, so that the underlying stream can be reset. Closing the stream is ignored.
+	 */
+	private static final class PrefixInputStream extends FilterInputStream {
+		private int remaining = MAX_PREFIX_BYTES;
+		private boolean limited = true;
+
+		private PrefixInputStream(final InputStream in) {
+			super(in);
+		}
+
+		private void unlimit() {
+			limited = false;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (limited && remaining <= 0) {
+				throw new PrefixLimitException();
+			}
+			final int b = in.read();
+			if (b != -1) {
+				remaining--;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+			if (!limited) {
+				return in.read(b, off, len);
+			}
+			if (remaining <= 0) {
+				throw new PrefixLimitException();
+			}
+			final int read = in.read(b, off, Math.min(len, remaining));
+			if (read > 0) {
+				remaining -= read;
+			}
+			return read;
+		}
+
+		@Override
+		public long skip(final long n) throws IOException {
+			final int len = (int) Math.min(n, 4096);
+			return Math.max(0, read(new byte[len], 0, len));
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		@Override
+		public void close() {
+			// the stream may be reset
+		}
+	}
+}
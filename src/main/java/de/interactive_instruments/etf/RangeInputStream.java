@@ -0,0 +1,246 @@
+/**
+ * Copyright 2017 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+
+import de.interactive_instruments.exceptions.ExcUtils;
+
+/**
+ * Reads a remote file in consecutive HTTP range requests.
+ *
+ * The first request only asks for a prefix of the file. A further range, twice the size of the
+ * previous one, is only requested if the parser reads beyond the received bytes, so the parsing
+ * of a document that is aborted after its root element does not transfer the rest of the file.
+ * If the server ignores the range header, the complete response is streamed.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class RangeInputStream extends InputStream {
+
+	// Upper bound for the size of one range
+	private static final long MAX_RANGE_SIZE = 16L * 1024 * 1024;
+
+	/**
+	 * Opens a range request
+	 */
+	@FunctionalInterface
+	interface RangeRequest {
+		/**
+		 * Open a connection
+		 *
+		 * @param range value of the range header
+		 * @param ifRange validator of the first response or null
+		 * @return connected connection
+		 * @throws IOException if the request fails
+		 */
+		HttpURLConnection open(final String range, final String ifRange) throws IOException;
+	}
+
+	private final RangeRequest request;
+	private HttpURLConnection connection;
+	private InputStream in;
+	// position of the next byte in the file
+	private long position;
+	// end of the current range, exclusive, or -1 if the complete file is streamed
+	private long rangeEnd;
+	private long rangeSize;
+	// file length, -1 if unknown
+	private long length = -1;
+	private String validator;
+	private boolean closed;
+
+	private RangeInputStream(final RangeRequest request, final HttpURLConnection connection, final long rangeSize)
+			throws IOException {
+		this.request = request;
+		this.rangeSize = rangeSize;
+		accept(connection);
+	}
+
+	/**
+	 * Request the first range of a file
+	 *
+	 * @param request function that opens a range request
+	 * @param initialRangeSize number of bytes of the first range
+	 * @return stream of the file or null if the server did not answer with the file
+	 * @throws IOException if the request fails
+	 */
+	static RangeInputStream open(final RangeRequest request, final long initialRangeSize) throws IOException {
+		final HttpURLConnection connection = request.open(range(0, initialRangeSize), null);
+		try {
+			if (connection.getResponseCode() != HttpURLConnection.HTTP_PARTIAL
+					&& connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+				connection.disconnect();
+				return null;
+			}
+			final RangeInputStream stream = new RangeInputStream(request, connection, initialRangeSize);
+			final String etag = connection.getHeaderField("ETag");
+			stream.validator = etag != null && !etag.startsWith("W/") ? etag
+					: connection.getHeaderField("Last-Modified");
+			return stream;
+		} catch (final IOException | RuntimeException e) {
+			connection.disconnect();
+			throw e;
+		}
+	}
+
+	private static String range(final long start, final long size) {
+		return "bytes=" + start + "-" + (start + size - 1);
+	}
+
+	/**
+	 * Returns true if the server returned a part of the file
+	 *
+	 * @return false if the server ignored the range header
+	 */
+	boolean isPartial() {
+		return rangeEnd != -1;
+	}
+
+	private void accept(final HttpURLConnection next) throws IOException {
+		connection = next;
+		if (next.getResponseCode() == HttpURLConnection.HTTP_PARTIAL) {
+			// bytes <first>-<last>/<length>
+			final String contentRange = next.getHeaderField("Content-Range");
+			if (contentRange == null || !contentRange.startsWith("bytes ")) {
+				throw new IOException("Invalid Content-Range header: " + contentRange);
+			}
+			final int dash = contentRange.indexOf('-');
+			final int slash = contentRange.indexOf('/');
+			try {
+				final long first = Long.parseLong(contentRange.substring(6, dash).trim());
+				final long last = Long.parseLong(contentRange.substring(dash + 1, slash).trim());
+				final String total = contentRange.substring(slash + 1).trim();
+				if (first != position || last < first) {
+					throw new IOException("Unexpected Content-Range header: " + contentRange);
+				}
+				rangeEnd = last + 1;
+				length = "*".equals(total) ? -1 : Long.parseLong(total);
+			} catch (final NumberFormatException | IndexOutOfBoundsException e) {
+				throw new IOException("Invalid Content-Range header: " + contentRange, e);
+			}
+			in = next.getInputStream();
+		} else if (position == 0) {
+			// range not supported
+			rangeEnd = -1;
+			in = next.getInputStream();
+		} else {
+			throw new IOException("Resource " + next.getURL() + " changed or does not support ranges");
+		}
+	}
+
+	/**
+	 * Returns the stream of the current range and requests the next range if the current one
+	 * has been read completely
+	 *
+	 * @return stream or null at the end of the file
+	 */
+	private InputStream current() throws IOException {
+		if (closed) {
+			throw new IOException("Stream closed");
+		}
+		if (rangeEnd == -1 || position < rangeEnd) {
+			return in;
+		}
+		if (length != -1 && position >= length) {
+			return null;
+		}
+		closeConnection();
+		rangeSize = Math.min(rangeSize * 2, MAX_RANGE_SIZE);
+		final HttpURLConnection next = request.open(range(position, rangeSize), validator);
+		if (next.getResponseCode() == 416) {
+			// range not satisfiable, the length of the file is a multiple of the ranges
+			next.disconnect();
+			return null;
+		}
+		try {
+			accept(next);
+		} catch (final IOException e) {
+			next.disconnect();
+			throw e;
+		}
+		return in;
+	}
+
+	@Override
+	public int read() throws IOException {
+		final InputStream stream = current();
+		if (stream == null) {
+			return -1;
+		}
+		final int read = stream.read();
+		if (read != -1) {
+			position++;
+		} else if (rangeEnd != -1 && position < rangeEnd) {
+			throw new IOException("Premature end of range");
+		}
+		return read;
+	}
+
+	@Override
+	public int read(final byte[] b, final int off, final int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		final InputStream stream = current();
+		if (stream == null) {
+			return -1;
+		}
+		final int read = stream.read(b, off,
+				rangeEnd == -1 ? len : (int) Math.min(len, rangeEnd - position));
+		if (read > 0) {
+			position += read;
+		} else if (read == -1 && rangeEnd != -1 && position < rangeEnd) {
+			throw new IOException("Premature end of range");
+		}
+		return read;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return in != null && !closed ? in.available() : 0;
+	}
+
+	private void closeConnection() {
+		if (connection != null && (rangeEnd == -1 || position < rangeEnd)) {
+			// do not drain the rest of the response
+			connection.disconnect();
+		}
+		connection = null;
+		if (in != null) {
+			try {
+				in.close();
+			} catch (final IOException e) {
+				ExcUtils.suppress(e);
+			}
+			in = null;
+		}
+	}
+
+	@Override
+	public void close() {
+		if (!closed) {
+			closed = true;
+			closeConnection();
+		}
+	}
+}
@@ -0,0 +1,362 @@
+/**
+ * Copyright 2017 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.concurrent.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import de.interactive_instruments.etf.model.capabilities.Resource;
+import de.interactive_instruments.exceptions.ExcUtils;
+
+/**
+ * Opens remote resources for the detection.
+ *
+ * Static files, i.e. URIs without query whose last path segment has a file extension, and
+ * files on hosts that advertised byte ranges before, are read with HTTP range requests,
+ * so only the prefix of a large dataset that the parser needs is transferred. Other HTTP
+ * resources are requested with gzip or deflate compression and decompressed while they are
+ * parsed, the response is not buffered. Credentials that the resource holds are sent as basic
+ * authentication. If the server does not answer with a successful response, or if the credentials
+ * of the resource can not be read, the resource is opened by the resource itself. As the resource
+ * applies no timeouts, it is opened on a separate thread and abandoned if it has not been opened
+ * within the timeout. The number of these threads is limited, as the thread of a host that never
+ * answers is blocked until the connection is closed by the system. Requests can be sent with the
+ * conditional headers of a {@link RevalidationCache}.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class RemoteFetch {
+
+	// Maximum number of resources that are opened by themselves at the same time
+	private static final int MAX_OPENING = 32;
+
+	// Opens resources that do not support timeouts
+	private static final ExecutorService openExecutor = new ThreadPoolExecutor(0, MAX_OPENING,
+			60, TimeUnit.SECONDS, new SynchronousQueue<>(), DetectionExecutors.daemonThreadFactory("etf-stdtot-open-"));
+
+	// 0 disables range requests
+	private final int initialRangeSize;
+
+	// request compressed responses
+	private final boolean compression;
+
+	// hosts that advertised byte ranges, forgotten after an hour
+	private final Cache<String, Boolean> rangeHosts = Caffeine.newBuilder()
+			.maximumSize(10000).expireAfterAccess(1, TimeUnit.HOURS).build();
+
+	/**
+	 * Create a new instance
+	 *
+	 * @param initialRangeSize number of bytes requested with the first range request, 0 disables
+	 *                         range requests
+	 * @param compression true if compressed responses are requested
+	 */
+	RemoteFetch(final int initialRangeSize, final boolean compression) {
+		if (initialRangeSize < 0) {
+			throw new IllegalArgumentException("The range size must not be negative");
+		}
+		this.initialRangeSize = initialRangeSize;
+		this.compression = compression;
+	}
+
+	int getInitialRangeSize() {
+		return initialRangeSize;
+	}
+
+	boolean isCompression() {
+		return compression;
+	}
+
+	private static String hostOf(final URI uri) {
+		return uri.getHost() != null ? uri.getHost().toLowerCase(Locale.ENGLISH) : "";
+	}
+
+	private static boolean isHttp(final URI uri) {
+		return "http".equalsIgnoreCase(uri.getScheme()) || "https".equalsIgnoreCase(uri.getScheme());
+	}
+
+	private static boolean isStaticFile(final URI uri) {
+		final String path = uri.getRawPath();
+		if (uri.getRawQuery() != null || path == null) {
+			return false;
+		}
+		final String lastSegment = path.substring(path.lastIndexOf('/') + 1);
+		return lastSegment.indexOf('.') > 0;
+	}
+
+	/**
+	 * Returns true if the URI is requested in ranges
+	 *
+	 * @param uri remote URI
+	 * @return true if only the needed ranges of the resource are requested
+	 */
+	boolean usesRanges(final URI uri) {
+		return initialRangeSize > 0 && isHttp(uri) && uri.getRawQuery() == null
+				&& (isStaticFile(uri) || rangeHosts.getIfPresent(hostOf(uri)) != null);
+	}
+
+	/**
+	 * Open a remote resource
+	 *
+	 * @param resource remote resource
+	 * @param timeoutMillis connect and read timeout of HTTP requests
+	 * @param validators conditional headers of the request and validators of the response, or null
+	 * @param abort the connections and the returned stream are registered here
+	 * @return stream of the response, empty if the resource has not been modified
+	 * @throws IOException if the resource can not be requested
+	 */
+	InputStream open(final Resource resource, final int timeoutMillis,
+			final RevalidationCache.Validators validators, final RequestAbort abort) throws IOException {
+		final URI uri = resource.getUri();
+		if (ResourceCredentials.hasResourceCredentials(resource)) {
+			final String authorization = ResourceCredentials.basicAuthorization(resource);
+			if (authorization != null && isHttp(uri)) {
+				final InputStream stream = openHttp(uri, timeoutMillis, null, authorization, abort);
+				if (stream != null) {
+					return stream;
+				}
+			}
+			// let the resource authenticate the request
+		} else if (usesRanges(uri)) {
+			// the conditional headers only apply to the first range
+			final RangeInputStream stream = RangeInputStream.open(
+					(range, ifRange) -> connect(uri, timeoutMillis, range, ifRange, null, null,
+							ifRange == null ? validators : null, abort),
+					initialRangeSize);
+			if (validators != null && validators.isNotModified()) {
+				return new ByteArrayInputStream(new byte[0]);
+			} else if (stream != null) {
+				if (stream.isPartial()) {
+					rangeHosts.put(hostOf(uri), Boolean.TRUE);
+				}
+				return stream;
+			}
+			// let the resource handle authentication challenges and errors
+		} else if ((compression || validators != null) && isHttp(uri)) {
+			final InputStream stream = openHttp(uri, timeoutMillis, validators, null, abort);
+			if (stream != null) {
+				return stream;
+			}
+		}
+		return openStream(resource, timeoutMillis, abort);
+	}
+
+	/**
+	 * Open the stream of the resource, which applies no timeouts, and stop waiting if it has
+	 * not been opened within the timeout. A stream that is opened later is closed.
+	 */
+	private static InputStream openStream(final Resource resource, final int timeoutMillis,
+			final RequestAbort abort) throws IOException {
+		final CompletableFuture<InputStream> opened = new CompletableFuture<>();
+		try {
+			openExecutor.execute(() -> {
+				try {
+					final InputStream stream = resource.openStream();
+					if (!opened.complete(stream)) {
+						// timed out or aborted
+						close(stream);
+					}
+				} catch (final IOException | RuntimeException e) {
+					opened.completeExceptionally(e);
+				}
+			});
+		} catch (final RejectedExecutionException e) {
+			throw new IOException("Not opening " + resource.getUri() + ", " + MAX_OPENING
+					+ " resources are already being opened");
+		}
+		abort.register(() -> opened.cancel(false));
+		InputStream stream;
+		try {
+			try {
+				stream = opened.get(timeoutMillis, TimeUnit.MILLISECONDS);
+			} catch (final TimeoutException e) {
+				if (opened.cancel(false)) {
+					throw new SocketTimeoutException("No response from " + resource.getUri() + " within "
+							+ timeoutMillis + " ms");
+				}
+				// opened in the meantime
+				stream = opened.get();
+			}
+		} catch (final CancellationException e) {
+			throw new InterruptedIOException("Request aborted");
+		} catch (final InterruptedException e) {
+			opened.cancel(false);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while opening " + resource.getUri());
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+		abort.register(stream);
+		return stream;
+	}
+
+	private static void close(final InputStream stream) {
+		try {
+			stream.close();
+		} catch (final IOException e) {
+			ExcUtils.suppress(e);
+		}
+	}
+
+	private InputStream openHttp(final URI uri, final int timeoutMillis,
+			final RevalidationCache.Validators validators, final String authorization, final RequestAbort abort)
+			throws IOException {
+		final HttpURLConnection connection = connect(uri, timeoutMillis, null, null,
+				compression ? "gzip, deflate" : null, authorization, validators, abort);
+		try {
+			if (validators != null && validators.isNotModified()) {
+				connection.disconnect();
+				return new ByteArrayInputStream(new byte[0]);
+			} else if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+				connection.disconnect();
+				return null;
+			}
+			return new FilterInputStream(decode(connection.getContentEncoding(), connection.getInputStream())) {
+				@Override
+				public void close() throws IOException {
+					// abort instead of draining the rest of the response
+					connection.disconnect();
+					try {
+						super.close();
+					} catch (final IOException e) {
+						ExcUtils.suppress(e);
+					}
+				}
+			};
+		} catch (final IOException | RuntimeException e) {
+			connection.disconnect();
+			throw e;
+		}
+	}
+
+	/**
+	 * Decompress a response body while it is read
+	 *
+	 * @param contentEncoding content encoding of the response or null
+	 * @param in response body
+	 * @return decoded stream
+	 * @throws IOException if the encoding is not supported
+	 */
+	static InputStream decode(final String contentEncoding, final InputStream in) throws IOException {
+		if (contentEncoding == null || "identity".equalsIgnoreCase(contentEncoding.trim())) {
+			return in;
+		}
+		final String encoding = contentEncoding.trim().toLowerCase(Locale.ENGLISH);
+		if ("gzip".equals(encoding) || "x-gzip".equals(encoding)) {
+			return new GZIPInputStream(in, 8192);
+		} else if ("deflate".equals(encoding)) {
+			// some servers send raw deflate data instead of the zlib format
+			final BufferedInputStream bufferedIn = new BufferedInputStream(in);
+			bufferedIn.mark(2);
+			final int cmf = bufferedIn.read();
+			final int flg = bufferedIn.read();
+			bufferedIn.reset();
+			final boolean zlib = (cmf & 0x0F) == 8 && flg != -1 && ((cmf << 8) | flg) % 31 == 0;
+			final Inflater inflater = new Inflater(!zlib);
+			return new InflaterInputStream(bufferedIn, inflater, 8192) {
+				@Override
+				public void close() throws IOException {
+					try {
+						super.close();
+					} finally {
+						inflater.end();
+					}
+				}
+			};
+		}
+		throw new IOException("Unsupported content encoding: " + contentEncoding);
+	}
+
+	/**
+	 * Send a GET request
+	 *
+	 * @param uri HTTP URI, user info is sent as basic authentication
+	 * @param timeoutMillis connect and read timeout
+	 * @param range value of the range header or null
+	 * @param ifRange value of the If-Range header or null
+	 * @param acceptEncoding value of the Accept-Encoding header or null
+	 * @param authorization value of the Authorization header, or null to send the user info of the URI
+	 * @param validators conditional headers of the request and validators of the response, or null
+	 * @param abort the connection is disconnected when the request is aborted
+	 * @return connection with received response headers
+	 * @throws IOException if the request fails
+	 */
+	static HttpURLConnection connect(final URI uri, final int timeoutMillis, final String range,
+			final String ifRange, final String acceptEncoding, final String authorization,
+			final RevalidationCache.Validators validators, final RequestAbort abort) throws IOException {
+		final URLConnection urlConnection = uri.toURL().openConnection();
+		if (!(urlConnection instanceof HttpURLConnection)) {
+			throw new IOException("Not a HTTP resource: " + uri);
+		}
+		final HttpURLConnection connection = (HttpURLConnection) urlConnection;
+		abort.register(connection::disconnect);
+		connection.setConnectTimeout(timeoutMillis);
+		connection.setReadTimeout(timeoutMillis);
+		if (authorization != null) {
+			connection.setRequestProperty("Authorization", authorization);
+		} else if (uri.getUserInfo() != null) {
+			connection.setRequestProperty("Authorization", "Basic " + Base64.getEncoder().encodeToString(
+					uri.getUserInfo().getBytes(StandardCharsets.UTF_8)));
+		}
+		if (range != null) {
+			connection.setRequestProperty("Range", range);
+		}
+		if (ifRange != null) {
+			connection.setRequestProperty("If-Range", ifRange);
+		}
+		if (acceptEncoding != null) {
+			connection.setRequestProperty("Accept-Encoding", acceptEncoding);
+		}
+		if (validators != null) {
+			validators.addConditionalHeaders(connection);
+		}
+		try {
+			connection.getResponseCode();
+			if (validators != null) {
+				validators.accept(connection);
+			}
+		} catch (final IOException e) {
+			connection.disconnect();
+			throw e;
+		}
+		return connection;
+	}
+}
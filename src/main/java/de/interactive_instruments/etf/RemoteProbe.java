@@ -0,0 +1,188 @@
+/**
+ * Copyright 2017 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf;
+
+import java.net.URI;
+import java.util.*;
+
+import de.interactive_instruments.etf.detector.DetectedTestObjectType;
+import de.interactive_instruments.etf.model.capabilities.Resource;
+
+/**
+ * A request to a normalized remote resource and the detection expressions that are
+ * evaluated on its response.
+ *
+ * Expressions of types without a default query, or with the same default query, share
+ * the normalized resource, so the resource is only fetched and sniffed once for all of them.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class RemoteProbe {
+
+	private final Resource resource;
+	private final Resource normalizedResource;
+	private final boolean versionNegotiating;
+
+	// expressions in priority order
+	private final List<CompiledDetectionExpression> expressions = new ArrayList<>();
+
+	private boolean evaluated;
+	private DetectedTestObjectType detectedType;
+
+	private RemoteProbe(final Resource resource, final Resource normalizedResource, final boolean versionNegotiating) {
+		this.resource = resource;
+		this.normalizedResource = normalizedResource;
+		this.versionNegotiating = versionNegotiating;
+	}
+
+	/**
+	 * Group expressions by their normalized resource
+	 *
+	 * @param sortedExpressions expressions in priority order
+	 * @param resource remote resource
+	 * @return probe of each expression, the iteration order is the order of the expressions
+	 */
+	static Map<CompiledDetectionExpression, RemoteProbe> group(
+			final List<CompiledDetectionExpression> sortedExpressions, final Resource resource) {
+		return group(sortedExpressions, resource, false);
+	}
+
+	/**
+	 * Group expressions by their normalized resource without version parameters. All versions
+	 * of a service type are evaluated on one GetCapabilities response without version, which
+	 * servers answer with their highest supported version.
+	 *
+	 * @param sortedExpressions expressions in priority order
+	 * @param resource remote resource
+	 * @return probe of each expression, the iteration order is the order of the expressions
+	 */
+	static Map<CompiledDetectionExpression, RemoteProbe> groupVersionNegotiating(
+			final List<CompiledDetectionExpression> sortedExpressions, final Resource resource) {
+		return group(sortedExpressions, resource, true);
+	}
+
+	private static Map<CompiledDetectionExpression, RemoteProbe> group(
+			final List<CompiledDetectionExpression> sortedExpressions, final Resource resource,
+			final boolean versionNegotiating) {
+		final Map<String, RemoteProbe> probesByUri = new HashMap<>();
+		final Map<CompiledDetectionExpression, RemoteProbe> probes = new LinkedHashMap<>();
+		for (final CompiledDetectionExpression expression : sortedExpressions) {
+			final Resource normalizedResource = versionNegotiating ? expression.getVersionNegotiatingResource(resource)
+					: expression.getNormalizedResource(resource);
+			final RemoteProbe probe = probesByUri.computeIfAbsent(groupKey(normalizedResource.getUri()),
+					uri -> new RemoteProbe(resource, normalizedResource, versionNegotiating));
+			probe.expressions.add(expression);
+			probes.put(expression, probe);
+		}
+		return probes;
+	}
+
+	/**
+	 * Returns a key of the URI that ignores the case of the query parameter names and the
+	 * order of the query parameters, which OWS servers do not distinguish
+	 *
+	 * @param uri URI of a normalized resource
+	 * @return key for grouping
+	 */
+	static String groupKey(final URI uri) {
+		final URI normalizedUri = uri.normalize();
+		final String query = normalizedUri.getRawQuery();
+		if (query == null) {
+			return normalizedUri.toString();
+		}
+		final List<String> parameters = new ArrayList<>();
+		for (final String parameter : query.split("&")) {
+			if (!parameter.isEmpty()) {
+				final int separator = parameter.indexOf('=');
+				parameters.add(separator < 0 ? parameter.toUpperCase(Locale.ENGLISH)
+						: parameter.substring(0, separator).toUpperCase(Locale.ENGLISH) + parameter.substring(separator));
+			}
+		}
+		Collections.sort(parameters);
+		final String uriString = normalizedUri.toString();
+		final int queryStart = uriString.indexOf('?');
+		final int fragmentStart = uriString.indexOf('#', queryStart);
+		return uriString.substring(0, queryStart + 1) + String.join("&", parameters)
+				+ (fragmentStart < 0 ? "" : uriString.substring(fragmentStart));
+	}
+
+	Resource getNormalizedResource() {
+		return normalizedResource;
+	}
+
+	/**
+	 * Returns the expressions that are evaluated on the response
+	 *
+	 * @return expressions in priority order
+	 */
+	List<CompiledDetectionExpression> getExpressions() {
+		return expressions;
+	}
+
+	boolean isEvaluated() {
+		return evaluated;
+	}
+
+	/**
+	 * Sets the first type in priority order that has been detected in the response
+	 *
+	 * @param detectedType detected type or null if no expression matched or the request failed
+	 */
+	void setResult(final DetectedTestObjectType detectedType) {
+		this.detectedType = detectedType;
+		this.evaluated = true;
+	}
+
+	/**
+	 * Returns the result for one expression of this probe
+	 *
+	 * @param expression expression of this probe
+	 * @return detected type if the expression matched, otherwise null
+	 */
+	DetectedTestObjectType getResult(final CompiledDetectionExpression expression) {
+		if (detectedType != null && detectedType.getId().equals(expression.getId())) {
+			if (versionNegotiating && expression.isVersionNegotiable()) {
+				// reference the version specific request
+				return ((StdDetectedTestObjectType) detectedType).withNormalizedResource(
+						expression.getNormalizedResource(resource));
+			}
+			return detectedType;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the normalized resource that a type detected in the response of this probe
+	 * references, see {@link #getResult(CompiledDetectionExpression)}
+	 *
+	 * @param detectedType type detected in the response
+	 * @return normalized resource of the detected type
+	 */
+	Resource getResultResource(final DetectedTestObjectType detectedType) {
+		if (versionNegotiating) {
+			for (final CompiledDetectionExpression expression : expressions) {
+				if (expression.isVersionNegotiable() && detectedType.getId().equals(expression.getId())) {
+					return expression.getNormalizedResource(resource);
+				}
+			}
+		}
+		return normalizedResource;
+	}
+}
@@ -0,0 +1,91 @@
+/**
+ * Copyright 2017 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.interactive_instruments.exceptions.ExcUtils;
+
+/**
+ * Aborts a running request from another thread.
+ *
+ * Blocking reads of URL connections do not react on thread interrupts. The connections and
+ * streams of a request are therefore registered here and closed when the request is aborted,
+ * which unblocks pending reads.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class RequestAbort {
+
+	private final List<Closeable> resources = new ArrayList<>(2);
+	private boolean aborted;
+
+	/**
+	 * Register a connection or stream that is closed on abort
+	 *
+	 * @param resource connection or stream
+	 * @throws InterruptedIOException if the request has already been aborted, the resource is closed
+	 */
+	void register(final Closeable resource) throws InterruptedIOException {
+		synchronized (this) {
+			if (!aborted) {
+				resources.add(resource);
+				return;
+			}
+		}
+		close(resource);
+		throw new InterruptedIOException("Request aborted");
+	}
+
+	/**
+	 * Close all registered connections and streams, resources that are registered later
+	 * are closed immediately
+	 */
+	void abort() {
+		final List<Closeable> toClose;
+		synchronized (this) {
+			if (aborted) {
+				return;
+			}
+			aborted = true;
+			toClose = new ArrayList<>(resources);
+			resources.clear();
+		}
+		for (final Closeable resource : toClose) {
+			close(resource);
+		}
+	}
+
+	synchronized boolean isAborted() {
+		return aborted;
+	}
+
+	private static void close(final Closeable resource) {
+		try {
+			resource.close();
+		} catch (final IOException | RuntimeException e) {
+			ExcUtils.suppress(e);
+		}
+	}
+}
@@ -0,0 +1,284 @@
+/**
+ * Copyright 2017 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.util.Locale;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import de.interactive_instruments.etf.model.capabilities.Resource;
+import de.interactive_instruments.exceptions.ExcUtils;
+
+/**
+ * Opens remote resources and measures the time to the first byte per host.
+ *
+ * If hedging is enabled and a request has not received its first byte within the configured
+ * latency percentile of the host, a duplicate request is sent and the response that arrives
+ * first is used. The slower request is aborted. The elapsed time of an aborted or timed out
+ * request is recorded as a lower bound of its latency, so that slow hosts are not measured by
+ * their fast responses only.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class RequestHedging {
+
+	// Minimum number of measured requests to a host before requests are hedged
+	private static final int MIN_SAMPLES = 20;
+
+	// 0 disables hedging
+	private final double percentile;
+
+	// hosts that have not been requested for an hour are forgotten
+	private final Cache<String, LatencyHistogram> histograms = Caffeine.newBuilder()
+			.expireAfterAccess(1, TimeUnit.HOURS).build();
+
+	/**
+	 * Create a new instance
+	 *
+	 * @param percentile latency percentile of the host after which a duplicate request is sent,
+	 *                   between 0 and 1, 0 disables hedging
+	 */
+	RequestHedging(final double percentile) {
+		if (percentile < 0 || percentile >= 1) {
+			throw new IllegalArgumentException("The percentile must be between 0 and 1");
+		}
+		this.percentile = percentile;
+	}
+
+	/**
+	 * Opens a resource
+	 */
+	@FunctionalInterface
+	interface Request {
+		/**
+		 * Send a request
+		 *
+		 * @param resource remote resource
+		 * @param attempt 0 for the original request, 1 for the hedged duplicate
+		 * @param abort the connections and streams of the request must be registered here
+		 * @return stream of the response
+		 * @throws IOException if the resource can not be requested
+		 */
+		InputStream open(final Resource resource, final int attempt, final RequestAbort abort) throws IOException;
+	}
+
+	/**
+	 * The response that arrived first
+	 */
+	static final class Response {
+		private final InputStream stream;
+		private final int attempt;
+
+		private Response(final InputStream stream, final int attempt) {
+			this.stream = stream;
+			this.attempt = attempt;
+		}
+
+		/**
+		 * Returns the stream that starts with the first byte of the response
+		 *
+		 * @return response stream
+		 */
+		InputStream getStream() {
+			return stream;
+		}
+
+		/**
+		 * Returns the request that has been answered
+		 *
+		 * @return 0 for the original request, 1 for the hedged duplicate
+		 */
+		int getAttempt() {
+			return attempt;
+		}
+	}
+
+	private static String hostOf(final URI uri) {
+		return uri.getHost() != null ? uri.getHost().toLowerCase(Locale.ENGLISH) : "";
+	}
+
+	/**
+	 * Open the resource and wait for the first byte of the response
+	 *
+	 * If requests to the host are limited, the hedged duplicate is only sent if the host
+	 * guard grants a permit immediately.
+	 * The slower request is aborted as soon as the first response arrives.
+	 *
+	 * @param resource remote resource
+	 * @param request function that sends the request
+	 * @param executor executor for hedged requests
+	 * @param hostGuard guard that limits the requests to the host, null if the requests are not limited
+	 * @param abort aborts all requests that are sent for the resource
+	 * @return first response
+	 * @throws IOException if the resource can not be requested
+	 */
+	Response open(final Resource resource, final Request request, final Executor executor,
+			final HostGuard hostGuard, final RequestAbort abort) throws IOException {
+		final LatencyHistogram histogram = histograms.get(hostOf(resource.getUri()), host -> new LatencyHistogram());
+		final long hedgeDelay = percentile > 0 ? histogram.percentile(percentile, MIN_SAMPLES) : -1;
+		if (hedgeDelay < 0) {
+			return new Response(openAndRecord(resource, request, 0, abort, histogram), 0);
+		}
+		final Hedge hedge = new Hedge(resource, request, histogram);
+		abort.register(hedge::abort);
+		executor.execute(() -> hedge.request(0));
+		try {
+			Response response;
+			try {
+				response = hedge.firstResponse.get(hedgeDelay, TimeUnit.NANOSECONDS);
+			} catch (final TimeoutException e) {
+				if (hostGuard == null) {
+					hedge.startDuplicate(executor, null);
+				} else {
+					// the duplicate request needs its own permit and is not sent if the host is busy
+					final HostGuard.Permit permit = hostGuard.tryAcquire(resource.getUri());
+					if (permit != null) {
+						hedge.startDuplicate(executor, permit);
+					}
+				}
+				response = hedge.firstResponse.get();
+			}
+			hedge.attempts[1 - response.attempt].abort();
+			return response;
+		} catch (final InterruptedException e) {
+			hedge.abort();
+			if (!hedge.firstResponse.cancel(false)) {
+				// a response arrived in the meantime
+				hedge.firstResponse.thenAccept(response -> close(response.stream));
+			}
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for " + resource.getUri());
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+	// The original request and its hedged duplicate
+	private static final class Hedge {
+		private final Resource resource;
+		private final Request request;
+		private final LatencyHistogram histogram;
+		private final CompletableFuture<Response> firstResponse = new CompletableFuture<>();
+		private final AtomicInteger pendingRequests = new AtomicInteger(1);
+		private final RequestAbort[] attempts = {new RequestAbort(), new RequestAbort()};
+		// permit of the duplicate request, released when one of the requests has ended
+		private final AtomicReference<HostGuard.Permit> duplicatePermit = new AtomicReference<>();
+
+		private Hedge(final Resource resource, final Request request, final LatencyHistogram histogram) {
+			this.resource = resource;
+			this.request = request;
+			this.histogram = histogram;
+		}
+
+		private void startDuplicate(final Executor executor, final HostGuard.Permit permit) {
+			duplicatePermit.set(permit);
+			pendingRequests.incrementAndGet();
+			try {
+				executor.execute(() -> request(1));
+			} catch (final RejectedExecutionException e) {
+				pendingRequests.decrementAndGet();
+				releaseDuplicatePermit();
+				ExcUtils.suppress(e);
+			}
+		}
+
+		private void request(final int attempt) {
+			boolean first = false;
+			try {
+				if (!firstResponse.isDone()) {
+					final InputStream inputStream = openAndRecord(resource, request, attempt, attempts[attempt],
+							histogram);
+					first = firstResponse.complete(new Response(inputStream, attempt));
+					if (!first) {
+						// the other request was faster
+						close(inputStream);
+					}
+				}
+			} catch (final IOException | RuntimeException e) {
+				// only fail if all requests failed
+				if (pendingRequests.decrementAndGet() == 0) {
+					firstResponse.completeExceptionally(e);
+				} else {
+					ExcUtils.suppress(e);
+				}
+			} finally {
+				if (!first) {
+					releaseDuplicatePermit();
+				}
+			}
+		}
+
+		private void releaseDuplicatePermit() {
+			final HostGuard.Permit permit = duplicatePermit.getAndSet(null);
+			if (permit != null) {
+				permit.cancel();
+			}
+		}
+
+		private void abort() {
+			attempts[0].abort();
+			attempts[1].abort();
+		}
+	}
+
+	private static void close(final InputStream inputStream) {
+		try {
+			inputStream.close();
+		} catch (final IOException e) {
+			ExcUtils.suppress(e);
+		}
+	}
+
+	private static InputStream openAndRecord(final Resource resource, final Request request, final int attempt,
+			final RequestAbort abort, final LatencyHistogram histogram) throws IOException {
+		final long start = System.nanoTime();
+		try {
+			final InputStream inputStream = new BufferedInputStream(request.open(resource, attempt, abort));
+			try {
+				inputStream.mark(1);
+				inputStream.read();
+				inputStream.reset();
+			} catch (final IOException e) {
+				inputStream.close();
+				throw e;
+			}
+			histogram.record(System.nanoTime() - start);
+			return inputStream;
+		} catch (final IOException e) {
+			if (abort.isAborted() || e instanceof InterruptedIOException) {
+				// the first byte would have arrived later
+				histogram.record(System.nanoTime() - start);
+			}
+			throw e;
+		}
+	}
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright 2017 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import de.interactive_instruments.etf.model.capabilities.Resource;
+import de.interactive_instruments.exceptions.ExcUtils;
+
+/**
+ * Determines whether a resource is requested with credentials.
+ *
+ * Credentials are either part of the URI or held by the resource object. The latter are
+ * accessed through a public getCredentials() method of the resource implementation, if it
+ * exists, and can be sent as basic authentication if they provide a user name and a password.
+ * Results and bodies of authenticated resources must not be shared with other callers.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class ResourceCredentials {
+
+	private static final ClassValue<Method> credentialsGetters = new ClassValue<Method>() {
+		@Override
+		protected Method computeValue(final Class<?> type) {
+			try {
+				final Method method = type.getMethod("getCredentials");
+				return Modifier.isPublic(method.getDeclaringClass().getModifiers()) ? method : null;
+			} catch (final NoSuchMethodException e) {
+				return null;
+			}
+		}
+	};
+
+	private ResourceCredentials() {}
+
+	private static Object credentialsOf(final Resource resource) throws ReflectiveOperationException {
+		final Method getter = credentialsGetters.get(resource.getClass());
+		return getter != null ? getter.invoke(resource) : null;
+	}
+
+	private static String valueOf(final Object credentials, final String getterName)
+			throws ReflectiveOperationException {
+		final Object value = credentials.getClass().getMethod(getterName).invoke(credentials);
+		if (value instanceof char[]) {
+			return new String((char[]) value);
+		}
+		return value != null ? value.toString() : null;
+	}
+
+	/**
+	 * Returns the value of a basic Authorization header for the credentials of the resource object
+	 *
+	 * @param resource resource
+	 * @return header value or null if the resource holds no credentials with user name and password
+	 */
+	static String basicAuthorization(final Resource resource) {
+		try {
+			final Object credentials = credentialsOf(resource);
+			if (credentials == null) {
+				return null;
+			}
+			final String username = valueOf(credentials, "getUsername");
+			final String password = valueOf(credentials, "getPassword");
+			if (username == null || password == null) {
+				return null;
+			}
+			return "Basic " + Base64.getEncoder().encodeToString(
+					(username + ":" + password).getBytes(StandardCharsets.UTF_8));
+		} catch (final ReflectiveOperationException | RuntimeException e) {
+			ExcUtils.suppress(e);
+			return null;
+		}
+	}
+
+	/**
+	 * Returns true if the resource object holds credentials
+	 *
+	 * @param resource resource
+	 * @return true if the resource must be opened by itself to be authenticated
+	 */
+	static boolean hasResourceCredentials(final Resource resource) {
+		try {
+			final Object credentials = credentialsOf(resource);
+			if (credentials == null) {
+				return false;
+			}
+			final Method isEmpty = credentials.getClass().getMethod("isEmpty");
+			return !Boolean.TRUE.equals(isEmpty.invoke(credentials));
+		} catch (final NoSuchMethodException e) {
+			return true;
+		} catch (final ReflectiveOperationException | RuntimeException e) {
+			ExcUtils.suppress(e);
+			// assume credentials rather than sharing results
+			return true;
+		}
+	}
+
+	/**
+	 * Returns true if the resource is requested with credentials
+	 *
+	 * @param resource resource
+	 * @return true if the URI contains user info or the resource object holds credentials
+	 */
+	static boolean isAuthenticated(final Resource resource) {
+		return (resource.getUri() != null && resource.getUri().getRawUserInfo() != null)
+				|| hasResourceCredentials(resource);
+	}
+}
@@ -0,0 +1,289 @@
+/**
+ * Copyright 2017 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import de.interactive_instruments.etf.dal.dto.capabilities.TestObjectTypeDto;
+import de.interactive_instruments.etf.detector.DetectedTestObjectType;
+import de.interactive_instruments.etf.model.EID;
+import de.interactive_instruments.etf.model.EidFactory;
+import de.interactive_instruments.etf.model.capabilities.Resource;
+import de.interactive_instruments.exceptions.ExcUtils;
+
+/**
+ * Persistent cache of the validators (ETag, Last-Modified) and the detected type of remote
+ * resources.
+ *
+ * A request for a cached resource is sent with If-None-Match and If-Modified-Since headers.
+ * If the server answers with 304 Not Modified, the stored type is used without transferring
+ * and parsing the resource again. Each normalized URI is stored in a small properties file
+ * in the cache directory, together with the expressions that have been evaluated, so a stored
+ * type is only used for the same candidate types.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class RevalidationCache {
+
+	private final Path directory;
+	private final long maxAgeMillis;
+
+	/**
+	 * Conditional headers of a request and validators of its response. Each request, including
+	 * a hedged duplicate, uses its own instance.
+	 */
+	static final class Validators {
+		// validators and type of the previous response, null if there is no valid entry
+		private final String storedEtag;
+		private final String storedLastModified;
+		private final DetectedTestObjectType storedType;
+		private String etag;
+		private String lastModified;
+		private boolean notModified;
+
+		private Validators(final String storedEtag, final String storedLastModified,
+				final DetectedTestObjectType storedType) {
+			this.storedEtag = storedEtag;
+			this.storedLastModified = storedLastModified;
+			this.storedType = storedType;
+		}
+
+		/**
+		 * Returns validators with the same conditional headers for another request
+		 *
+		 * @return new instance without response validators
+		 */
+		Validators forAttempt() {
+			return new Validators(storedEtag, storedLastModified, storedType);
+		}
+
+		/**
+		 * Add the conditional headers to a request
+		 *
+		 * @param connection unconnected request
+		 */
+		void addConditionalHeaders(final HttpURLConnection connection) {
+			if (storedType != null) {
+				if (storedEtag != null) {
+					connection.setRequestProperty("If-None-Match", storedEtag);
+				}
+				if (storedLastModified != null) {
+					connection.setRequestProperty("If-Modified-Since", storedLastModified);
+				}
+			}
+		}
+
+		/**
+		 * Read the validators of a response
+		 *
+		 * @param connection connection with received response headers
+		 * @throws IOException if the response can not be read
+		 */
+		void accept(final HttpURLConnection connection) throws IOException {
+			if (connection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+				notModified = storedType != null;
+			} else if (connection.getResponseCode() / 100 == 2) {
+				etag = connection.getHeaderField("ETag");
+				lastModified = connection.getHeaderField("Last-Modified");
+			}
+		}
+
+		/**
+		 * Returns true if the server answered with 304 Not Modified
+		 *
+		 * @return true if the stored type can be used
+		 */
+		boolean isNotModified() {
+			return notModified;
+		}
+
+		/**
+		 * Returns the type that has been detected in the previous response
+		 *
+		 * @return detected type or null if there is no valid entry
+		 */
+		DetectedTestObjectType getStoredType() {
+			return storedType;
+		}
+	}
+
+	/**
+	 * Create a new cache
+	 *
+	 * @param directory cache directory, created if it does not exist
+	 * @param maxAge time after which an entry is no longer revalidated but requested again
+	 * @param unit unit of the maximum age
+	 * @throws IOException if the directory can not be created
+	 */
+	RevalidationCache(final File directory, final long maxAge, final TimeUnit unit) throws IOException {
+		this.directory = Files.createDirectories(directory.toPath());
+		this.maxAgeMillis = unit.toMillis(maxAge);
+	}
+
+	private Path fileOf(final URI uri) {
+		try {
+			final byte[] hash = MessageDigest.getInstance("SHA-256").digest(
+					uri.normalize().toString().getBytes(StandardCharsets.UTF_8));
+			final StringBuilder name = new StringBuilder(hash.length * 2 + 11);
+			for (final byte b : hash) {
+				name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+			return directory.resolve(name.append(".properties").toString());
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String idsOf(final List<CompiledDetectionExpression> expressions) {
+		final SortedSet<String> ids = new TreeSet<>();
+		for (final CompiledDetectionExpression expression : expressions) {
+			ids.add(expression.getId().toString());
+		}
+		return String.join(",", ids);
+	}
+
+	/**
+	 * Returns the validators for a request. Entries that can not be read, that are outdated or
+	 * that have been stored for other expressions are treated as missing.
+	 *
+	 * @param uri normalized URI
+	 * @param expressions expressions that are evaluated on the response
+	 * @return validators with the conditional headers of a previous response, if any
+	 */
+	Validators validators(final URI uri, final List<CompiledDetectionExpression> expressions) {
+		final Path file = fileOf(uri);
+		if (!Files.exists(file)) {
+			return new Validators(null, null, null);
+		}
+		final Properties properties = new Properties();
+		try (final InputStream in = Files.newInputStream(file)) {
+			properties.load(in);
+		} catch (final IOException | IllegalArgumentException e) {
+			ExcUtils.suppress(e);
+			return new Validators(null, null, null);
+		}
+		try {
+			if (uri.normalize().toString().equals(properties.getProperty("uri"))
+					&& idsOf(expressions).equals(properties.getProperty("expressions"))
+					&& System.currentTimeMillis() - Long.parseLong(properties.getProperty("stored")) <= maxAgeMillis) {
+				final DetectedTestObjectType storedType = parseType(properties);
+				if (storedType != null) {
+					return new Validators(properties.getProperty("etag"), properties.getProperty("lastModified"),
+							storedType);
+				}
+			}
+		} catch (final RuntimeException e) {
+			// corrupt or edited entry
+			ExcUtils.suppress(e);
+			remove(uri);
+		}
+		return new Validators(null, null, null);
+	}
+
+	private static DetectedTestObjectType parseType(final Properties properties) {
+		final String type = properties.getProperty("type");
+		final String resource = properties.getProperty("resource");
+		if (type == null || resource == null) {
+			return null;
+		}
+		final EID id = EidFactory.getDefault().createAndPreserveStr(type);
+		final TestObjectTypeDto testObjectType = StdTestObjectTypes.types.get(id);
+		if (testObjectType == null) {
+			return null;
+		}
+		return new StdDetectedTestObjectType(testObjectType,
+				Resource.create(properties.getProperty("name", resource), URI.create(resource)),
+				properties.getProperty("label"), properties.getProperty("description"),
+				Integer.parseInt(properties.getProperty("priority", "0")));
+	}
+
+	/**
+	 * Store the validators of a response and the detected type
+	 *
+	 * @param uri normalized URI
+	 * @param expressions expressions that have been evaluated on the response
+	 * @param validators validators of the response
+	 * @param detectedType detected type
+	 */
+	void put(final URI uri, final List<CompiledDetectionExpression> expressions, final Validators validators,
+			final StdDetectedTestObjectType detectedType) {
+		if (validators.etag == null && validators.lastModified == null) {
+			return;
+		}
+		final Properties properties = new Properties();
+		properties.setProperty("uri", uri.normalize().toString());
+		properties.setProperty("expressions", idsOf(expressions));
+		properties.setProperty("stored", String.valueOf(System.currentTimeMillis()));
+		if (validators.etag != null) {
+			properties.setProperty("etag", validators.etag);
+		}
+		if (validators.lastModified != null) {
+			properties.setProperty("lastModified", validators.lastModified);
+		}
+		properties.setProperty("type", detectedType.getId().toString());
+		final Resource normalizedResource = detectedType.getNormalizedResource();
+		properties.setProperty("resource", normalizedResource.getUri().toString());
+		properties.setProperty("name", normalizedResource.getName() != null ? normalizedResource.getName()
+				: normalizedResource.getUri().toString());
+		if (detectedType.getExtractedLabel() != null) {
+			properties.setProperty("label", detectedType.getExtractedLabel());
+		}
+		if (detectedType.getExtractedDescription() != null) {
+			properties.setProperty("description", detectedType.getExtractedDescription());
+		}
+		properties.setProperty("priority", String.valueOf(detectedType.getPriority()));
+		final Path file = fileOf(uri);
+		try {
+			final Path tmpFile = Files.createTempFile(directory, "entry", ".tmp");
+			try (final OutputStream out = Files.newOutputStream(tmpFile)) {
+				properties.store(out, null);
+			}
+			try {
+				Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (final IOException e) {
+				Files.deleteIfExists(tmpFile);
+				throw e;
+			}
+		} catch (final IOException e) {
+			ExcUtils.suppress(e);
+		}
+	}
+
+	/**
+	 * Remove the entry of a resource whose type could not be detected
+	 *
+	 * @param uri normalized URI
+	 */
+	void remove(final URI uri) {
+		try {
+			Files.deleteIfExists(fileOf(uri));
+		} catch (final IOException e) {
+			ExcUtils.suppress(e);
+		}
+	}
+}
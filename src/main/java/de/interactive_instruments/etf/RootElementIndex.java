@@ -0,0 +1,110 @@
+/**
+ * Copyright 2017 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Maps the namespace and the local name of a root element to the detection expressions that
+ * can match a document with this root element.
+ *
+ * The keys are derived from the local-name() and namespace-uri() predicates of the root step
+ * of the detection expressions. Expressions that do not restrict the name of the root element
+ * are candidates for every document. The candidates are returned in the order of the list the
+ * index was created with.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class RootElementIndex {
+
+	// local name -> namespace -> candidates
+	private final Map<String, Map<String, List<CompiledDetectionExpression>>> candidates = new HashMap<>();
+
+	// local name -> candidates for root elements in other namespaces
+	private final Map<String, List<CompiledDetectionExpression>> anyNamespaceCandidates = new HashMap<>();
+
+	// candidates for root elements with other local names
+	private final List<CompiledDetectionExpression> anyNameCandidates;
+
+	RootElementIndex(final List<CompiledDetectionExpression> sortedExpressions) {
+		final Map<String, Map<String, Set<CompiledDetectionExpression>>> exact = new HashMap<>();
+		final Map<String, Set<CompiledDetectionExpression>> anyNamespace = new HashMap<>();
+		final Set<CompiledDetectionExpression> anyName = new HashSet<>();
+		for (final CompiledDetectionExpression expression : sortedExpressions) {
+			final List<String[]> keys = expression.getRootNameKeys();
+			if (keys.stream().anyMatch(key -> key[1] == null)) {
+				anyName.add(expression);
+				continue;
+			}
+			for (final String[] key : keys) {
+				if (key[0] == null) {
+					anyNamespace.computeIfAbsent(key[1], k -> new HashSet<>()).add(expression);
+				} else {
+					exact.computeIfAbsent(key[1], k -> new HashMap<>())
+							.computeIfAbsent(key[0], k -> new HashSet<>()).add(expression);
+				}
+			}
+		}
+		this.anyNameCandidates = ordered(sortedExpressions, anyName);
+		for (final Map.Entry<String, Set<CompiledDetectionExpression>> entry : anyNamespace.entrySet()) {
+			final Set<CompiledDetectionExpression> merged = new HashSet<>(entry.getValue());
+			merged.addAll(anyName);
+			anyNamespaceCandidates.put(entry.getKey(), ordered(sortedExpressions, merged));
+		}
+		for (final Map.Entry<String, Map<String, Set<CompiledDetectionExpression>>> localNameEntry : exact
+				.entrySet()) {
+			final Map<String, List<CompiledDetectionExpression>> byNamespace = new HashMap<>();
+			for (final Map.Entry<String, Set<CompiledDetectionExpression>> entry : localNameEntry.getValue()
+					.entrySet()) {
+				final Set<CompiledDetectionExpression> merged = new HashSet<>(entry.getValue());
+				merged.addAll(anyNamespace.getOrDefault(localNameEntry.getKey(), Collections.emptySet()));
+				merged.addAll(anyName);
+				byNamespace.put(entry.getKey(), ordered(sortedExpressions, merged));
+			}
+			candidates.put(localNameEntry.getKey(), byNamespace);
+		}
+	}
+
+	private static List<CompiledDetectionExpression> ordered(final List<CompiledDetectionExpression> sortedExpressions,
+			final Set<CompiledDetectionExpression> selected) {
+		return Collections.unmodifiableList(
+				sortedExpressions.stream().filter(selected::contains).collect(Collectors.toList()));
+	}
+
+	/**
+	 * Returns the expressions that can match a document with the root element
+	 *
+	 * @param namespaceUri namespace of the root element, empty if there is none
+	 * @param localName local name of the root element
+	 * @return unmodifiable, sorted list of candidates
+	 */
+	List<CompiledDetectionExpression> getCandidates(final String namespaceUri, final String localName) {
+		final Map<String, List<CompiledDetectionExpression>> byNamespace = candidates.get(localName);
+		if (byNamespace != null) {
+			final List<CompiledDetectionExpression> exactCandidates = byNamespace.get(namespaceUri);
+			if (exactCandidates != null) {
+				return exactCandidates;
+			}
+		}
+		final List<CompiledDetectionExpression> nameCandidates = anyNamespaceCandidates.get(localName);
+		return nameCandidates != null ? nameCandidates : anyNameCandidates;
+	}
+}
@@ -0,0 +1,526 @@
+/**
+ * Copyright 2017 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.*;
+
+/**
+ * Scans the first bytes of a document for the start tag of the root element, without
+ * using a XML parser.
+ *
+ * The XML declaration is used to determine the encoding, comments, processing instructions
+ * and a document type declaration without internal subset are skipped. The namespace of the
+ * root element is resolved with the namespace declarations on the root element. If the start
+ * tag can not be read reliably or anything in the prolog or the start tag is not well-formed,
+ * null is returned and the document must be parsed, so that malformed documents are rejected
+ * by the parser.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class RootElementScanner {
+
+	// Number of bytes that are read at once
+	private static final int CHUNK_SIZE = 4096;
+
+	// Maximum number of bytes that are scanned for the start tag of the root element
+	static final int MAX_SCAN_BYTES = 64 * 1024;
+
+	private static final String XML_NAMESPACE = "http://www.w3.org/XML/1998/namespace";
+
+	private enum State {
+		COMPLETE, INCOMPLETE, UNSUPPORTED
+	}
+
+	/**
+	 * Start tag of the root element
+	 */
+	static final class ScannedElement implements ExpressionAnalysis.Element {
+		private final String namespaceUri;
+		private final String localName;
+		private final String qName;
+		private final Map<String, String> attributes;
+
+		private ScannedElement(final String namespaceUri, final String localName, final String qName,
+				final Map<String, String> attributes) {
+			this.namespaceUri = namespaceUri;
+			this.localName = localName;
+			this.qName = qName;
+			this.attributes = attributes;
+		}
+
+		@Override
+		public String getNamespaceUri() {
+			return namespaceUri;
+		}
+
+		@Override
+		public String getLocalName() {
+			return localName;
+		}
+
+		@Override
+		public String getQName() {
+			return qName;
+		}
+
+		@Override
+		public String getAttribute(final String name) {
+			return attributes.get(name);
+		}
+	}
+
+	private RootElementScanner() {}
+
+	/**
+	 * Reads the start tag of the root element. The stream is not closed and at most
+	 * MAX_SCAN_BYTES are consumed.
+	 *
+	 * @param inputStream document
+	 * @return the root element or null if it could not be determined
+	 * @throws IOException if the stream can not be read
+	 */
+	static ScannedElement scan(final InputStream inputStream) throws IOException {
+		byte[] buffer = new byte[CHUNK_SIZE];
+		int length = 0;
+		while (length < MAX_SCAN_BYTES) {
+			if (length == buffer.length) {
+				buffer = Arrays.copyOf(buffer, Math.min(buffer.length * 2, MAX_SCAN_BYTES));
+			}
+			final int read = inputStream.read(buffer, length, buffer.length - length);
+			if (read == -1) {
+				return scan(buffer, length, true).element;
+			}
+			length += read;
+			final Scan scan = scan(buffer, length, false);
+			if (scan.state != State.INCOMPLETE) {
+				return scan.element;
+			}
+		}
+		return null;
+	}
+
+	private static final class Scan {
+		private static final Scan INCOMPLETE = new Scan(State.INCOMPLETE, null);
+		private static final Scan UNSUPPORTED = new Scan(State.UNSUPPORTED, null);
+
+		private final State state;
+		private final ScannedElement element;
+
+		private Scan(final State state, final ScannedElement element) {
+			this.state = state;
+			this.element = element;
+		}
+	}
+
+	private static Scan scan(final byte[] bytes, final int length, final boolean eof) {
+		final String encoding = detectEncoding(bytes, length);
+		if (encoding == null) {
+			return eof ? Scan.UNSUPPORTED : Scan.INCOMPLETE;
+		}
+		final Charset charset;
+		try {
+			charset = Charset.forName(encoding);
+		} catch (final IllegalCharsetNameException | UnsupportedCharsetException e) {
+			return Scan.UNSUPPORTED;
+		}
+		final Scan scan = new Scanner(new String(bytes, 0, length, charset), charset).scan();
+		if (eof && scan.state == State.INCOMPLETE) {
+			return Scan.UNSUPPORTED;
+		}
+		return scan;
+	}
+
+	/**
+	 * Determines the encoding from the byte order mark or the XML declaration
+	 *
+	 * @return encoding name or null if the XML declaration has not been read completely
+	 */
+	private static String detectEncoding(final byte[] bytes, final int length) {
+		if (length < 4) {
+			return null;
+		}
+		final int b0 = bytes[0] & 0xFF;
+		final int b1 = bytes[1] & 0xFF;
+		final int b2 = bytes[2] & 0xFF;
+		final int b3 = bytes[3] & 0xFF;
+		if ((b0 == 0xFE && b1 == 0xFF) || (b0 == 0x00 && b1 == 0x3C && b2 == 0x00 && b3 == 0x3F)) {
+			return StandardCharsets.UTF_16BE.name();
+		} else if ((b0 == 0xFF && b1 == 0xFE) || (b0 == 0x3C && b1 == 0x00 && b2 == 0x3F && b3 == 0x00)) {
+			return StandardCharsets.UTF_16LE.name();
+		} else if (b0 == 0xEF && b1 == 0xBB && b2 == 0xBF) {
+			return StandardCharsets.UTF_8.name();
+		} else if (b0 == '<' && b1 == '?' && b2 == 'x' && b3 == 'm') {
+			// the declaration only contains ASCII characters
+			int end = -1;
+			for (int i = 4; i < length - 1; i++) {
+				if (bytes[i] == '?' && bytes[i + 1] == '>') {
+					end = i;
+					break;
+				}
+			}
+			if (end == -1) {
+				return null;
+			}
+			final String declaration = new String(bytes, 0, end, StandardCharsets.ISO_8859_1);
+			final String encoding = pseudoAttribute(declaration, "encoding");
+			return encoding != null ? encoding : StandardCharsets.UTF_8.name();
+		}
+		return StandardCharsets.UTF_8.name();
+	}
+
+	private static String pseudoAttribute(final String declaration, final String name) {
+		final int nameStart = declaration.indexOf(name);
+		if (nameStart == -1) {
+			return null;
+		}
+		int i = nameStart + name.length();
+		while (i < declaration.length() && (declaration.charAt(i) == '=' || isWhitespace(declaration.charAt(i)))) {
+			i++;
+		}
+		if (i >= declaration.length()) {
+			return null;
+		}
+		final char quote = declaration.charAt(i);
+		final int end = declaration.indexOf(quote, i + 1);
+		if ((quote != '"' && quote != '\'') || end == -1) {
+			return null;
+		}
+		return declaration.substring(i + 1, end).trim();
+	}
+
+	private static boolean isWhitespace(final char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+	}
+
+	private static final class Scanner {
+		private final String text;
+		private final Charset charset;
+		private int pos;
+
+		private Scanner(final String text, final Charset charset) {
+			this.text = text;
+			this.charset = charset;
+		}
+
+		private Scan scan() {
+			final boolean byteOrderMark = !text.isEmpty() && text.charAt(0) == '\uFEFF';
+			final int documentStart = byteOrderMark ? 1 : 0;
+			pos = documentStart;
+			boolean doctype = false;
+			while (true) {
+				skipWhitespace();
+				if (pos >= text.length()) {
+					return Scan.INCOMPLETE;
+				}
+				if (text.startsWith("<?", pos)) {
+					final int start = pos;
+					if (!skipTo("?>")) {
+						return Scan.INCOMPLETE;
+					}
+					final String target = processingInstructionTarget(start + 2);
+					if (target.isEmpty()) {
+						return Scan.UNSUPPORTED;
+					} else if ("xml".equalsIgnoreCase(target)
+							&& (start != documentStart || !"xml".equals(target)
+									|| !isDeclarationValid(text.substring(start, pos), byteOrderMark))) {
+						// only one declaration at the start of the document
+						return Scan.UNSUPPORTED;
+					}
+				} else if (text.startsWith("<!--", pos)) {
+					final int start = pos + 4;
+					pos = start;
+					if (!skipTo("-->")) {
+						return Scan.INCOMPLETE;
+					}
+					// "--" must not occur within comments
+					final String comment = text.substring(start, pos - 3);
+					if (comment.contains("--") || comment.endsWith("-")) {
+						return Scan.UNSUPPORTED;
+					}
+				} else if (text.startsWith("<!DOCTYPE", pos)) {
+					if (doctype) {
+						return Scan.UNSUPPORTED;
+					}
+					doctype = true;
+					final Scan doctypeScan = skipDoctype();
+					if (doctypeScan != null) {
+						return doctypeScan;
+					}
+				} else if (text.startsWith("<!", pos)) {
+					return text.length() - pos < 9 ? Scan.INCOMPLETE : Scan.UNSUPPORTED;
+				} else if (text.charAt(pos) == '<') {
+					pos++;
+					return scanStartTag();
+				} else {
+					return Scan.UNSUPPORTED;
+				}
+			}
+		}
+
+		private String processingInstructionTarget(final int start) {
+			int end = start;
+			while (end < text.length() && !isWhitespace(text.charAt(end)) && text.charAt(end) != '?') {
+				end++;
+			}
+			return text.substring(start, end);
+		}
+
+		/**
+		 * Checks the version of the XML declaration and that the declared encoding matches the
+		 * encoding of the byte order mark
+		 */
+		private boolean isDeclarationValid(final String declaration, final boolean byteOrderMark) {
+			final String version = pseudoAttribute(declaration, "version");
+			if (version == null || !version.startsWith("1.") || !isWhitespace(declaration.charAt(5))) {
+				return false;
+			}
+			final String encoding = pseudoAttribute(declaration, "encoding");
+			if (encoding == null || (!byteOrderMark && !charset.name().startsWith("UTF-16"))) {
+				return true;
+			}
+			if (charset.name().startsWith("UTF-16")) {
+				return encoding.toUpperCase(Locale.ENGLISH).startsWith("UTF-16");
+			}
+			try {
+				return Charset.forName(encoding).equals(charset);
+			} catch (final IllegalArgumentException e) {
+				return false;
+			}
+		}
+
+		private void skipWhitespace() {
+			while (pos < text.length() && isWhitespace(text.charAt(pos))) {
+				pos++;
+			}
+		}
+
+		private boolean skipTo(final String end) {
+			final int index = text.indexOf(end, pos);
+			if (index == -1) {
+				return false;
+			}
+			pos = index + end.length();
+			return true;
+		}
+
+		/**
+		 * @return null if the declaration has been skipped
+		 */
+		private Scan skipDoctype() {
+			for (int i = pos; i < text.length(); i++) {
+				final char c = text.charAt(i);
+				if (c == '[') {
+					// entities in the internal subset could be referenced in attributes
+					return Scan.UNSUPPORTED;
+				} else if (c == '"' || c == '\'') {
+					final int end = text.indexOf(c, i + 1);
+					if (end == -1) {
+						return Scan.INCOMPLETE;
+					}
+					i = end;
+				} else if (c == '>') {
+					pos = i + 1;
+					return null;
+				}
+			}
+			return Scan.INCOMPLETE;
+		}
+
+		private String scanName() {
+			final int start = pos;
+			while (pos < text.length()) {
+				final char c = text.charAt(pos);
+				if (isWhitespace(c) || c == '/' || c == '>' || c == '=' || c == '<' || c == '"' || c == '\'') {
+					break;
+				}
+				pos++;
+			}
+			return text.substring(start, pos);
+		}
+
+		/**
+		 * Checks the characters of a name that can be checked without the XML name tables
+		 */
+		private static boolean isNameValid(final String qName) {
+			if (qName.isEmpty() || "-.0123456789".indexOf(qName.charAt(0)) != -1) {
+				return false;
+			}
+			final int colon = qName.indexOf(':');
+			return colon == -1 || (colon > 0 && colon < qName.length() - 1 && qName.indexOf(':', colon + 1) == -1);
+		}
+
+		private Scan scanStartTag() {
+			final String qName = scanName();
+			if (pos >= text.length()) {
+				return Scan.INCOMPLETE;
+			}
+			if (!isNameValid(qName)) {
+				return Scan.UNSUPPORTED;
+			}
+			final Map<String, String> prefixes = new HashMap<>();
+			final Map<String, String> attributes = new HashMap<>();
+			final Set<String> prefixedNames = new HashSet<>();
+			while (true) {
+				skipWhitespace();
+				if (pos >= text.length()) {
+					return Scan.INCOMPLETE;
+				}
+				final char c = text.charAt(pos);
+				if (c == '/') {
+					if (pos + 1 >= text.length()) {
+						return Scan.INCOMPLETE;
+					}
+					if (text.charAt(pos + 1) != '>') {
+						return Scan.UNSUPPORTED;
+					}
+					break;
+				} else if (c == '>') {
+					break;
+				}
+				final String name = scanName();
+				skipWhitespace();
+				if (pos >= text.length()) {
+					return Scan.INCOMPLETE;
+				}
+				if (!isNameValid(name) || text.charAt(pos) != '=') {
+					return Scan.UNSUPPORTED;
+				}
+				pos++;
+				skipWhitespace();
+				if (pos >= text.length()) {
+					return Scan.INCOMPLETE;
+				}
+				final char quote = text.charAt(pos);
+				if (quote != '"' && quote != '\'') {
+					return Scan.UNSUPPORTED;
+				}
+				final int end = text.indexOf(quote, pos + 1);
+				if (end == -1) {
+					return Scan.INCOMPLETE;
+				}
+				final String value = decodeAttributeValue(text.substring(pos + 1, end));
+				if (value == null) {
+					return Scan.UNSUPPORTED;
+				}
+				pos = end + 1;
+				if (pos < text.length() && !isWhitespace(text.charAt(pos)) && text.charAt(pos) != '>'
+						&& text.charAt(pos) != '/') {
+					// attributes must be separated by whitespace
+					return Scan.UNSUPPORTED;
+				}
+				final boolean duplicate;
+				if ("xmlns".equals(name)) {
+					duplicate = prefixes.put("", value) != null;
+				} else if (name.startsWith("xmlns:")) {
+					duplicate = prefixes.put(name.substring(6), value) != null;
+				} else if (name.indexOf(':') == -1) {
+					duplicate = attributes.put(name, value) != null;
+				} else {
+					duplicate = !prefixedNames.add(name);
+				}
+				if (duplicate) {
+					return Scan.UNSUPPORTED;
+				}
+			}
+			for (final String prefixedName : prefixedNames) {
+				final String prefix = prefixedName.substring(0, prefixedName.indexOf(':'));
+				if (!"xml".equals(prefix) && !prefixes.containsKey(prefix)) {
+					// undeclared prefix
+					return Scan.UNSUPPORTED;
+				}
+			}
+			final int colon = qName.indexOf(':');
+			final String namespaceUri;
+			final String localName;
+			if (colon == -1) {
+				localName = qName;
+				namespaceUri = prefixes.getOrDefault("", "");
+			} else {
+				final String prefix = qName.substring(0, colon);
+				localName = qName.substring(colon + 1);
+				if ("xml".equals(prefix)) {
+					namespaceUri = XML_NAMESPACE;
+				} else {
+					namespaceUri = prefixes.get(prefix);
+					if (namespaceUri == null) {
+						return Scan.UNSUPPORTED;
+					}
+				}
+			}
+			return new Scan(State.COMPLETE, new ScannedElement(namespaceUri, localName, qName, attributes));
+		}
+
+		/**
+		 * Replaces references and normalizes whitespace
+		 *
+		 * @return value or null if an entity is referenced that is not predefined
+		 */
+		private static String decodeAttributeValue(final String raw) {
+			if (raw.indexOf('<') != -1) {
+				return null;
+			}
+			final StringBuilder value = new StringBuilder(raw.length());
+			for (int i = 0; i < raw.length(); i++) {
+				final char c = raw.charAt(i);
+				if (c == '&') {
+					final int end = raw.indexOf(';', i);
+					if (end == -1) {
+						return null;
+					}
+					final String reference = raw.substring(i + 1, end);
+					if ("lt".equals(reference)) {
+						value.append('<');
+					} else if ("gt".equals(reference)) {
+						value.append('>');
+					} else if ("amp".equals(reference)) {
+						value.append('&');
+					} else if ("quot".equals(reference)) {
+						value.append('"');
+					} else if ("apos".equals(reference)) {
+						value.append('\'');
+					} else if (reference.startsWith("#")) {
+						try {
+							final int codePoint = reference.startsWith("#x")
+									? Integer.parseInt(reference.substring(2), 16)
+									: Integer.parseInt(reference.substring(1));
+							value.appendCodePoint(codePoint);
+						} catch (final IllegalArgumentException e) {
+							return null;
+						}
+					} else {
+						return null;
+					}
+					i = end;
+				} else if (isWhitespace(c)) {
+					value.append(' ');
+				} else {
+					value.append(c);
+				}
+			}
+			return value.toString();
+		}
+	}
+}
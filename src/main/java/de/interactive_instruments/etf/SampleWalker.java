@@ -0,0 +1,137 @@
+/**
+ * Copyright 2017 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf;
+
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.interactive_instruments.IFile;
+
+/**
+ * Draws a sample of the files in a directory while the directory tree is walked.
+ *
+ * The directory is walked once, the file attributes are read together with the entries. A
+ * reservoir of the sample size holds a uniformly distributed sample of the matching files,
+ * so the file list is never held in memory. Symbolic links are followed, links that form a
+ * cycle are skipped. The walk stops after a maximum number of entries or a maximum time, the
+ * sample is then drawn from the visited part of the tree.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class SampleWalker {
+
+	private static final Logger logger = LoggerFactory.getLogger(SampleWalker.class);
+
+	private final int maxDepth;
+	private final long maxEntries;
+	private final long maxTimeNanos;
+
+	/**
+	 * Create a new walker
+	 *
+	 * @param maxDepth maximum depth of subdirectories
+	 * @param maxEntries maximum number of visited files and directories
+	 * @param maxTime maximum time of a walk
+	 * @param unit unit of the maximum time
+	 */
+	SampleWalker(final int maxDepth, final long maxEntries, final long maxTime, final TimeUnit unit) {
+		if (maxDepth < 0 || maxEntries < 1 || maxTime < 1) {
+			throw new IllegalArgumentException("Invalid walk limits");
+		}
+		this.maxDepth = maxDepth;
+		this.maxEntries = maxEntries;
+		this.maxTimeNanos = unit.toNanos(maxTime);
+	}
+
+	/**
+	 * Draw a sample of the files in a directory
+	 *
+	 * @param dir directory
+	 * @param filter filter for the file names
+	 * @param sampleSize maximum number of sample files
+	 * @return sample files in path order, empty if no file matches
+	 * @throws IOException if the directory can not be read
+	 */
+	List<IFile> sample(final IFile dir, final FilenameFilter filter, final int sampleSize) throws IOException {
+		final Path[] reservoir = new Path[sampleSize];
+		// the same directory yields the same sample
+		final Random random = new Random(dir.getAbsolutePath().hashCode());
+		final long deadline = System.nanoTime() + maxTimeNanos;
+		final long[] counts = new long[2];
+		final boolean[] truncated = new boolean[1];
+		Files.walkFileTree(dir.toPath(), EnumSet.of(FileVisitOption.FOLLOW_LINKS), maxDepth + 1,
+				new SimpleFileVisitor<Path>() {
+					private FileVisitResult next() {
+						if (++counts[0] >= maxEntries || System.nanoTime() - deadline > 0) {
+							truncated[0] = true;
+							return FileVisitResult.TERMINATE;
+						}
+						return FileVisitResult.CONTINUE;
+					}
+
+					@Override
+					public FileVisitResult preVisitDirectory(final Path path, final BasicFileAttributes attrs) {
+						return next();
+					}
+
+					@Override
+					public FileVisitResult visitFile(final Path path, final BasicFileAttributes attrs) {
+						if (attrs.isRegularFile() && path.getParent() != null
+								&& filter.accept(path.getParent().toFile(), path.getFileName().toString())) {
+							final long matched = counts[1]++;
+							if (matched < sampleSize) {
+								reservoir[(int) matched] = path;
+							} else {
+								final long i = (long) (random.nextDouble() * (matched + 1));
+								if (i < sampleSize) {
+									reservoir[(int) i] = path;
+								}
+							}
+						}
+						return next();
+					}
+
+					@Override
+					public FileVisitResult visitFileFailed(final Path path, final IOException e) {
+						// skip unreadable entries and links that form a cycle
+						return next();
+					}
+				});
+		if (truncated[0]) {
+			logger.info("Walk of {} stopped after {} entries, sample drawn from {} matching files in the visited part",
+					dir.getAbsolutePath(), counts[0], counts[1]);
+		}
+		final List<IFile> samples = new ArrayList<>(sampleSize);
+		for (final Path path : reservoir) {
+			if (path != null) {
+				samples.add(new IFile(path.toString()));
+			}
+		}
+		samples.sort(Comparator.naturalOrder());
+		return samples;
+	}
+}
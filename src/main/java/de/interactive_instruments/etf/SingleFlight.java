@@ -0,0 +1,89 @@
+/**
+ * Copyright 2017 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent calls with the same key: the first caller executes the call, all
+ * other callers wait for its result instead of executing the same call again.
+ *
+ * @param <K> key type
+ * @param <V> result type
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class SingleFlight<K, V> {
+
+	private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+	/**
+	 * Execute the call or wait for the result of a running call with the same key
+	 *
+	 * @param key key of the call
+	 * @param call call that is executed if no call with the same key is running
+	 * @return result of the call, or null if the waiting thread is interrupted
+	 */
+	V execute(final K key, final Supplier<V> call) {
+		final CompletableFuture<V> flight = new CompletableFuture<>();
+		final CompletableFuture<V> leader = inFlight.putIfAbsent(key, flight);
+		if (leader != null) {
+			return await(leader, key, call);
+		}
+		try {
+			final V result = call.get();
+			if (Thread.currentThread().isInterrupted()) {
+				// the result of a cancelled call is incomplete, waiting callers execute the call again
+				flight.cancel(false);
+			} else {
+				flight.complete(result);
+			}
+			return result;
+		} catch (final RuntimeException | Error e) {
+			flight.completeExceptionally(e);
+			throw e;
+		} finally {
+			inFlight.remove(key, flight);
+		}
+	}
+
+	private V await(final CompletableFuture<V> leader, final K key, final Supplier<V> call) {
+		try {
+			return leader.get();
+		} catch (final CancellationException e) {
+			return execute(key, call);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			} else if (e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+}
@@ -19,6 +19,7 @@
  */
 package de.interactive_instruments.etf;
 
+import java.io.InputStream;
 import java.util.List;
 import java.util.Objects;
 
@@ -42,6 +43,8 @@ class StdDetectedTestObjectType implements DetectedTestObjectType {
 	private final String extractedDescription;
 	private final Resource normalizedResource;
 	private final int priority;
+	// store that may hold the fetched body of the normalized resource, or null
+	private final BodyStore bodyStore;
 
 	StdDetectedTestObjectType(final TestObjectTypeDto testObjectType, final Resource normalizedResource) {
 		this(testObjectType, normalizedResource, null, null, 0);
@@ -50,11 +53,64 @@ class StdDetectedTestObjectType implements DetectedTestObjectType {
 	StdDetectedTestObjectType(final TestObjectTypeDto testObjectType,
 			final Resource normalizedResource, final String label, final String description,
 			final int priority) {
+		this(testObjectType, normalizedResource, label, description, priority, null);
+	}
+
+	private StdDetectedTestObjectType(final TestObjectTypeDto testObjectType,
+			final Resource normalizedResource, final String label, final String description,
+			final int priority, final BodyStore bodyStore) {
 		this.testObjectType = Objects.requireNonNull(testObjectType);
 		this.normalizedResource = Resource.toImmutable(Objects.requireNonNull(normalizedResource));
 		this.extractedLabel = label;
 		this.extractedDescription = description;
 		this.priority = priority;
+		this.bodyStore = bodyStore;
+	}
+
+	/**
+	 * Returns a copy that references another normalized resource
+	 *
+	 * @param normalizedResource normalized resource
+	 * @return copy with the extracted label and description
+	 */
+	StdDetectedTestObjectType withNormalizedResource(final Resource normalizedResource) {
+		return new StdDetectedTestObjectType(testObjectType, normalizedResource, extractedLabel,
+				extractedDescription, priority, bodyStore);
+	}
+
+	/**
+	 * Returns a copy that references the store with the fetched body of the normalized resource
+	 *
+	 * @param bodyStore store
+	 * @return copy with the extracted label and description
+	 */
+	StdDetectedTestObjectType withBodyStore(final BodyStore bodyStore) {
+		return new StdDetectedTestObjectType(testObjectType, normalizedResource, extractedLabel,
+				extractedDescription, priority, bodyStore);
+	}
+
+	String getExtractedLabel() {
+		return extractedLabel;
+	}
+
+	String getExtractedDescription() {
+		return extractedDescription;
+	}
+
+	int getPriority() {
+		return priority;
+	}
+
+	/**
+	 * Open the body of the normalized resource that has been fetched during the detection
+	 *
+	 * @return stream of the body or null if it is not stored
+	 */
+	InputStream openStoredBody() {
+		if (bodyStore == null || normalizedResource.getUri() == null) {
+			return null;
+		}
+		return bodyStore.open(normalizedResource.getUri());
 	}
 
 	@Override
@@ -19,33 +19,33 @@
  */
 package de.interactive_instruments.etf;
 
+import java.io.File;
 import java.io.FileInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
 import java.net.URI;
+import java.net.UnknownHostException;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.xml.xpath.XPathException;
-import javax.xml.xpath.XPathExpressionException;
 
-import jlibs.xml.DefaultNamespaceContext;
-import jlibs.xml.sax.dog.XMLDog;
-import jlibs.xml.sax.dog.XPathResults;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
 
-import org.jaxen.saxpath.SAXPathException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.xml.sax.InputSource;
 
 import de.interactive_instruments.*;
 import de.interactive_instruments.etf.dal.dto.capabilities.TestObjectTypeDto;
 import de.interactive_instruments.etf.detector.DetectedTestObjectType;
 import de.interactive_instruments.etf.detector.TestObjectTypeDetector;
-import de.interactive_instruments.etf.model.DefaultEidMap;
 import de.interactive_instruments.etf.model.EID;
 import de.interactive_instruments.etf.model.EidMap;
-import de.interactive_instruments.etf.model.capabilities.CachedRemoteResource;
 import de.interactive_instruments.etf.model.capabilities.LocalResource;
 import de.interactive_instruments.etf.model.capabilities.RemoteResource;
 import de.interactive_instruments.etf.model.capabilities.Resource;
@@ -70,13 +70,119 @@ import de.interactive_instruments.io.GmlAndXmlFilter;
 public class StdTestObjectDetector implements TestObjectTypeDetector {
 
 	private static Logger logger = LoggerFactory.getLogger(StdTestObjectDetector.class);
-	private boolean initialized = false;
 
-	private final List<CompiledDetectionExpression> detectionExpressions = new ArrayList<>();
+	// Maximum number of cached engine pools for expected type sets
+	private static final int MAX_SCOPED_ENGINES = 64;
 
-	private final EidMap<CompiledDetectionExpression> detectionExpressionsEidMap = new DefaultEidMap<>();
+	// Threads for parallel probes
+	private static final ExecutorService probeExecutor = Executors.newCachedThreadPool(
+			DetectionExecutors.daemonThreadFactory("etf-stdtot-probe-"));
 
-	private final XMLDog xmlDog = new XMLDog(new DefaultNamespaceContext(), null, null);
+	/**
+	 * State that is built on initialization and safely published to all detecting threads.
+	 * The sorted expression lists of the engines are immutable, engines are only accessed
+	 * through the pools.
+	 */
+	private static final class Snapshot {
+		// Engines for all supported types
+		private final DetectionEnginePool defaultEngines;
+
+		// Engines that only evaluate the expressions of an expected type set
+		private final ConcurrentMap<Set<EID>, DetectionEnginePool> scopedEngines = new ConcurrentHashMap<>();
+
+		private Snapshot(final DetectionEnginePool defaultEngines) {
+			this.defaultEngines = defaultEngines;
+		}
+	}
+
+	private volatile Snapshot snapshot;
+
+	// Decide types with the scanned root element if possible
+	private volatile boolean rootElementScanning = Boolean.parseBoolean(
+			System.getProperty("etf.stdtot.sniff.rootscan", "true"));
+
+	// Detected types of remote resources
+	private volatile DetectionResultCache resultCache = new DetectionResultCache(
+			Long.getLong("etf.stdtot.cache.size", 1000), Long.getLong("etf.stdtot.cache.ttl", 900), TimeUnit.SECONDS);
+
+	// Unreachable resources and resources without matching type
+	private volatile NegativeProbeCache negativeCache = new NegativeProbeCache(
+			Long.getLong("etf.stdtot.negativecache.size", 1000),
+			Long.getLong("etf.stdtot.negativecache.unreachable.ttl", 30),
+			Long.getLong("etf.stdtot.negativecache.nomatch.ttl", 120), TimeUnit.SECONDS);
+
+	// Running detections, keyed by the normalized URI and the expected types
+	private final SingleFlight<DetectionResultCache.Key, DetectedTestObjectType> inFlightDetections = new SingleFlight<>();
+
+	// Run parallel probes and sample parsing on virtual threads
+	private volatile boolean virtualThreadExecution = Boolean.getBoolean("etf.stdtot.virtualthreads");
+
+	// Limits the requests per host, null if the requests are not limited
+	private volatile HostGuard hostGuard = createHostGuard();
+
+	// Measures the latency per host and sends duplicate requests to slow hosts
+	private volatile RequestHedging requestHedging = new RequestHedging(
+			Double.parseDouble(System.getProperty("etf.stdtot.hedge.percentile", "0")));
+
+	/**
+	 * Limits for reading a remote resource
+	 */
+	private static final class FetchLimits {
+		private final long maxBytes;
+		private final long readTimeout;
+		private final long totalTimeout;
+		private final TimeUnit unit;
+
+		private FetchLimits(final long maxBytes, final long readTimeout, final long totalTimeout, final TimeUnit unit) {
+			if (maxBytes < 1 || readTimeout < 1 || totalTimeout < 1) {
+				throw new IllegalArgumentException("Invalid fetch limits");
+			}
+			this.maxBytes = maxBytes;
+			this.readTimeout = readTimeout;
+			this.totalTimeout = totalTimeout;
+			this.unit = Objects.requireNonNull(unit);
+		}
+	}
+
+	private volatile FetchLimits fetchLimits = new FetchLimits(
+			Long.getLong("etf.stdtot.fetch.maxbytes", 64L * 1024 * 1024),
+			Long.getLong("etf.stdtot.fetch.readtimeout", 30),
+			Long.getLong("etf.stdtot.fetch.totaltimeout", 120), TimeUnit.SECONDS);
+
+	private volatile RemoteFetch remoteFetch = new RemoteFetch(
+			Integer.getInteger("etf.stdtot.fetch.range", 64 * 1024),
+			Boolean.parseBoolean(System.getProperty("etf.stdtot.fetch.compression", "true")));
+
+	// Fetched bodies of detected remote resources
+	private volatile BodyStore bodyStore = new BodyStore(
+			Long.getLong("etf.stdtot.bodystore.memory", 16L * 1024 * 1024),
+			Long.getLong("etf.stdtot.bodystore.size", 0),
+			Long.getLong("etf.stdtot.bodystore.ttl", 600), TimeUnit.SECONDS);
+
+	// Validators and detected types of remote resources that are revalidated, null if disabled
+	private volatile RevalidationCache revalidationCache = createRevalidationCache(
+			System.getProperty("etf.stdtot.revalidation.dir"),
+			Long.getLong("etf.stdtot.revalidation.maxage", TimeUnit.DAYS.toSeconds(30)));
+
+	// Pool for parsing the samples of a directory in parallel, null if the samples are parsed sequentially
+	private volatile ExecutorService samplePool = createSamplePool(Integer.getInteger("etf.stdtot.samples.parallel",
+			Math.min(7, Runtime.getRuntime().availableProcessors())));
+
+	// Draws the samples of local directories
+	private volatile SampleWalker sampleWalker = new SampleWalker(6,
+			Long.getLong("etf.stdtot.samples.maxentries", 100000),
+			Long.getLong("etf.stdtot.samples.maxtime", 5000), TimeUnit.MILLISECONDS);
+
+	// Stop parsing as soon as all expressions are resolved
+	private volatile boolean earlyAbortSniffing = Boolean.parseBoolean(
+			System.getProperty("etf.stdtot.sniff.earlyabort", "true"));
+
+	// Maximum number of normalized remote resources that are requested in parallel, 1 to disable
+	private volatile int maxParallelProbes = Integer.getInteger("etf.stdtot.probe.parallel", 1);
+
+	// Send one GetCapabilities request without version before the version specific requests
+	private volatile boolean versionNegotiation = Boolean.parseBoolean(
+			System.getProperty("etf.stdtot.probe.negotiate", "true"));
 
 	@Override
 	public EidMap<TestObjectTypeDto> supportedTypes() {
@@ -85,48 +191,428 @@ public class StdTestObjectDetector implements TestObjectTypeDetector {
 
 	@Override
 	public void init() throws ConfigurationException, InitializationException, InvalidStateTransitionException {
-		for (final TestObjectTypeDto testObjectType : StdTestObjectTypes.types.values()) {
-			if (!SUtils.isNullOrEmpty(testObjectType.getDetectionExpression())) {
-				try {
-					final CompiledDetectionExpression compiledExpression = new CompiledDetectionExpression(testObjectType,
-							this.xmlDog);
-					detectionExpressions.add(compiledExpression);
-					detectionExpressionsEidMap.put(testObjectType.getId(), compiledExpression);
-				} catch (final SAXPathException e) {
-					logger.error("Could not compile XPath expression: ", e);
-				}
+		snapshot = new Snapshot(new DetectionEnginePool(StdTestObjectTypes.types.values()));
+	}
+
+	/**
+	 * Enables or disables scanning the start tag of the root element before XMLDog is used.
+	 * Types with detection expressions that only test the name, the namespace and the
+	 * attributes of the root element are decided without XML parser. Enabled by default,
+	 * can be changed with the system property 'etf.stdtot.sniff.rootscan'.
+	 *
+	 * @param rootElementScanning true to enable root element scanning
+	 */
+	public void setRootElementScanning(final boolean rootElementScanning) {
+		this.rootElementScanning = rootElementScanning;
+	}
+
+	/**
+	 * Enables or disables the early abort sniffing mode, in which a document is only read
+	 * until all detection, label and description expressions are resolved. For the standard
+	 * types this is the start tag of the root element or, if the label of a detected service
+	 * is extracted, the end of the service metadata section. Enabled by default, can be changed with
+	 * the system property 'etf.stdtot.sniff.earlyabort'.
+	 *
+	 * @param earlyAbortSniffing true to enable early abort sniffing
+	 */
+	public void setEarlyAbortSniffing(final boolean earlyAbortSniffing) {
+		this.earlyAbortSniffing = earlyAbortSniffing;
+	}
+
+	/**
+	 * Sets the maximum number of normalized remote resources, like the version specific
+	 * GetCapabilities requests, that are requested in parallel. Requests are sent speculatively
+	 * in priority order, the results are evaluated in priority order and outstanding requests
+	 * are cancelled as soon as a type is detected. Disabled by default (1), can be changed with
+	 * the system property 'etf.stdtot.probe.parallel'.
+	 *
+	 * @param maxParallelProbes maximum number of parallel requests, 1 for sequential requests
+	 */
+	public void setMaxParallelProbes(final int maxParallelProbes) {
+		if (maxParallelProbes < 1) {
+			throw new IllegalArgumentException("The maximum number of parallel probes must be greater than 0");
+		}
+		this.maxParallelProbes = maxParallelProbes;
+	}
+
+	/**
+	 * Enables or disables version negotiation for OWS types. All versions of a service type
+	 * are first evaluated on one GetCapabilities response without version parameters, which
+	 * servers answer with their highest supported version. The version specific requests are
+	 * only sent if no type could be detected. URIs that already request a version, like the URIs
+	 * of the types detected by URI, are not negotiated. Enabled by default, can be changed with the system property
+	 * 'etf.stdtot.probe.negotiate'.
+	 *
+	 * @param versionNegotiation true to enable version negotiation
+	 */
+	public void setVersionNegotiation(final boolean versionNegotiation) {
+		this.versionNegotiation = versionNegotiation;
+	}
+
+	/**
+	 * Replaces the cache for detected types of remote resources. The cache is keyed by the
+	 * normalized URI and the expected types, results of resources with credentials are not
+	 * cached. By default 1000 results are cached for 15 minutes,
+	 * which can be changed with the system properties 'etf.stdtot.cache.size' and
+	 * 'etf.stdtot.cache.ttl' (in seconds).
+	 *
+	 * @param maximumSize maximum number of cached results, 0 disables the cache
+	 * @param timeToLive time after which a result is evicted
+	 * @param unit unit of the time to live
+	 */
+	public void setResultCache(final long maximumSize, final long timeToLive, final TimeUnit unit) {
+		this.resultCache = new DetectionResultCache(maximumSize, timeToLive, unit);
+	}
+
+	/**
+	 * Returns the hit, miss and eviction counters of the cache for detected types
+	 *
+	 * @return statistics since the creation of the cache
+	 */
+	public CacheStats getResultCacheStats() {
+		return resultCache.stats();
+	}
+
+	/**
+	 * Replaces the cache for normalized remote resources that could not be requested, or
+	 * that did not match any of the evaluated types. These resources are not requested again
+	 * until the outcome is evicted. By default 1000 outcomes are cached, unreachable resources
+	 * for 30 seconds and resources without matching type for 2 minutes, which can be changed
+	 * with the system properties 'etf.stdtot.negativecache.size',
+	 * 'etf.stdtot.negativecache.unreachable.ttl' and 'etf.stdtot.negativecache.nomatch.ttl'
+	 * (in seconds).
+	 *
+	 * @param maximumSize maximum number of cached outcomes, 0 disables the cache
+	 * @param unreachableTimeToLive time after which an unreachable resource is requested again
+	 * @param noMatchTimeToLive time after which a resource without matching type is requested again
+	 * @param unit unit of the times to live
+	 */
+	public void setNegativeCache(final long maximumSize, final long unreachableTimeToLive,
+			final long noMatchTimeToLive, final TimeUnit unit) {
+		this.negativeCache = new NegativeProbeCache(maximumSize, unreachableTimeToLive, noMatchTimeToLive, unit);
+	}
+
+	/**
+	 * Returns the hit, miss and eviction counters of the cache for unreachable resources and
+	 * resources without matching type
+	 *
+	 * @return statistics since the creation of the cache
+	 */
+	public CacheStats getNegativeCacheStats() {
+		return negativeCache.stats();
+	}
+
+	/**
+	 * Enables or disables the virtual thread execution mode. In this mode, the probes of
+	 * remote resources and the samples of local directories are processed on virtual threads,
+	 * each probe and each sample in its own thread. Outstanding tasks of a detection are cancelled when the
+	 * detection completes. Disabled by default, can be enabled with the system property
+	 * 'etf.stdtot.virtualthreads'. If the Java runtime does not support virtual threads,
+	 * the classic blocking execution is used.
+	 *
+	 * @param virtualThreadExecution true to use virtual threads
+	 * @throws IllegalStateException if virtual threads are not supported by the Java runtime
+	 */
+	public void setVirtualThreadExecution(final boolean virtualThreadExecution) {
+		if (virtualThreadExecution && !DetectionExecutors.isVirtualThreadSupported()) {
+			throw new IllegalStateException("Virtual threads are not supported by the Java runtime");
+		}
+		this.virtualThreadExecution = virtualThreadExecution;
+	}
+
+	private ExecutorService getVirtualThreadExecutor() {
+		return virtualThreadExecution ? DetectionExecutors.sharedVirtualThreadExecutor() : null;
+	}
+
+	private static HostGuard createHostGuard() {
+		if (System.getProperty("etf.stdtot.host.maxinflight") == null
+				&& System.getProperty("etf.stdtot.host.rate") == null
+				&& System.getProperty("etf.stdtot.host.failures") == null
+				&& System.getProperty("etf.stdtot.host.cooldown") == null) {
+			return null;
+		}
+		return new HostGuard(
+				Integer.getInteger("etf.stdtot.host.maxinflight", 4),
+				Double.parseDouble(System.getProperty("etf.stdtot.host.rate", "10")),
+				Integer.getInteger("etf.stdtot.host.failures", 3),
+				Long.getLong("etf.stdtot.host.cooldown", 30), TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Limits the requests to one host. Each host has a maximum number of requests in flight
+	 * and a maximum request rate. After repeated timeouts, requests to the host fail fast for
+	 * the open duration.
+	 *
+	 * The requests are not limited by default. The limits are also enabled if one of the system
+	 * properties 'etf.stdtot.host.maxinflight', 'etf.stdtot.host.rate', 'etf.stdtot.host.failures'
+	 * or 'etf.stdtot.host.cooldown' (in seconds) is set. Unset properties default to 4 requests
+	 * in flight, 10 requests per second and a circuit that opens for 30 seconds after 3
+	 * consecutive timeouts.
+	 *
+	 * @param maxInFlight maximum number of requests in flight per host
+	 * @param requestsPerSecond maximum request rate per host
+	 * @param failureThreshold number of consecutive timeouts that open the circuit
+	 * @param openDuration time in which requests fail fast
+	 * @param unit unit of the open duration
+	 */
+	public void setHostLimits(final int maxInFlight, final double requestsPerSecond, final int failureThreshold,
+			final long openDuration, final TimeUnit unit) {
+		this.hostGuard = new HostGuard(maxInFlight, requestsPerSecond, failureThreshold, openDuration, unit);
+	}
+
+	/**
+	 * Returns the request metrics and the circuit state of all hosts that have been
+	 * requested in the last hour
+	 *
+	 * @return metrics by host name, empty if the requests are not limited
+	 */
+	public Map<String, HostProbeMetrics> getHostMetrics() {
+		final HostGuard guard = this.hostGuard;
+		return guard != null ? guard.metrics() : Collections.emptyMap();
+	}
+
+	/**
+	 * Enables or disables hedged requests. The time to the first byte of the responses is
+	 * measured per host. If a request has not received its first byte within the given latency
+	 * percentile of its host, a duplicate request is sent and the first response is used.
+	 * Hosts are only hedged after 20 measured requests. A duplicate request is only sent if
+	 * the host limits allow another request immediately, the slower request is aborted.
+	 * Disabled by default, can be enabled with the system
+	 * property 'etf.stdtot.hedge.percentile'.
+	 *
+	 * @param percentile latency percentile between 0 and 1, e.g. 0.95, or 0 to disable hedging
+	 */
+	public void setRequestHedging(final double percentile) {
+		this.requestHedging = new RequestHedging(percentile);
+	}
+
+	/**
+	 * Sets the limits for reading a remote resource. If a response exceeds the maximum number of
+	 * bytes, if no byte is received within the read timeout or if the total timeout elapses,
+	 * the request is aborted and the resource is undecided. As documents are only read until
+	 * all expressions are resolved, valid documents rarely reach these limits. By default 64 MiB,
+	 * a read timeout of 30 seconds and a total timeout of 2 minutes are used, which can be changed
+	 * with the system properties 'etf.stdtot.fetch.maxbytes', 'etf.stdtot.fetch.readtimeout' and
+	 * 'etf.stdtot.fetch.totaltimeout' (in seconds).
+	 *
+	 * @param maxBytes maximum number of bytes read from a response
+	 * @param readTimeout maximum time between two received bytes
+	 * @param totalTimeout maximum time for reading a response
+	 * @param unit unit of the timeouts
+	 */
+	public void setFetchLimits(final long maxBytes, final long readTimeout, final long totalTimeout,
+			final TimeUnit unit) {
+		this.fetchLimits = new FetchLimits(maxBytes, readTimeout, totalTimeout, unit);
+	}
+
+	/**
+	 * Sets the size of the first HTTP range request for remote files. Static files, i.e. URIs
+	 * without query and with a file extension, and resources on hosts that answered range
+	 * requests before, are requested in ranges. Only the first range is requested, a further
+	 * range of twice the size is requested only if the detection needs more bytes. Servers that
+	 * do not support ranges return the complete file, which is read until the detection is
+	 * decided. By default 64 KiB are requested first, which can be changed with the system
+	 * property 'etf.stdtot.fetch.range'.
+	 *
+	 * @param initialRangeSize number of bytes of the first range or 0 to disable range requests
+	 */
+	public void setRangeRequests(final int initialRangeSize) {
+		this.remoteFetch = new RemoteFetch(initialRangeSize, remoteFetch.isCompression());
+	}
+
+	/**
+	 * Enables or disables compressed responses. Remote resources that are not requested in
+	 * ranges are requested with gzip or deflate compression and decompressed while they are
+	 * parsed, without buffering the response. Enabled by default, can be disabled with the
+	 * system property 'etf.stdtot.fetch.compression'.
+	 *
+	 * @param compression true if compressed responses are requested
+	 */
+	public void setCompressedTransfer(final boolean compression) {
+		this.remoteFetch = new RemoteFetch(remoteFetch.getInitialRangeSize(), compression);
+	}
+
+	private static ForkJoinPool createSamplePool(final int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("The parallelism must be at least 1");
+		}
+		return parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+	}
+
+	/**
+	 * Sets the number of samples of a local directory that are parsed in parallel. The samples
+	 * are parsed in a fork join pool and merged in sample order, so the same type is detected as
+	 * with sequential parsing. Outstanding samples are cancelled as soon as the type with the
+	 * highest priority or types for all expressions have been detected. If virtual thread
+	 * execution is enabled, each sample is parsed in its own virtual thread instead. By default
+	 * up to 7 samples are parsed in parallel, depending on the number of processors, which can
+	 * be changed with the system property 'etf.stdtot.samples.parallel'.
+	 *
+	 * @param parallelism number of samples parsed in parallel, 1 to parse them sequentially
+	 */
+	public void setSampleParallelism(final int parallelism) {
+		// idle workers of the previous pool terminate, running detections may still submit samples
+		this.samplePool = createSamplePool(parallelism);
+	}
+
+	/**
+	 * Replaces the executor in which the samples of a local directory are parsed
+	 *
+	 * @param executor executor for the samples or null to parse them sequentially
+	 */
+	void setSampleExecutor(final ExecutorService executor) {
+		this.samplePool = executor;
+	}
+
+	/**
+	 * Sets the limits for drawing the samples of a local directory. The directory is walked
+	 * once and the samples are drawn while walking, without listing all files first. The walk
+	 * stops after the maximum number of files and directories or the maximum time, the samples
+	 * are then drawn from the visited part of the directory. By default 100000 entries and 5
+	 * seconds are used, which can be changed with the system properties
+	 * 'etf.stdtot.samples.maxentries' and 'etf.stdtot.samples.maxtime' (in milliseconds).
+	 *
+	 * @param maxEntries maximum number of visited files and directories
+	 * @param maxTime maximum time of a walk
+	 * @param unit unit of the maximum time
+	 */
+	public void setSampleWalkLimits(final long maxEntries, final long maxTime, final TimeUnit unit) {
+		this.sampleWalker = new SampleWalker(6, maxEntries, maxTime, unit);
+	}
+
+	/**
+	 * Replaces the store for fetched bodies. If enabled, the rest of the response is read and
+	 * stored after the type of a remote resource has been detected, so that downstream consumers
+	 * can open it with {@link #openNormalizedResource(DetectedTestObjectType)} without requesting
+	 * the resource again. Bodies of resources with credentials are not stored. As this reads
+	 * responses beyond the part that is needed for the
+	 * detection, the store should only be enabled if the consumers use it. Files requested in
+	 * ranges are not stored. Bodies are kept in memory up to the memory limit and otherwise
+	 * spilled to temporary files. They are evicted after the time to live or if the maximum size
+	 * is exceeded, a single body may use a quarter of the maximum size. Disabled by default, can
+	 * be enabled with the system properties 'etf.stdtot.bodystore.size', 'etf.stdtot.bodystore.memory'
+	 * (16 MiB by default) and 'etf.stdtot.bodystore.ttl' (in seconds, 10 minutes by default).
+	 *
+	 * @param maxMemoryBytes maximum number of bytes kept in memory
+	 * @param maxBytes maximum number of bytes of all stored bodies, 0 disables the store
+	 * @param timeToLive time after which a body is evicted
+	 * @param unit unit of the time to live
+	 */
+	public void setBodyStore(final long maxMemoryBytes, final long maxBytes, final long timeToLive,
+			final TimeUnit unit) {
+		final BodyStore previous = this.bodyStore;
+		this.bodyStore = new BodyStore(maxMemoryBytes, maxBytes, timeToLive, unit);
+		previous.invalidateAll();
+	}
+
+	private static RevalidationCache createRevalidationCache(final String directory, final long maxAgeSeconds) {
+		if (SUtils.isNullOrEmpty(directory)) {
+			return null;
+		}
+		try {
+			return new RevalidationCache(new File(directory), maxAgeSeconds, TimeUnit.SECONDS);
+		} catch (final IOException e) {
+			logger.error("Revalidation cache directory {} can not be used: {}", directory, e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Enables or disables the persistent revalidation cache. The validators (ETag and
+	 * Last-Modified) of each remote response in which a type has been detected are stored
+	 * together with the detected type in the directory. Later requests for the same resource are
+	 * sent with If-None-Match and If-Modified-Since headers. If the server answers with 304 Not
+	 * Modified, the stored type is returned without transferring the resource. Resources with
+	 * credentials are not cached. Entries are not revalidated after the maximum age. Disabled by default, can be enabled with the system
+	 * properties 'etf.stdtot.revalidation.dir' and 'etf.stdtot.revalidation.maxage' (in seconds,
+	 * 30 days by default).
+	 *
+	 * @param directory cache directory or null to disable the cache
+	 * @param maxAge time after which an entry is requested unconditionally
+	 * @param unit unit of the maximum age
+	 * @throws IOException if the directory can not be created
+	 */
+	public void setRevalidationCache(final File directory, final long maxAge, final TimeUnit unit)
+			throws IOException {
+		this.revalidationCache = directory != null ? new RevalidationCache(directory, maxAge, unit) : null;
+	}
+
+	/**
+	 * Open the normalized resource of a detected type. If the body has been fetched during the
+	 * detection and is still stored, it is read from the store, otherwise the resource is
+	 * requested.
+	 *
+	 * @param detectedType detected type
+	 * @return stream of the normalized resource
+	 * @throws IOException if the resource can not be opened
+	 */
+	public InputStream openNormalizedResource(final DetectedTestObjectType detectedType) throws IOException {
+		if (detectedType instanceof StdDetectedTestObjectType) {
+			final InputStream storedBody = ((StdDetectedTestObjectType) detectedType).openStoredBody();
+			if (storedBody != null) {
+				return storedBody;
 			}
 		}
-		Collections.sort(detectionExpressions);
-		initialized = true;
+		return detectedType.getNormalizedResource().openStream();
 	}
 
 	@Override
 	public boolean isInitialized() {
-		return initialized;
+		return snapshot != null;
 	}
 
 	@Override
 	public void release() {
-		detectionExpressions.clear();
-		detectionExpressionsEidMap.clear();
-		initialized = false;
+		snapshot = null;
+		resultCache.invalidateAll();
+		negativeCache.invalidateAll();
+		bodyStore.invalidateAll();
 	}
 
-	private DetectedTestObjectType detectLocalFile(final XPathResults results,
-			final LocalResource resource, final List<CompiledDetectionExpression> expressions) {
-		for (final CompiledDetectionExpression detectionExpression : expressions) {
-			try {
-				final DetectedTestObjectType type = detectionExpression.getDetectedTestObjectType(
-						results, resource);
-				if (type != null) {
-					return type;
-				}
-			} catch (ClassCastException | XPathExpressionException e) {
-				logger.error("Could not evaluate XPath expression: ", e);
-			}
+	/**
+	 * Returns the engines that are used for a detection with the expected types
+	 *
+	 * @param expectedTypes expected Test Object Types
+	 * @return engines for the expected types or the default engines
+	 */
+	DetectionEnginePool getEngines(final Set<EID> expectedTypes) {
+		return getEngines(snapshot, expectedTypes);
+	}
+
+	/**
+	 * Returns the engines that only evaluate the expressions of the expected types
+	 *
+	 * @param currentSnapshot snapshot used for the detection
+	 * @param expectedTypes expected Test Object Types
+	 * @return engines for the expected types or the default engines
+	 */
+	private static DetectionEnginePool getEngines(final Snapshot currentSnapshot, final Set<EID> expectedTypes) {
+		final Set<EID> detectableTypes = new HashSet<>(expectedTypes);
+		detectableTypes.retainAll(currentSnapshot.defaultEngines.getDetectableTypes());
+		if (detectableTypes.isEmpty()
+				|| detectableTypes.size() == currentSnapshot.defaultEngines.getDetectableTypes().size()) {
+			return currentSnapshot.defaultEngines;
 		}
-		return null;
+		final DetectionEnginePool engines = currentSnapshot.scopedEngines.get(detectableTypes);
+		if (engines != null) {
+			return engines;
+		}
+		if (currentSnapshot.scopedEngines.size() >= MAX_SCOPED_ENGINES) {
+			currentSnapshot.scopedEngines.clear();
+		}
+		return currentSnapshot.scopedEngines.computeIfAbsent(Collections.unmodifiableSet(detectableTypes), types -> {
+			final List<TestObjectTypeDto> testObjectTypes = new ArrayList<>(types.size());
+			for (final EID type : types) {
+				testObjectTypes.add(StdTestObjectTypes.types.get(type));
+			}
+			return new DetectionEnginePool(testObjectTypes);
+		});
+	}
+
+	private DetectedTestObjectType detect(final DetectionEngine engine, final InputStream inputStream,
+			final Resource resource, final List<CompiledDetectionExpression> expressions)
+			throws IOException, XPathException {
+		return engine.detect(inputStream, resource, expressions, rootElementScanning, earlyAbortSniffing);
 	}
 
 	/**
@@ -136,19 +622,27 @@ public class StdTestObjectDetector implements TestObjectTypeDetector {
 	 * @return Test Object Type or null if unknown
 	 * @throws IOException if an error occurs accessing the files
 	 */
-	private DetectedTestObjectType detectInLocalDirFromSamples(final List<CompiledDetectionExpression> expressions,
+	private DetectedTestObjectType detectInLocalDirFromSamples(final DetectionEnginePool engines,
+			final DetectionEngine engine, final List<CompiledDetectionExpression> expressions,
 			final LocalResource localResource) throws IOException {
 		final IFile dir = localResource.getFile();
-		final List<IFile> files = dir.getFilesInDirRecursive(GmlAndXmlFilter.instance().filename(), 6, false);
-		if (files == null || files.size() == 0) {
+		final List<IFile> samples = sampleWalker.sample(dir, GmlAndXmlFilter.instance().filename(), 7);
+		if (samples.isEmpty()) {
 			return null;
 		}
+		final ExecutorService virtualThreadExecutor = getVirtualThreadExecutor();
+		final ExecutorService sampleExecutor = virtualThreadExecutor != null ? virtualThreadExecutor : samplePool;
+		if (sampleExecutor != null && samples.size() > 1) {
+			return detectInSamplesConcurrently(sampleExecutor, engines, expressions, localResource, samples);
+		}
 		final TreeSet<DetectedTestObjectType> detectedTypes = new TreeSet<>();
-		for (final IFile sample : Sample.normalDistributed(files, 7)) {
-			try {
-				final InputStream inputStream = new FileInputStream(sample);
-				final DetectedTestObjectType detectedType = detectLocalFile(xmlDog.sniff(new InputSource(inputStream)),
-						localResource, expressions);
+		for (final IFile sample : samples) {
+			if (Thread.currentThread().isInterrupted()) {
+				// cancelled
+				return null;
+			}
+			try (final InputStream inputStream = new FileInputStream(sample)) {
+				final DetectedTestObjectType detectedType = detect(engine, inputStream, localResource, expressions);
 				if (detectedType != null) {
 					detectedTypes.add(detectedType);
 				}
@@ -167,57 +661,597 @@ public class StdTestObjectDetector implements TestObjectTypeDetector {
 	}
 
 	/**
+	 * Parse each sample in its own task. The results are merged in sample order, so the same
+	 * type is detected as with sequential parsing. Outstanding tasks are cancelled as soon as
+	 * the result can no longer change, when the detection returns or when it is interrupted.
 	 *
-	 * @param detectionExpression
-	 * @param resource
-	 * @return
+	 * @param executor executor for the tasks
+	 * @param engines pool for borrowing an engine in each task
+	 * @param expressions sorted expressions
+	 * @param localResource directory
+	 * @param samples sample files
+	 * @return Test Object Type with the highest priority or null if unknown
 	 */
-	private DetectedTestObjectType detectRemote(final CompiledDetectionExpression detectionExpression,
-			final CachedRemoteResource resource) {
+	private DetectedTestObjectType detectInSamplesConcurrently(final ExecutorService executor,
+			final DetectionEnginePool engines, final List<CompiledDetectionExpression> expressions,
+			final LocalResource localResource, final List<IFile> samples) {
+		final CompletionService<DetectedTestObjectType> completionService = new ExecutorCompletionService<>(executor);
+		final Map<Future<DetectedTestObjectType>, Integer> sampleIndexes = new HashMap<>();
+		final DetectedTestObjectType[] results = new DetectedTestObjectType[samples.size()];
+		final boolean[] completed = new boolean[samples.size()];
+		// stops parsers that can not be interrupted, like those in fork join pools
+		final AtomicBoolean cancelled = new AtomicBoolean();
+		try {
+			for (int i = 0; i < samples.size(); i++) {
+				final IFile sample = samples.get(i);
+				sampleIndexes.put(completionService.submit(() -> {
+					if (cancelled.get()) {
+						return null;
+					}
+					final DetectionEngine engine = engines.borrow();
+					try (final InputStream inputStream = new CancellableInputStream(new FileInputStream(sample),
+							cancelled)) {
+						return detect(engine, inputStream, localResource, engine.getExpressions(expressions));
+					} catch (final XPathException | IOException e) {
+						ExcUtils.suppress(e);
+						return null;
+					} finally {
+						engines.release(engine);
+					}
+				}), i);
+			}
+			int completedPrefix = 0;
+			final TreeSet<DetectedTestObjectType> detectedTypes = new TreeSet<>();
+			for (int pending = samples.size(); pending > 0; pending--) {
+				final Future<DetectedTestObjectType> future = completionService.take();
+				final int index = sampleIndexes.get(future);
+				try {
+					results[index] = future.get();
+				} catch (final ExecutionException | CancellationException e) {
+					ExcUtils.suppress(e);
+				}
+				completed[index] = true;
+				// merge the completed samples in sample order
+				while (completedPrefix < samples.size() && completed[completedPrefix]) {
+					if (results[completedPrefix] != null) {
+						detectedTypes.add(results[completedPrefix]);
+					}
+					completedPrefix++;
+					if (detectedTypes.size() >= expressions.size() || (!detectedTypes.isEmpty()
+							&& ((StdDetectedTestObjectType) detectedTypes.first()).getPriority() <= expressions.get(0)
+									.getPriority())) {
+						// types for all expressions or the type with the highest priority detected
+						return detectedTypes.first();
+					}
+				}
+			}
+			return detectedTypes.isEmpty() ? null : detectedTypes.first();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} finally {
+			cancelled.set(true);
+			for (final Future<DetectedTestObjectType> future : sampleIndexes.keySet()) {
+				future.cancel(true);
+			}
+		}
+	}
+
+	/**
+	 * Stream of a sample that fails as soon as the detection is cancelled
+	 */
+	private static final class CancellableInputStream extends FilterInputStream {
+		private final AtomicBoolean cancelled;
+
+		private CancellableInputStream(final InputStream in, final AtomicBoolean cancelled) {
+			super(in);
+			this.cancelled = cancelled;
+		}
+
+		private void checkCancelled() throws InterruptedIOException {
+			if (cancelled.get()) {
+				throw new InterruptedIOException("Detection cancelled");
+			}
+		}
+
+		@Override
+		public int read() throws IOException {
+			checkCancelled();
+			return super.read();
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+			checkCancelled();
+			return super.read(b, off, len);
+		}
+	}
+
+	/**
+	 * Fetch the normalized resource of a probe once and evaluate all expressions of the
+	 * probe on the response
+	 *
+	 * @param engine engine used by the current thread
+	 * @param probe request
+	 * @param expressions expressions of the probe, compiled by the engine
+	 * @param abort closes the connections of the probe if it is cancelled
+	 * @return the first matching type of the probe or null
+	 */
+	private DetectedTestObjectType detectRemote(final DetectionEngine engine, final RemoteProbe probe,
+			final List<CompiledDetectionExpression> expressions, final RequestAbort abort) {
+		final Resource normalizedResource = probe.getNormalizedResource();
+		final URI uri = normalizedResource.getUri().normalize();
+		final NegativeProbeCache cache = this.negativeCache;
+		final NegativeProbeCache.Outcome cachedOutcome = cache.get(uri, expressions);
+		if (cachedOutcome != null) {
+			logger.debug("Skipping request to {}: {}", uri, cachedOutcome);
+			return null;
+		}
+		DetectedTestObjectType detectedType = null;
+		HostGuard.Permit permit = null;
+		boolean timedOut = false;
+		BoundedInputStream boundedStream = null;
+		BodyStore.Recorder recorder = null;
+		final HostGuard guard = this.hostGuard;
+		// aborted by the probe or when the total timeout elapses before the response arrived
+		final RequestAbort fetchAbort = new RequestAbort();
 		try {
-			//
-			final Resource normalizedResource = detectionExpression.getNormalizedResource(resource);
-			return detectionExpression.getDetectedTestObjectType(
-					xmlDog.sniff(new InputSource(normalizedResource.openStream())), normalizedResource);
-		} catch (IOException | XPathException e) {
+			if (guard != null) {
+				permit = guard.acquire(uri);
+				if (permit == null) {
+					logger.debug("Skipping request to {}: circuit of the host is open", uri);
+					return null;
+				}
+			}
+			final long start = System.nanoTime();
+			abort.register(fetchAbort::abort);
+			final ExecutorService virtualThreadExecutor = getVirtualThreadExecutor();
+			final FetchLimits limits = this.fetchLimits;
+			final RemoteFetch fetch = this.remoteFetch;
+			final int timeoutMillis = (int) Math.min(Integer.MAX_VALUE, limits.unit.toMillis(limits.readTimeout));
+			// results of authenticated requests are not shared with other callers
+			final boolean authenticated = ResourceCredentials.isAuthenticated(normalizedResource);
+			// ranges of large files are not stored
+			final BodyStore store = this.bodyStore;
+			if (store.isEnabled() && !authenticated && !fetch.usesRanges(uri)) {
+				recorder = store.record();
+			}
+			final RevalidationCache revalidation = authenticated ? null : this.revalidationCache;
+			// the original request and a hedged duplicate use their own validators
+			final RevalidationCache.Validators[] attempts;
+			if (revalidation != null) {
+				final RevalidationCache.Validators validators = revalidation.validators(uri, expressions);
+				attempts = new RevalidationCache.Validators[]{validators, validators.forAttempt()};
+			} else {
+				attempts = null;
+			}
+			final ScheduledFuture<?> deadline = BoundedInputStream.abortAfter(fetchAbort, limits.totalTimeout,
+					limits.unit);
+			final RequestHedging.Response response;
+			try {
+				response = requestHedging.open(normalizedResource,
+						(r, attempt, attemptAbort) -> fetch.open(r, timeoutMillis,
+								attempts != null ? attempts[attempt] : null, attemptAbort),
+						virtualThreadExecutor != null ? virtualThreadExecutor : probeExecutor,
+						guard, fetchAbort);
+			} finally {
+				deadline.cancel(false);
+			}
+			final RevalidationCache.Validators validators = attempts != null ? attempts[response.getAttempt()] : null;
+			try (final InputStream inputStream = boundedStream = new BoundedInputStream(
+					record(recorder, response.getStream()), fetchAbort,
+					limits.maxBytes, limits.readTimeout, limits.totalTimeout, limits.unit, start)) {
+				if (validators != null && validators.isNotModified()) {
+					logger.debug("{} not modified, using the previously detected type", uri);
+					return validators.getStoredType();
+				}
+				detectedType = detect(engine, inputStream, normalizedResource, expressions);
+				if (detectedType != null && recorder != null) {
+					detectedType = storeBody(store, recorder, inputStream, probe,
+							(StdDetectedTestObjectType) detectedType);
+				}
+				if (revalidation != null) {
+					if (detectedType != null) {
+						revalidation.put(uri, expressions, validators, (StdDetectedTestObjectType) detectedType);
+					} else {
+						revalidation.remove(uri);
+					}
+				}
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (final BoundedInputStream.LimitExceededException e) {
+			// neither unreachable nor without matching type
+			timedOut = boundedStream != null && boundedStream.isReadTimeoutExceeded();
+			logger.info("Detection of {} undecided: {}", uri, e.getMessage());
+			return null;
+		} catch (final IOException e) {
+			if (fetchAbort.isAborted() && !abort.isAborted()) {
+				// no response within the total timeout
+				timedOut = true;
+				logger.info("Detection of {} undecided: total timeout exceeded before the response", uri);
+				return null;
+			}
+			timedOut = e instanceof SocketTimeoutException;
+			// other failures, like inconsistent ranges or unsupported encodings, do not make a host unreachable
+			if (isNetworkFailure(e) && !Thread.currentThread().isInterrupted() && !abort.isAborted()) {
+				cache.putUnreachable(uri);
+			}
+			if (abort.isAborted()) {
+				logger.debug("Request to {} cancelled", uri);
+				return null;
+			}
+			logger.error("Error occurred during Test Object Type detection ", e);
+			return null;
+		} catch (final XPathException e) {
 			logger.error("Error occurred during Test Object Type detection ", e);
+		} finally {
+			if (recorder != null) {
+				recorder.discard();
+			}
+			if (permit != null) {
+				permit.release(timedOut);
+			}
+		}
+		if (detectedType == null && !Thread.currentThread().isInterrupted() && !abort.isAborted()) {
+			// not cached if a parallel probe has been cancelled
+			cache.putNoMatch(uri, expressions);
+		}
+		return detectedType;
+	}
+
+	/**
+	 * Returns true if the host could not be resolved, connected or did not answer in time
+	 */
+	private static boolean isNetworkFailure(final IOException e) {
+		return e instanceof SocketTimeoutException || e instanceof SocketException
+				|| e instanceof UnknownHostException;
+	}
+
+	private static InputStream record(final BodyStore.Recorder recorder, final InputStream inputStream) {
+		return recorder != null ? recorder.tee(inputStream) : inputStream;
+	}
+
+	/**
+	 * Read the rest of a response whose type has been detected and store its body for
+	 * downstream consumers. The body is stored under the URI of the normalized resource that
+	 * the probe finally returns, which is the version specific request for version negotiating
+	 * probes. The detected type is kept if the body can not be stored.
+	 */
+	private static DetectedTestObjectType storeBody(final BodyStore store, final BodyStore.Recorder recorder,
+			final InputStream inputStream, final RemoteProbe probe, final StdDetectedTestObjectType detectedType) {
+		try {
+			recorder.readFully(inputStream);
+		} catch (final IOException e) {
+			logger.debug("Body of {} not stored: {}", detectedType.getNormalizedResource().getUri(), e.getMessage());
+			recorder.discard();
+			return detectedType;
+		}
+		recorder.commit(probe.getResultResource(detectedType).getUri());
+		return recorder.isDiscarded() ? detectedType : detectedType.withBodyStore(store);
+	}
+
+	/**
+	 * Request the normalized resources of the probes with a bounded number of parallel
+	 * requests. The requests are started in priority order and the results are evaluated in
+	 * priority order, so that the same type is detected as with sequential requests.
+	 *
+	 * @param engines pool for borrowing an engine in each probing thread
+	 * @param probes probes of all expressions in priority order
+	 * @param maxProbes maximum number of parallel requests
+	 * @return detected type or null
+	 */
+	private DetectedTestObjectType detectRemoteInParallel(final DetectionEnginePool engines,
+			final Map<CompiledDetectionExpression, RemoteProbe> probes, final int maxProbes) {
+		final List<RemoteProbe> distinctProbes = new ArrayList<>(new LinkedHashSet<>(probes.values()));
+		final Map<RemoteProbe, Future<DetectedTestObjectType>> futures = new HashMap<>();
+		// blocking reads ignore interrupts, the connections of cancelled probes are closed
+		final List<RequestAbort> aborts = new ArrayList<>();
+		final ExecutorService virtualThreadExecutor = getVirtualThreadExecutor();
+		final ExecutorService executor = virtualThreadExecutor != null ? virtualThreadExecutor : probeExecutor;
+		int nextProbe = 0;
+		try {
+			for (final Map.Entry<CompiledDetectionExpression, RemoteProbe> expressionProbe : probes.entrySet()) {
+				final RemoteProbe probe = expressionProbe.getValue();
+				if (!probe.isEvaluated()) {
+					// start the requests for this and the following probes
+					while (nextProbe < distinctProbes.size()
+							&& (!futures.containsKey(probe) || countRunning(futures.values()) < maxProbes)) {
+						final RemoteProbe startedProbe = distinctProbes.get(nextProbe++);
+						final RequestAbort abort = new RequestAbort();
+						aborts.add(abort);
+						futures.put(startedProbe, executor.submit(() -> {
+							final DetectionEngine engine = engines.borrow();
+							try {
+								return detectRemote(engine, startedProbe,
+										engine.getExpressions(startedProbe.getExpressions()), abort);
+							} finally {
+								engines.release(engine);
+							}
+						}));
+					}
+					try {
+						probe.setResult(futures.get(probe).get());
+					} catch (final ExecutionException e) {
+						logger.error("Error occurred during Test Object Type detection ", e.getCause());
+						probe.setResult(null);
+					}
+				}
+				final DetectedTestObjectType detectedType = probe.getResult(expressionProbe.getKey());
+				if (detectedType != null) {
+					return detectedType;
+				}
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			for (final Future<DetectedTestObjectType> future : futures.values()) {
+				future.cancel(true);
+			}
+			for (final RequestAbort abort : aborts) {
+				abort.abort();
+			}
 		}
 		return null;
 	}
 
-	private DetectedTestObjectType detectedType(final Resource resource,
-			final List<CompiledDetectionExpression> expressions) {
-		Collections.sort(expressions);
+	/**
+	 * Request the normalized resource of a probe on a virtual thread and wait for the result
+	 *
+	 * @param engines pool for borrowing an engine in the virtual thread
+	 * @param executor virtual thread executor
+	 * @param probe request
+	 * @return the first matching type of the probe or null
+	 */
+	private DetectedTestObjectType detectRemoteOnVirtualThread(final DetectionEnginePool engines,
+			final ExecutorService executor, final RemoteProbe probe) {
+		final RequestAbort abort = new RequestAbort();
+		final Future<DetectedTestObjectType> future = executor.submit(() -> {
+			final DetectionEngine engine = engines.borrow();
+			try {
+				return detectRemote(engine, probe, engine.getExpressions(probe.getExpressions()), abort);
+			} finally {
+				engines.release(engine);
+			}
+		});
+		try {
+			return future.get();
+		} catch (final InterruptedException e) {
+			future.cancel(true);
+			abort.abort();
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (final ExecutionException e) {
+			logger.error("Error occurred during Test Object Type detection ", e.getCause());
+			return null;
+		}
+	}
+
+	private static int countRunning(final Collection<Future<DetectedTestObjectType>> futures) {
+		int running = 0;
+		for (final Future<DetectedTestObjectType> future : futures) {
+			if (!future.isDone()) {
+				++running;
+			}
+		}
+		return running;
+	}
+
+	/**
+	 * Request the normalized resources of the probes and return the first detected type in
+	 * priority order
+	 *
+	 * @param engines pool for borrowing engines in parallel probing threads
+	 * @param engine engine used by the current thread
+	 * @param probes probes of all expressions in priority order
+	 * @return detected type or null
+	 */
+	private DetectedTestObjectType detectRemote(final DetectionEnginePool engines, final DetectionEngine engine,
+			final Map<CompiledDetectionExpression, RemoteProbe> probes) {
+		final int maxProbes = maxParallelProbes;
+		if (maxProbes > 1 && new HashSet<>(probes.values()).size() > 1) {
+			return detectRemoteInParallel(engines, probes, maxProbes);
+		}
+		final ExecutorService virtualThreadExecutor = getVirtualThreadExecutor();
+		for (final Map.Entry<CompiledDetectionExpression, RemoteProbe> expressionProbe : probes.entrySet()) {
+			final RemoteProbe probe = expressionProbe.getValue();
+			if (!probe.isEvaluated()) {
+				if (Thread.currentThread().isInterrupted()) {
+					// cancelled
+					return null;
+				}
+				probe.setResult(virtualThreadExecutor != null
+						? detectRemoteOnVirtualThread(engines, virtualThreadExecutor, probe)
+						: detectRemote(engine, probe, probe.getExpressions(), new RequestAbort()));
+			}
+			// all expressions of a probe are evaluated on the first request, but
+			// expressions of other probes may have a higher priority
+			final DetectedTestObjectType detectedType = probe.getResult(expressionProbe.getKey());
+			if (detectedType != null) {
+				return detectedType;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns true if the URI already requests a version, either with a version parameter or as
+	 * known by the URI detection expression of a type. The version is not negotiated then.
+	 */
+	private static boolean isVersionPinned(final List<CompiledDetectionExpression> expressions, final URI uri) {
+		final String query = uri.getRawQuery();
+		if (query != null) {
+			for (final String parameter : query.split("&")) {
+				final int separator = parameter.indexOf('=');
+				final String name = separator < 0 ? parameter : parameter.substring(0, separator);
+				if ("VERSION".equalsIgnoreCase(name) || "ACCEPTVERSIONS".equalsIgnoreCase(name)) {
+					return true;
+				}
+			}
+		}
+		for (final CompiledDetectionExpression expression : expressions) {
+			if (expression.isUriKnown(uri)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private DetectedTestObjectType detectedType(final DetectionEnginePool engines, final DetectionEngine engine,
+			final Resource resource, final List<CompiledDetectionExpression> expressions) {
 
 		// detect remote type
 		if (resource instanceof RemoteResource) {
-			final CachedRemoteResource cachedResource = Resource.toCached((RemoteResource) resource);
-			for (final CompiledDetectionExpression expression : expressions) {
-				final DetectedTestObjectType detectedType = detectRemote(expression, cachedResource);
+			// the responses are streamed into the parser, not cached
+			final RemoteResource remoteResource = (RemoteResource) resource;
+			List<CompiledDetectionExpression> versionSpecificExpressions = expressions;
+			if (versionNegotiation && !isVersionPinned(expressions, remoteResource.getUri())) {
+				final DetectedTestObjectType detectedType = detectRemote(engines, engine,
+						RemoteProbe.groupVersionNegotiating(expressions, remoteResource));
 				if (detectedType != null) {
 					return detectedType;
 				}
+				// ambiguous or unknown answer, probe the versions one by one. Expressions without
+				// version parameters have already been evaluated on the same request.
+				versionSpecificExpressions = new ArrayList<>();
+				for (final CompiledDetectionExpression expression : expressions) {
+					if (expression.isVersionNegotiable()) {
+						versionSpecificExpressions.add(expression);
+					}
+				}
 			}
+			return detectRemote(engines, engine, RemoteProbe.group(versionSpecificExpressions, remoteResource));
 		} else {
 			try {
-				return detectInLocalDirFromSamples(expressions, (LocalResource) resource);
+				return detectInLocalDirFromSamples(engines, engine, expressions, (LocalResource) resource);
 			} catch (IOException ign) {
 				ExcUtils.suppress(ign);
 				return null;
 			}
 		}
-		return null;
 	}
 
 	@Override
 	public DetectedTestObjectType detectType(final Resource resource, final Set<EID> expectedTypes) {
+		return detectCached(resource, Objects.requireNonNull(expectedTypes));
+	}
+
+	/**
+	 * Detect the type of a resource asynchronously. Cached results are returned immediately,
+	 * otherwise the requests to the resource, the parsing and the evaluation of the expressions
+	 * are executed by the executor. Cancelling the returned future interrupts the detection,
+	 * no further requests are sent after a cancellation.
+	 *
+	 * @param resource resource
+	 * @param expectedTypes expected types
+	 * @param executor executor for the detection
+	 * @return future detected type, completed with null if no type could be detected
+	 */
+	public CompletableFuture<DetectedTestObjectType> detectTypeAsync(final Resource resource,
+			final Set<EID> expectedTypes, final Executor executor) {
+		Objects.requireNonNull(expectedTypes);
+		final CancellableDetection<DetectedTestObjectType> detection = new CancellableDetection<>();
+		if (resource instanceof RemoteResource && resource.getUri() != null
+				&& !ResourceCredentials.isAuthenticated(resource)) {
+			final DetectedTestObjectType cachedType = resultCache.get(
+					new DetectionResultCache.Key(resource, expectedTypes));
+			if (cachedType != null) {
+				detection.complete(cachedType);
+				return detection;
+			}
+		}
+		try {
+			executor.execute(() -> {
+				try {
+					final DetectedTestObjectType detectedType = detection.run(
+							() -> detectCached(resource, expectedTypes));
+					detection.complete(detectedType);
+				} catch (final RuntimeException | Error e) {
+					detection.completeExceptionally(e);
+				}
+			});
+		} catch (final RejectedExecutionException e) {
+			detection.completeExceptionally(e);
+		}
+		return detection;
+	}
+
+	/**
+	 * Detect the types of many resources in parallel. The number of parallel detections is
+	 * bounded in total and per host. Results are passed to the result listener of the options
+	 * as soon as the detection of a resource completes.
+	 *
+	 * @param resources resources
+	 * @param expectedTypes expected types or null for all types
+	 * @param options parallelism, threads and result listener
+	 * @return future that completes when all resources have been detected, cancelling it
+	 * stops the detection
+	 */
+	public CompletableFuture<Void> detectTypes(final Collection<Resource> resources, final Set<EID> expectedTypes,
+			final DetectionBatchOptions options) {
+		return new DetectionBatch(resources, options, resource -> detectCached(resource, expectedTypes)).start();
+	}
+
+	/**
+	 * Detect the type of a resource. Results of remote resources are cached and concurrent
+	 * detections of the same resource with the same expected types are coalesced. Resources
+	 * with credentials are neither cached nor coalesced, as the result of one caller must not
+	 * be returned to callers with other credentials.
+	 *
+	 * @param resource resource
+	 * @param expectedTypes expected types or null for all types
+	 * @return detected type or null, also if the detector has not been initialized
+	 */
+	private DetectedTestObjectType detectCached(final Resource resource, final Set<EID> expectedTypes) {
+		final Snapshot currentSnapshot = this.snapshot;
+		if (currentSnapshot == null) {
+			return null;
+		}
+		if (resource.getUri() == null || ResourceCredentials.isAuthenticated(resource)) {
+			return detectUncached(currentSnapshot, resource, expectedTypes);
+		}
+		final DetectionResultCache.Key key = new DetectionResultCache.Key(resource, expectedTypes);
+		if (!(resource instanceof RemoteResource)) {
+			return inFlightDetections.execute(key, () -> detectUncached(currentSnapshot, resource, expectedTypes));
+		}
+		final DetectionResultCache cache = this.resultCache;
+		final DetectedTestObjectType cachedType = cache.get(key);
+		if (cachedType != null) {
+			return cachedType;
+		}
+		return inFlightDetections.execute(key, () -> {
+			final DetectedTestObjectType detectedType = detectUncached(currentSnapshot, resource, expectedTypes);
+			if (detectedType != null) {
+				cache.put(key, detectedType);
+			}
+			return detectedType;
+		});
+	}
+
+	private DetectedTestObjectType detectUncached(final Snapshot currentSnapshot, final Resource resource,
+			final Set<EID> expectedTypes) {
+		final DetectionEnginePool engines = expectedTypes != null ? getEngines(currentSnapshot, expectedTypes)
+				: currentSnapshot.defaultEngines;
+		final DetectionEngine engine = engines.borrow();
+		try {
+			if (expectedTypes == null) {
+				return detectedType(engines, engine, resource, engine.getExpressions());
+			}
+			return detectType(engines, engine, resource, expectedTypes);
+		} finally {
+			engines.release(engine);
+		}
+	}
 
+	private DetectedTestObjectType detectType(final DetectionEnginePool engines, final DetectionEngine engine,
+			final Resource resource, final Set<EID> expectedTypes) {
 		// Types that can be detected by URI
 		final List<CompiledDetectionExpression> uriDetectionCandidates = new ArrayList<>();
 		// All others
 		final List<CompiledDetectionExpression> expressionsForExpectedTypes = new ArrayList<>();
 		for (final EID expectedType : expectedTypes) {
-			final CompiledDetectionExpression detectionExpression = detectionExpressionsEidMap.get(expectedType);
+			final CompiledDetectionExpression detectionExpression = engine.getExpression(expectedType);
 			if (detectionExpression != null) {
 				if (detectionExpression.isUriKnown(resource.getUri())) {
 					uriDetectionCandidates.add(detectionExpression);
@@ -226,15 +1260,18 @@ public class StdTestObjectDetector implements TestObjectTypeDetector {
 				}
 			}
 		}
+		// local lists, the shared expression lists of the engines are never sorted
+		Collections.sort(uriDetectionCandidates);
+		Collections.sort(expressionsForExpectedTypes);
 		if (!uriDetectionCandidates.isEmpty()) {
 			// Test Object types could be detected by URI
-			final DetectedTestObjectType detectedType = detectedType(resource, uriDetectionCandidates);
+			final DetectedTestObjectType detectedType = detectedType(engines, engine, resource, uriDetectionCandidates);
 			if (detectedType != null) {
 				return detectedType;
 			}
 		}
 		// Test Object types could not be identified by URI
-		final DetectedTestObjectType detectedType = detectedType(resource, expressionsForExpectedTypes);
+		final DetectedTestObjectType detectedType = detectedType(engines, engine, resource, expressionsForExpectedTypes);
 		if (detectedType != null) {
 			return detectedType;
 		}
@@ -245,6 +1282,6 @@ public class StdTestObjectDetector implements TestObjectTypeDetector {
 
 	@Override
 	public DetectedTestObjectType detectType(final Resource resource) {
-		return detectedType(resource, detectionExpressions);
+		return detectCached(resource, null);
 	}
 }
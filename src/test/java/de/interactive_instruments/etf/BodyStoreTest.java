@@ -0,0 +1,183 @@
+/**
+ * Copyright 2017 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+public class BodyStoreTest {
+
+	private static final URI URI_1 = URI.create("http://example.com/wfs?SERVICE=WFS");
+
+	private static byte[] body(final int size) {
+		final byte[] body = new byte[size];
+		for (int i = 0; i < size; i++) {
+			body[i] = (byte) i;
+		}
+		return body;
+	}
+
+	private static byte[] readAll(final InputStream in) throws IOException {
+		try (final InputStream stream = in) {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[8192];
+			for (int read = stream.read(buffer); read != -1; read = stream.read(buffer)) {
+				out.write(buffer, 0, read);
+			}
+			return out.toByteArray();
+		}
+	}
+
+	// records the body, the parser reads only the first bytes
+	private static BodyStore.Recorder record(final BodyStore store, final byte[] body) throws IOException {
+		final BodyStore.Recorder recorder = store.record();
+		final InputStream in = recorder.tee(new ByteArrayInputStream(body));
+		assertEquals(body[0] & 0xFF, in.read());
+		in.read(new byte[10], 0, 10);
+		recorder.readFully(in);
+		return recorder;
+	}
+
+	private static long countBodyFiles() throws IOException {
+		long count = 0;
+		try (final DirectoryStream<Path> files = Files.newDirectoryStream(
+				Paths.get(System.getProperty("java.io.tmpdir")), "etf-stdtot-body-*")) {
+			for (final Path ignored : files) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	@Test
+	public void testDisabled() {
+		assertFalse(new BodyStore(0, 0, 1, TimeUnit.HOURS).isEnabled());
+		assertTrue(new BodyStore(0, 1024, 1, TimeUnit.HOURS).isEnabled());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidLimits() {
+		new BodyStore(-1, 1024, 1, TimeUnit.HOURS);
+	}
+
+	@Test
+	public void testMemory() throws IOException {
+		final BodyStore store = new BodyStore(1024 * 1024, 16 * 1024 * 1024, 1, TimeUnit.HOURS);
+		final byte[] body = body(1000);
+		final BodyStore.Recorder recorder = record(store, body);
+		assertNull(store.open(URI_1));
+		recorder.commit(URI.create("http://example.com/a/../wfs?SERVICE=WFS"));
+		assertFalse(recorder.isDiscarded());
+		// keyed by the normalized URI
+		assertArrayEquals(body, readAll(store.open(URI_1)));
+		assertArrayEquals(body, readAll(store.open(URI_1)));
+
+		store.invalidateAll();
+		assertNull(store.open(URI_1));
+	}
+
+	@Test
+	public void testSpillToFile() throws IOException, InterruptedException {
+		final BodyStore store = new BodyStore(1024 * 1024, 16 * 1024 * 1024, 1, TimeUnit.HOURS);
+		final long files = countBodyFiles();
+		final byte[] body = body(1024 * 1024);
+		record(store, body).commit(URI_1);
+		assertEquals(files + 1, countBodyFiles());
+		assertArrayEquals(body, readAll(store.open(URI_1)));
+
+		// evicted files are deleted
+		store.invalidateAll();
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (countBodyFiles() > files) {
+			assertTrue(System.nanoTime() < deadline);
+			Thread.sleep(10);
+		}
+		assertNull(store.open(URI_1));
+	}
+
+	@Test
+	public void testMemoryLimit() throws IOException {
+		// small bodies are written to files if the memory limit is exceeded
+		final BodyStore store = new BodyStore(0, 16 * 1024 * 1024, 1, TimeUnit.HOURS);
+		final byte[] body = body(1000);
+		record(store, body).commit(URI_1);
+		assertArrayEquals(body, readAll(store.open(URI_1)));
+		store.invalidateAll();
+	}
+
+	@Test
+	public void testEntryLimit() throws IOException {
+		final BodyStore store = new BodyStore(1024, 4000, 1, TimeUnit.HOURS);
+		final BodyStore.Recorder recorder = record(store, body(1001));
+		assertTrue(recorder.isDiscarded());
+		recorder.commit(URI_1);
+		assertNull(store.open(URI_1));
+
+		record(store, body(1000)).commit(URI_1);
+		assertNotNull(store.open(URI_1));
+	}
+
+	@Test
+	public void testDiscard() throws IOException {
+		final BodyStore store = new BodyStore(1024, 4000, 1, TimeUnit.HOURS);
+		final BodyStore.Recorder recorder = store.record();
+		final InputStream in = recorder.tee(new ByteArrayInputStream(body(100)));
+		in.read(new byte[10]);
+		recorder.discard();
+		assertTrue(recorder.isDiscarded());
+		recorder.commit(URI_1);
+		assertNull(store.open(URI_1));
+
+		// skipped bytes can not be recorded
+		final BodyStore.Recorder skipped = store.record();
+		skipped.tee(new ByteArrayInputStream(body(100))).skip(10);
+		assertTrue(skipped.isDiscarded());
+
+		// no effect after the commit
+		final BodyStore.Recorder committed = record(store, body(100));
+		committed.commit(URI_1);
+		committed.discard();
+		assertFalse(committed.isDiscarded());
+		assertNotNull(store.open(URI_1));
+	}
+
+	@Test
+	public void testTimeToLive() throws IOException, InterruptedException {
+		final BodyStore store = new BodyStore(1024, 4000, 50, TimeUnit.MILLISECONDS);
+		record(store, body(100)).commit(URI_1);
+		Thread.sleep(200);
+		assertNull(store.open(URI_1));
+	}
+}
@@ -0,0 +1,188 @@
+/**
+ * Copyright 2017 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+public class BoundedInputStreamTest {
+
+	/**
+	 * Sends one byte after every delay, a read blocks until the stream is disconnected if the delay
+	 * is negative
+	 */
+	private static final class SlowInputStream extends InputStream {
+		private final long delayMillis;
+		private final CountDownLatch disconnected = new CountDownLatch(1);
+		private volatile boolean closed;
+
+		private SlowInputStream(final long delayMillis) {
+			this.delayMillis = delayMillis;
+		}
+
+		@Override
+		public int read() throws IOException {
+			try {
+				if (delayMillis < 0 ? disconnected.await(10, TimeUnit.SECONDS)
+						: disconnected.await(delayMillis, TimeUnit.MILLISECONDS)) {
+					throw new IOException("Connection closed");
+				}
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException(e);
+			}
+			return 'a';
+		}
+
+		// closes the connection of the stream like a RequestAbort
+		private void disconnect() {
+			disconnected.countDown();
+		}
+
+		@Override
+		public void close() {
+			closed = true;
+			disconnect();
+		}
+	}
+
+	private static BoundedInputStream bounded(final InputStream in, final long maxBytes, final long readTimeout,
+			final long totalTimeout) {
+		return new BoundedInputStream(in, new RequestAbort(), maxBytes, readTimeout, totalTimeout,
+				TimeUnit.MILLISECONDS, System.nanoTime());
+	}
+
+	private static BoundedInputStream bounded(final SlowInputStream in, final long maxBytes, final long readTimeout,
+			final long totalTimeout) throws IOException {
+		final RequestAbort abort = new RequestAbort();
+		abort.register(in::disconnect);
+		return new BoundedInputStream(in, abort, maxBytes, readTimeout, totalTimeout,
+				TimeUnit.MILLISECONDS, System.nanoTime());
+	}
+
+	@Test
+	public void testWithinLimits() throws IOException {
+		try (final BoundedInputStream in = bounded(new ByteArrayInputStream(new byte[10]), 100, 10000, 10000)) {
+			final byte[] buffer = new byte[100];
+			assertEquals(10, in.read(buffer, 0, buffer.length));
+			assertEquals(-1, in.read(buffer, 0, buffer.length));
+			assertEquals(-1, in.read());
+			assertFalse(in.markSupported());
+		}
+	}
+
+	@Test
+	public void testMaxBytes() throws IOException {
+		try (final BoundedInputStream in = bounded(new ByteArrayInputStream(new byte[10]), 4, 10000, 10000)) {
+			final byte[] buffer = new byte[10];
+			assertEquals(3, in.read(buffer, 0, 3));
+			// only the remaining byte is read
+			assertEquals(1, in.read(buffer, 0, buffer.length));
+			try {
+				in.read();
+				fail("LimitExceededException expected");
+			} catch (final BoundedInputStream.LimitExceededException e) {
+				assertFalse(in.isReadTimeoutExceeded());
+			}
+		}
+	}
+
+	@Test(expected = BoundedInputStream.LimitExceededException.class)
+	public void testSkipIsCounted() throws IOException {
+		try (final BoundedInputStream in = bounded(new ByteArrayInputStream(new byte[10]), 4, 10000, 10000)) {
+			assertEquals(4, in.skip(10));
+			in.read();
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void testReadTimeout() throws IOException {
+		final SlowInputStream slowStream = new SlowInputStream(-1);
+		final BoundedInputStream in = bounded(slowStream, 100, 300, 10000);
+		try {
+			in.read();
+			fail("LimitExceededException expected");
+		} catch (final BoundedInputStream.LimitExceededException e) {
+			assertEquals("read timeout exceeded", e.getMessage());
+			assertTrue(in.isReadTimeoutExceeded());
+			// the watchdog only aborts the request, the stream is closed by the reading thread
+			assertFalse(slowStream.closed);
+		} finally {
+			in.close();
+		}
+		assertTrue(slowStream.closed);
+	}
+
+	@Test(timeout = 10000)
+	public void testTotalTimeout() throws IOException {
+		// every read is faster than the read timeout
+		try (final BoundedInputStream in = bounded(new SlowInputStream(20), 10000, 5000, 500)) {
+			final long start = System.nanoTime();
+			try {
+				while (true) {
+					in.read();
+				}
+			} catch (final BoundedInputStream.LimitExceededException e) {
+				assertFalse(in.isReadTimeoutExceeded());
+				assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(500));
+			}
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void testTotalTimeoutFromStart() throws IOException {
+		// the request has been sent before the stream was created
+		final SlowInputStream slowStream = new SlowInputStream(-1);
+		final RequestAbort abort = new RequestAbort();
+		abort.register(slowStream::disconnect);
+		try (final BoundedInputStream in = new BoundedInputStream(slowStream, abort, 100, 5000, 500,
+				TimeUnit.MILLISECONDS, System.nanoTime() - TimeUnit.SECONDS.toNanos(1))) {
+			in.read();
+			fail("LimitExceededException expected");
+		} catch (final BoundedInputStream.LimitExceededException e) {
+			assertEquals("total timeout exceeded", e.getMessage());
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void testAbortAfter() throws InterruptedException {
+		final RequestAbort abort = new RequestAbort();
+		BoundedInputStream.abortAfter(abort, 50, TimeUnit.MILLISECONDS);
+		final RequestAbort cancelled = new RequestAbort();
+		final ScheduledFuture<?> deadline = BoundedInputStream.abortAfter(cancelled, 50, TimeUnit.MILLISECONDS);
+		assertTrue(deadline.cancel(false));
+		while (!abort.isAborted()) {
+			Thread.sleep(10);
+		}
+		Thread.sleep(100);
+		assertFalse(cancelled.isAborted());
+	}
+}
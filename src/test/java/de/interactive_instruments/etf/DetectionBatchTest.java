@@ -0,0 +1,117 @@
+/**
+ * Copyright 2017 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf;
+
+import static org.junit.Assert.*;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import de.interactive_instruments.etf.model.capabilities.Resource;
+
+/**
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+public class DetectionBatchTest {
+
+	private static List<Resource> resources(final int count) {
+		final List<Resource> resources = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			resources.add(Resource.create("r" + i, URI.create("http://host" + (i % 3) + ".example/r" + i)));
+		}
+		return resources;
+	}
+
+	@Test(timeout = 10000)
+	public void testEmptyBatch() throws Exception {
+		new DetectionBatch(Collections.emptyList(), new DetectionBatchOptions(), resource -> null)
+				.start().get();
+	}
+
+	@Test(timeout = 10000)
+	public void testCompletesWhenDetectionsThrow() throws Exception {
+		final List<Resource> results = Collections.synchronizedList(new ArrayList<>());
+		final DetectionBatchOptions options = new DetectionBatchOptions().setParallelism(2).setMaxPerHost(1)
+				.setResultListener((resource, detectedType) -> {
+					assertNull(detectedType);
+					results.add(resource);
+				});
+		new DetectionBatch(resources(10), options, resource -> {
+			throw new IllegalStateException("detection failed");
+		}).start().get(5, TimeUnit.SECONDS);
+		assertEquals(10, results.size());
+	}
+
+	@Test(timeout = 10000)
+	public void testCompletesWhenListenerThrows() throws Exception {
+		final DetectionBatchOptions options = new DetectionBatchOptions().setParallelism(2)
+				.setResultListener((resource, detectedType) -> {
+					throw new IllegalStateException("listener failed");
+				});
+		new DetectionBatch(resources(10), options, resource -> null).start().get(5, TimeUnit.SECONDS);
+	}
+
+	@Test(timeout = 10000)
+	public void testResourcesWithoutHostAreQueuedSeparately() throws Exception {
+		final List<Resource> resources = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			resources.add(Resource.create("d" + i, URI.create("file:///data/d" + i)));
+		}
+		// all detections must run at the same time
+		final CountDownLatch running = new CountDownLatch(3);
+		final AtomicInteger parallel = new AtomicInteger();
+		final DetectionBatchOptions options = new DetectionBatchOptions().setParallelism(3).setMaxPerHost(1);
+		new DetectionBatch(resources, options, resource -> {
+			running.countDown();
+			try {
+				if (running.await(5, TimeUnit.SECONDS)) {
+					parallel.incrementAndGet();
+				}
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return null;
+		}).start().get(8, TimeUnit.SECONDS);
+		assertEquals(3, parallel.get());
+	}
+
+	@Test(timeout = 10000)
+	public void testFailsOnError() throws Exception {
+		final CompletableFuture<Void> completion = new DetectionBatch(resources(5),
+				new DetectionBatchOptions().setParallelism(1), resource -> {
+					throw new AssertionError("fatal");
+				}).start();
+		try {
+			completion.get(5, TimeUnit.SECONDS);
+			fail("Error not propagated");
+		} catch (final ExecutionException e) {
+			assertTrue(e.getCause() instanceof AssertionError);
+		}
+	}
+}
@@ -0,0 +1,148 @@
+/**
+ * Copyright 2017 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import de.interactive_instruments.etf.dal.dto.capabilities.TestObjectTypeDto;
+import de.interactive_instruments.etf.model.EidFactory;
+import de.interactive_instruments.etf.model.ExpressionType;
+
+/**
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+public class DetectionDecisionTreeTest {
+
+	private static final String WFS_2_0_ID = "9b6ef734-981e-4d60-aa81-d6730a1c6389";
+	private static final String WFS_1_1_ID = "bc6384f3-2652-4c7b-bc45-20cec488ecd0";
+	private static final String WFS_1_0_ID = "8a560e6a-043f-42ca-b0a3-31b115899593";
+	private static final String MEMBERS_ID = "2f6e1a1c-0c7d-4c36-9f2a-6a0b1d7e8c11";
+
+	private static DetectionEngine stdEngine;
+	private static DetectionEngine engine;
+
+	@BeforeClass
+	public static void setUp() {
+		stdEngine = new DetectionEngine(StdTestObjectTypes.types.values(), true);
+
+		// a type that can not be decided with the root element
+		final TestObjectTypeDto members = new TestObjectTypeDto();
+		members.setLabel("Documents with members");
+		members.setId(EidFactory.getDefault().createAndPreserveStr(MEMBERS_ID));
+		members.setDescription("Test type");
+		members.setDetectionExpression("boolean(//*[local-name() = 'member'])", ExpressionType.XPATH);
+		final List<TestObjectTypeDto> types = new ArrayList<>(StdTestObjectTypes.types.values());
+		types.add(members);
+		engine = new DetectionEngine(types, true);
+	}
+
+	private static CompiledDetectionExpression expression(final DetectionEngine engine, final String id) {
+		return engine.getExpression(EidFactory.getDefault().createAndPreserveStr(id));
+	}
+
+	private static DetectionDecisionTree.Decision decide(final DetectionEngine engine, final String document)
+			throws IOException {
+		final RootElementScanner.ScannedElement rootElement = RootElementScanner.scan(
+				new ByteArrayInputStream(document.getBytes(StandardCharsets.UTF_8)));
+		assertNotNull(rootElement);
+		return new DetectionDecisionTree(engine.getExpressions()).decide(rootElement, null);
+	}
+
+	@Test
+	public void testDetectsVersion() throws IOException {
+		final DetectionDecisionTree.Decision wfs20 = decide(stdEngine,
+				"<wfs:WFS_Capabilities xmlns:wfs=\"http://www.opengis.net/wfs/2.0\" version=\"2.0.0\">");
+		assertTrue(wfs20.isDecided());
+		assertSame(expression(stdEngine, WFS_2_0_ID), wfs20.getDetected());
+
+		final DetectionDecisionTree.Decision wfs11 = decide(stdEngine,
+				"<WFS_Capabilities xmlns=\"http://www.opengis.net/wfs\" version=\"1.1.0\">");
+		assertTrue(wfs11.isDecided());
+		assertSame(expression(stdEngine, WFS_1_1_ID), wfs11.getDetected());
+		assertTrue(wfs11.getCandidates().contains(expression(stdEngine, WFS_1_0_ID)));
+
+		final DetectionDecisionTree.Decision wfs10 = decide(stdEngine,
+				"<WFS_Capabilities xmlns=\"http://www.opengis.net/wfs\" version=\"1.0.0\">");
+		assertSame(expression(stdEngine, WFS_1_0_ID), wfs10.getDetected());
+	}
+
+	@Test
+	public void testNoMatch() throws IOException {
+		final DetectionDecisionTree.Decision unknownVersion = decide(stdEngine,
+				"<WFS_Capabilities xmlns=\"http://www.opengis.net/wfs\" version=\"0.9.0\">");
+		assertTrue(unknownVersion.isDecided());
+		assertNull(unknownVersion.getDetected());
+		assertFalse(unknownVersion.getCandidates().isEmpty());
+
+		final DetectionDecisionTree.Decision unknownName = decide(stdEngine, "<unknown/>");
+		assertTrue(unknownName.isDecided());
+		assertNull(unknownName.getDetected());
+		assertTrue(unknownName.getCandidates().isEmpty());
+	}
+
+	@Test
+	public void testUndecided() throws IOException {
+		// the members expression has a lower priority than WFS 2.0
+		final DetectionDecisionTree.Decision wfs20 = decide(engine,
+				"<wfs:WFS_Capabilities xmlns:wfs=\"http://www.opengis.net/wfs/2.0\" version=\"2.0.0\">");
+		assertTrue(wfs20.isDecided());
+		assertSame(expression(engine, WFS_2_0_ID), wfs20.getDetected());
+
+		// but must be evaluated with the whole document if no other expression is true
+		final DetectionDecisionTree.Decision unknownVersion = decide(engine,
+				"<WFS_Capabilities xmlns=\"http://www.opengis.net/wfs\" version=\"0.9.0\">");
+		assertFalse(unknownVersion.isDecided());
+		assertNull(unknownVersion.getDetected());
+		assertTrue(unknownVersion.getCandidates().contains(expression(engine, MEMBERS_ID)));
+
+		final DetectionDecisionTree.Decision unknownName = decide(engine, "<unknown/>");
+		assertFalse(unknownName.isDecided());
+		assertEquals(Collections.singletonList(expression(engine, MEMBERS_ID)), unknownName.getCandidates());
+	}
+
+	@Test
+	public void testScope() throws IOException {
+		final RootElementScanner.ScannedElement rootElement = RootElementScanner.scan(new ByteArrayInputStream(
+				"<wfs:WFS_Capabilities xmlns:wfs=\"http://www.opengis.net/wfs/2.0\" version=\"2.0.0\">"
+						.getBytes(StandardCharsets.UTF_8)));
+		final DetectionDecisionTree tree = new DetectionDecisionTree(engine.getExpressions());
+
+		final DetectionDecisionTree.Decision outOfScope = tree.decide(rootElement,
+				Collections.singletonList(expression(engine, WFS_1_1_ID)));
+		assertTrue(outOfScope.isDecided());
+		assertNull(outOfScope.getDetected());
+		assertTrue(outOfScope.getCandidates().isEmpty());
+
+		final DetectionDecisionTree.Decision inScope = tree.decide(rootElement,
+				Collections.singletonList(expression(engine, MEMBERS_ID)));
+		assertFalse(inScope.isDecided());
+		assertEquals(Collections.singletonList(expression(engine, MEMBERS_ID)), inScope.getCandidates());
+	}
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright 2017 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import de.interactive_instruments.etf.dal.dto.capabilities.TestObjectTypeDto;
+import de.interactive_instruments.etf.model.EID;
+import de.interactive_instruments.etf.model.EidFactory;
+import de.interactive_instruments.etf.model.ExpressionType;
+
+/**
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+public class DetectionEnginePoolTest {
+
+	private static final EID WFS_2_0_ID = EidFactory.getDefault()
+			.createAndPreserveStr("9b6ef734-981e-4d60-aa81-d6730a1c6389");
+	// parent type without detection expression
+	private static final EID WFS_ID = EidFactory.getDefault()
+			.createAndPreserveStr("db12feeb-0086-4006-bc74-28f4fdef0171");
+	private static final EID INVALID_ID = EidFactory.getDefault()
+			.createAndPreserveStr("5c0b3bd4-7f4e-4a4c-9d1a-3f3f0d6e2a10");
+
+	@Test
+	public void testDetectableTypes() {
+		final TestObjectTypeDto invalid = new TestObjectTypeDto();
+		invalid.setLabel("Invalid");
+		invalid.setId(INVALID_ID);
+		invalid.setDescription("Test type");
+		// not a boolean expression
+		invalid.setDetectionExpression("/*/@version", ExpressionType.XPATH);
+		final List<TestObjectTypeDto> types = new ArrayList<>(StdTestObjectTypes.types.values());
+		types.add(invalid);
+
+		final DetectionEnginePool pool = new DetectionEnginePool(types);
+		assertTrue(pool.getDetectableTypes().contains(WFS_2_0_ID));
+		assertFalse(pool.getDetectableTypes().contains(WFS_ID));
+		assertFalse(pool.getDetectableTypes().contains(INVALID_ID));
+		assertNull(pool.borrow().getExpression(INVALID_ID));
+	}
+
+	@Test
+	public void testEnginesAreReused() {
+		final DetectionEnginePool pool = new DetectionEnginePool(StdTestObjectTypes.types.values());
+		final DetectionEngine first = pool.borrow();
+		// the engine is used exclusively
+		final DetectionEngine second = pool.borrow();
+		assertNotSame(first, second);
+		assertEquals(first.getExpressions().size(), second.getExpressions().size());
+
+		pool.release(first);
+		assertSame(first, pool.borrow());
+	}
+}
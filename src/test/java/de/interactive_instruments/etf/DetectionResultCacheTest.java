@@ -0,0 +1,119 @@
+/**
+ * Copyright 2017 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf;
+
+import static org.junit.Assert.*;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import de.interactive_instruments.etf.detector.DetectedTestObjectType;
+import de.interactive_instruments.etf.model.EID;
+import de.interactive_instruments.etf.model.EidFactory;
+import de.interactive_instruments.etf.model.capabilities.Resource;
+
+/**
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+public class DetectionResultCacheTest {
+
+	private static final EID WFS_2_0_ID = EidFactory.getDefault()
+			.createAndPreserveStr("9b6ef734-981e-4d60-aa81-d6730a1c6389");
+	private static final EID WFS_1_1_ID = EidFactory.getDefault()
+			.createAndPreserveStr("bc6384f3-2652-4c7b-bc45-20cec488ecd0");
+
+	private static Resource resource(final String uri) {
+		return Resource.create("test", URI.create(uri));
+	}
+
+	private static DetectedTestObjectType detected(final Resource resource) {
+		return new DetectionEngine(StdTestObjectTypes.types.values(), true).getExpression(WFS_2_0_ID)
+				.getDetectedTestObjectType(resource);
+	}
+
+	@Test
+	public void testKeyIsNormalized() {
+		final DetectionResultCache.Key key = new DetectionResultCache.Key(
+				resource("http://example.com/a/../wfs?SERVICE=WFS"), null);
+		assertEquals(URI.create("http://example.com/wfs?SERVICE=WFS"), key.getUri());
+		assertEquals(key, new DetectionResultCache.Key(resource("http://example.com/wfs?SERVICE=WFS"), null));
+	}
+
+	@Test
+	public void testKeyDependsOnExpectedTypes() {
+		final Resource resource = resource("http://example.com/wfs?SERVICE=WFS");
+		final DetectionResultCache.Key all = new DetectionResultCache.Key(resource, null);
+		final DetectionResultCache.Key both = new DetectionResultCache.Key(resource,
+				new LinkedHashSet<>(Arrays.asList(WFS_2_0_ID, WFS_1_1_ID)));
+		final DetectionResultCache.Key reversed = new DetectionResultCache.Key(resource,
+				new LinkedHashSet<>(Arrays.asList(WFS_1_1_ID, WFS_2_0_ID)));
+		final DetectionResultCache.Key one = new DetectionResultCache.Key(resource, Collections.singleton(WFS_2_0_ID));
+		assertEquals(both, reversed);
+		assertEquals(both.hashCode(), reversed.hashCode());
+		assertNotEquals(all, both);
+		assertNotEquals(both, one);
+		assertNotEquals(all, new DetectionResultCache.Key(resource, Collections.emptySet()));
+	}
+
+	@Test
+	public void testKeyCopiesExpectedTypes() {
+		final HashSet<EID> expectedTypes = new HashSet<>(Collections.singleton(WFS_2_0_ID));
+		final DetectionResultCache.Key key = new DetectionResultCache.Key(
+				resource("http://example.com/wfs?SERVICE=WFS"), expectedTypes);
+		final int hashCode = key.hashCode();
+		expectedTypes.add(WFS_1_1_ID);
+		assertEquals(hashCode, key.hashCode());
+		assertEquals(key, new DetectionResultCache.Key(resource("http://example.com/wfs?SERVICE=WFS"),
+				Collections.singleton(WFS_2_0_ID)));
+	}
+
+	@Test
+	public void testPutAndGet() {
+		final DetectionResultCache cache = new DetectionResultCache(100, 1, TimeUnit.HOURS);
+		final Resource resource = resource("http://example.com/wfs?SERVICE=WFS");
+		final DetectionResultCache.Key key = new DetectionResultCache.Key(resource, null);
+		assertNull(cache.get(key));
+		final DetectedTestObjectType detectedType = detected(resource);
+		cache.put(key, detectedType);
+		assertSame(detectedType, cache.get(new DetectionResultCache.Key(resource, null)));
+		assertNull(cache.get(new DetectionResultCache.Key(resource, Collections.singleton(WFS_2_0_ID))));
+		assertEquals(1, cache.stats().hitCount());
+		assertEquals(2, cache.stats().missCount());
+
+		cache.invalidateAll();
+		assertNull(cache.get(key));
+	}
+
+	@Test
+	public void testTimeToLive() throws InterruptedException {
+		final DetectionResultCache cache = new DetectionResultCache(100, 50, TimeUnit.MILLISECONDS);
+		final Resource resource = resource("http://example.com/wfs?SERVICE=WFS");
+		final DetectionResultCache.Key key = new DetectionResultCache.Key(resource, null);
+		cache.put(key, detected(resource));
+		Thread.sleep(200);
+		assertNull(cache.get(key));
+	}
+}
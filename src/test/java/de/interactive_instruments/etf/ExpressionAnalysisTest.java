@@ -0,0 +1,154 @@
+/**
+ * Copyright 2017 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+public class ExpressionAnalysisTest {
+
+	private static final String WFS_2_0 = "boolean(/*[local-name() = 'WFS_Capabilities' and "
+			+ "namespace-uri() = 'http://www.opengis.net/wfs/2.0'])";
+
+	private static final String WFS_1_1 = "boolean(/*[local-name() = 'WFS_Capabilities' and "
+			+ "namespace-uri() = 'http://www.opengis.net/wfs' and starts-with(@version, '1.1') ])";
+
+	private static final String OWS_LABEL = "/*/*[local-name() = 'ServiceIdentification' or "
+			+ "local-name() = 'Service' ][1]/*[local-name() = 'Title'][1]/text()";
+
+	private static final String METADATA = "boolean(/*[(local-name() = 'GetRecordsResponse' and "
+			+ "starts-with(namespace-uri(), 'http://www.opengis.net/cat/csw/')) or "
+			+ "(local-name() = 'MD_Metadata' and namespace-uri() = 'http://www.isotc211.org/2005/gmd')])";
+
+	private static final class TestElement implements ExpressionAnalysis.Element {
+		private final String namespaceUri;
+		private final String localName;
+		private final Map<String, String> attributes = new HashMap<>();
+
+		private TestElement(final String namespaceUri, final String localName) {
+			this.namespaceUri = namespaceUri;
+			this.localName = localName;
+		}
+
+		private TestElement attribute(final String name, final String value) {
+			attributes.put(name, value);
+			return this;
+		}
+
+		@Override
+		public String getNamespaceUri() {
+			return namespaceUri;
+		}
+
+		@Override
+		public String getLocalName() {
+			return localName;
+		}
+
+		@Override
+		public String getQName() {
+			return localName;
+		}
+
+		@Override
+		public String getAttribute(final String name) {
+			return attributes.get(name);
+		}
+	}
+
+	@Test
+	public void testRootElementExpression() {
+		final ExpressionAnalysis analysis = ExpressionAnalysis.analyze(WFS_2_0);
+		assertTrue(analysis.isAnalyzable());
+		assertTrue(analysis.isRootElementOnly());
+		assertEquals(1, analysis.getMaxDepth());
+		assertFalse(analysis.needsAttributes());
+		final List<String[]> keys = analysis.getRootNameKeys();
+		assertEquals(1, keys.size());
+		assertArrayEquals(new String[]{"http://www.opengis.net/wfs/2.0", "WFS_Capabilities"}, keys.get(0));
+
+		assertTrue(ExpressionAnalysis.evaluate(analysis.getRootCondition(),
+				new TestElement("http://www.opengis.net/wfs/2.0", "WFS_Capabilities")));
+		assertFalse(ExpressionAnalysis.evaluate(analysis.getRootCondition(),
+				new TestElement("http://www.opengis.net/wfs", "WFS_Capabilities")));
+	}
+
+	@Test
+	public void testAttributePredicate() {
+		final ExpressionAnalysis analysis = ExpressionAnalysis.analyze(WFS_1_1);
+		assertTrue(analysis.isRootElementOnly());
+		assertTrue(analysis.needsAttributes());
+		final TestElement element = new TestElement("http://www.opengis.net/wfs", "WFS_Capabilities");
+		assertFalse(ExpressionAnalysis.evaluate(analysis.getRootCondition(), element));
+		assertTrue(ExpressionAnalysis.evaluate(analysis.getRootCondition(), element.attribute("version", "1.1.0")));
+		assertFalse(ExpressionAnalysis.evaluate(analysis.getRootCondition(), element.attribute("version", "1.0.0")));
+	}
+
+	@Test
+	public void testAlternativeRootNames() {
+		final List<String[]> keys = ExpressionAnalysis.analyze(METADATA).getRootNameKeys();
+		assertEquals(2, keys.size());
+		// starts-with does not restrict the namespace of the key
+		assertArrayEquals(new String[]{null, "GetRecordsResponse"}, keys.get(0));
+		assertArrayEquals(new String[]{"http://www.isotc211.org/2005/gmd", "MD_Metadata"}, keys.get(1));
+	}
+
+	@Test
+	public void testNestedTextExpression() {
+		final ExpressionAnalysis analysis = ExpressionAnalysis.analyze(OWS_LABEL);
+		assertTrue(analysis.isAnalyzable());
+		assertFalse(analysis.isRootElementOnly());
+		assertEquals(3, analysis.getMaxDepth());
+		assertTrue(analysis.needsText());
+		// the first matching service element decides
+		assertEquals(1, analysis.getCompletionPosition());
+		assertTrue(ExpressionAnalysis.matches(analysis.getElementStep(2), new TestElement("", "Service")));
+		assertFalse(ExpressionAnalysis.matches(analysis.getElementStep(2), new TestElement("", "Contents")));
+		assertNull(analysis.getElementStep(4));
+	}
+
+	@Test
+	public void testUnsupportedExpression() {
+		final ExpressionAnalysis analysis = ExpressionAnalysis.analyze("count(//*[local-name() = 'member']) > 1");
+		assertFalse(analysis.isAnalyzable());
+		assertFalse(analysis.isRootElementOnly());
+		assertEquals(ExpressionAnalysis.UNBOUNDED, analysis.getMaxDepth());
+		assertNull(analysis.getSteps());
+		assertNull(analysis.getRootCondition());
+		assertEquals(1, analysis.getRootNameKeys().size());
+		assertArrayEquals(new String[]{null, null}, analysis.getRootNameKeys().get(0));
+	}
+
+	@Test
+	public void testElementValueRequiresSubtree() {
+		final ExpressionAnalysis analysis = ExpressionAnalysis.analyze(
+				"/*[local-name() = 'feed']/*[local-name() = 'title']");
+		assertTrue(analysis.isAnalyzable());
+		assertEquals(ExpressionAnalysis.UNBOUNDED, analysis.getMaxDepth());
+	}
+}
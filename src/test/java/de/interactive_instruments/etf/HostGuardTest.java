@@ -0,0 +1,138 @@
+/**
+ * Copyright 2017 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf;
+
+import static org.junit.Assert.*;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+public class HostGuardTest {
+
+	private static final URI URI_1 = URI.create("http://example.com/wfs");
+	private static final URI URI_2 = URI.create("http://EXAMPLE.com/wms");
+	private static final URI OTHER_HOST = URI.create("http://example.org/wfs");
+
+	private static HostProbeMetrics metrics(final HostGuard guard) {
+		return guard.metrics().get("example.com");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidLimits() {
+		new HostGuard(0, 1, 1, 1, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void testMaxInFlight() throws InterruptedException {
+		final HostGuard guard = new HostGuard(2, 1000, 3, 1, TimeUnit.MINUTES);
+		final HostGuard.Permit first = guard.acquire(URI_1);
+		final HostGuard.Permit second = guard.tryAcquire(URI_2);
+		assertNotNull(first);
+		assertNotNull(second);
+		assertEquals(2, metrics(guard).getInFlight());
+		// both URIs have the same host
+		assertNull(guard.tryAcquire(URI_1));
+		assertNotNull(guard.tryAcquire(OTHER_HOST));
+
+		first.release(false);
+		assertEquals(1, metrics(guard).getInFlight());
+		second.cancel();
+		assertEquals(0, metrics(guard).getInFlight());
+		assertEquals(2, metrics(guard).getRequests());
+		assertEquals(2, guard.metrics().size());
+	}
+
+	@Test
+	public void testRequestRate() throws InterruptedException {
+		final HostGuard guard = new HostGuard(1, 10, 3, 1, TimeUnit.MINUTES);
+		guard.acquire(URI_1).release(false);
+		// no token left
+		assertNull(guard.tryAcquire(URI_1));
+		assertEquals(0, metrics(guard).getInFlight());
+
+		final long start = System.nanoTime();
+		guard.acquire(URI_1).release(false);
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+		assertEquals(2, metrics(guard).getRequests());
+	}
+
+	@Test
+	public void testCircuitBreaker() throws InterruptedException {
+		final HostGuard guard = new HostGuard(4, 1000, 2, 100, TimeUnit.MILLISECONDS);
+		guard.acquire(URI_1).release(true);
+		assertEquals(HostProbeMetrics.CircuitState.CLOSED, metrics(guard).getCircuitState());
+		guard.acquire(URI_1).release(true);
+		assertEquals(HostProbeMetrics.CircuitState.OPEN, metrics(guard).getCircuitState());
+		assertEquals(2, metrics(guard).getConsecutiveTimeouts());
+		assertEquals(2, metrics(guard).getTimeouts());
+
+		// fail fast
+		assertNull(guard.acquire(URI_1));
+		assertNull(guard.tryAcquire(URI_1));
+		assertEquals(1, metrics(guard).getRejected());
+		assertNotNull(guard.acquire(OTHER_HOST));
+
+		Thread.sleep(150);
+		assertEquals(HostProbeMetrics.CircuitState.HALF_OPEN, metrics(guard).getCircuitState());
+		// no trial request with tryAcquire
+		assertNull(guard.tryAcquire(URI_1));
+		final HostGuard.Permit trial = guard.acquire(URI_1);
+		assertNotNull(trial);
+		// only one trial request
+		assertNull(guard.acquire(URI_1));
+		trial.release(false);
+		assertEquals(HostProbeMetrics.CircuitState.CLOSED, metrics(guard).getCircuitState());
+		assertEquals(0, metrics(guard).getConsecutiveTimeouts());
+		assertNotNull(guard.tryAcquire(URI_1));
+	}
+
+	@Test
+	public void testFailedTrial() throws InterruptedException {
+		final HostGuard guard = new HostGuard(4, 1000, 1, 50, TimeUnit.MILLISECONDS);
+		guard.acquire(URI_1).release(true);
+		Thread.sleep(100);
+		guard.acquire(URI_1).release(true);
+		assertEquals(HostProbeMetrics.CircuitState.OPEN, metrics(guard).getCircuitState());
+		assertNull(guard.acquire(URI_1));
+	}
+
+	@Test
+	public void testCancelledTrial() throws InterruptedException {
+		final HostGuard guard = new HostGuard(4, 1000, 1, 50, TimeUnit.MILLISECONDS);
+		guard.acquire(URI_1).release(true);
+		Thread.sleep(100);
+		final HostGuard.Permit trial = guard.acquire(URI_1);
+		assertNotNull(trial);
+		trial.cancel();
+		// the next request is a trial again, the cancelled trial is not counted as timeout
+		assertEquals(0, metrics(guard).getInFlight());
+		assertEquals(1, metrics(guard).getTimeouts());
+		assertEquals(HostProbeMetrics.CircuitState.HALF_OPEN, metrics(guard).getCircuitState());
+		final HostGuard.Permit nextTrial = guard.acquire(URI_1);
+		assertNotNull(nextTrial);
+		nextTrial.release(false);
+		assertEquals(HostProbeMetrics.CircuitState.CLOSED, metrics(guard).getCircuitState());
+	}
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright 2017 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+public class LatencyHistogramTest {
+
+	private static final long MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+	@Test
+	public void testMinSamples() {
+		final LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(-1, histogram.percentile(0.5, 0));
+		for (int i = 0; i < 19; i++) {
+			histogram.record(MILLI);
+		}
+		assertEquals(-1, histogram.percentile(0.5, 20));
+		histogram.record(MILLI);
+		assertTrue(histogram.percentile(0.5, 20) > 0);
+	}
+
+	@Test
+	public void testPercentile() {
+		final LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 0; i < 90; i++) {
+			histogram.record(MILLI);
+		}
+		for (int i = 0; i < 10; i++) {
+			histogram.record(100 * MILLI);
+		}
+		// upper bound of the bucket, at most a quarter power of two above the latency
+		final long p90 = histogram.percentile(0.9, 20);
+		assertTrue(p90 >= MILLI);
+		assertTrue(p90 <= 1.19 * MILLI);
+		final long p95 = histogram.percentile(0.95, 20);
+		assertTrue(p95 >= 100 * MILLI);
+		assertTrue(p95 <= 119 * MILLI);
+	}
+
+	@Test
+	public void testSmallLatencies() {
+		final LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(0);
+		histogram.record(-1);
+		assertTrue(histogram.percentile(1, 1) > 0);
+		assertTrue(histogram.percentile(1, 1) <= 2000);
+	}
+
+	@Test
+	public void testOldSamplesDecay() {
+		final LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 0; i < 1000; i++) {
+			histogram.record(100 * MILLI);
+		}
+		for (int i = 0; i < 3000; i++) {
+			histogram.record(MILLI);
+		}
+		assertTrue(histogram.percentile(0.9, 20) <= 1.19 * MILLI);
+	}
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright 2017 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf;
+
+import static org.junit.Assert.*;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+public class NegativeProbeCacheTest {
+
+	private static final URI URI_1 = URI.create("http://example.com/wfs?REQUEST=GetCapabilities&SERVICE=WFS");
+	private static final URI URI_2 = URI.create("http://example.com/wms?REQUEST=GetCapabilities&SERVICE=WMS");
+
+	private static List<CompiledDetectionExpression> expressions;
+
+	@BeforeClass
+	public static void setUp() {
+		expressions = new DetectionEngine(StdTestObjectTypes.types.values(), true).getExpressions();
+	}
+
+	@Test
+	public void testUnreachable() {
+		final NegativeProbeCache cache = new NegativeProbeCache(100, 1, 1, TimeUnit.HOURS);
+		assertNull(cache.get(URI_1, expressions));
+		cache.putUnreachable(URI_1);
+		// independent of the requested types
+		assertEquals(NegativeProbeCache.Outcome.UNREACHABLE, cache.get(URI_1, expressions));
+		assertEquals(NegativeProbeCache.Outcome.UNREACHABLE,
+				cache.get(URI_1, Collections.singletonList(expressions.get(0))));
+		assertNull(cache.get(URI_2, expressions));
+		assertEquals(2, cache.stats().hitCount());
+
+		cache.invalidateAll();
+		assertNull(cache.get(URI_1, expressions));
+	}
+
+	@Test
+	public void testNoMatchDependsOnTypes() {
+		final NegativeProbeCache cache = new NegativeProbeCache(100, 1, 1, TimeUnit.HOURS);
+		final List<CompiledDetectionExpression> subset = expressions.subList(0, 2);
+		cache.putNoMatch(URI_1, subset);
+		assertEquals(NegativeProbeCache.Outcome.NO_MATCH, cache.get(URI_1, subset));
+
+		// the order of the types does not matter
+		final List<CompiledDetectionExpression> reversed = new ArrayList<>(subset);
+		Collections.reverse(reversed);
+		assertEquals(NegativeProbeCache.Outcome.NO_MATCH, cache.get(URI_1, reversed));
+
+		// other types may match
+		assertNull(cache.get(URI_1, expressions));
+		assertNull(cache.get(URI_1, expressions.subList(0, 1)));
+		assertNull(cache.get(URI_2, subset));
+	}
+
+	@Test
+	public void testSeparateTimesToLive() throws InterruptedException {
+		final NegativeProbeCache cache = new NegativeProbeCache(100, 50, TimeUnit.HOURS.toMillis(1),
+				TimeUnit.MILLISECONDS);
+		cache.putUnreachable(URI_1);
+		cache.putNoMatch(URI_2, expressions);
+		Thread.sleep(200);
+		assertNull(cache.get(URI_1, expressions));
+		assertEquals(NegativeProbeCache.Outcome.NO_MATCH, cache.get(URI_2, expressions));
+	}
+
+	@Test
+	public void testUnreachableOverridesNoMatch() {
+		final NegativeProbeCache cache = new NegativeProbeCache(100, 1, 1, TimeUnit.HOURS);
+		cache.putNoMatch(URI_1, expressions);
+		cache.putUnreachable(URI_1);
+		assertEquals(NegativeProbeCache.Outcome.UNREACHABLE, cache.get(URI_1, expressions));
+	}
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright 2017 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+
+import javax.xml.xpath.XPathException;
+
+import jlibs.xml.DefaultNamespaceContext;
+import jlibs.xml.sax.dog.NodeItem;
+import jlibs.xml.sax.dog.XMLDog;
+import jlibs.xml.sax.dog.XPathResults;
+import jlibs.xml.sax.dog.expr.Expression;
+
+import org.jaxen.saxpath.SAXPathException;
+import org.junit.Test;
+
+/**
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+public class PrefixSnifferTest {
+
+	private static final String WFS_2_0 = "boolean(/*[local-name() = 'WFS_Capabilities' and "
+			+ "namespace-uri() = 'http://www.opengis.net/wfs/2.0'])";
+
+	private static final String OWS_LABEL = "/*/*[local-name() = 'ServiceIdentification' or "
+			+ "local-name() = 'Service' ][1]/*[local-name() = 'Title'][1]/text()";
+
+	private static final String CAPABILITIES = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+			+ "<wfs:WFS_Capabilities xmlns:wfs=\"http://www.opengis.net/wfs/2.0\" "
+			+ "xmlns:ows=\"http://www.opengis.net/ows/1.1\" version=\"2.0.0\">\n"
+			+ "<ows:ServiceIdentification><ows:Title>Cities &amp; Rivers</ows:Title></ows:ServiceIdentification>\n";
+
+	/**
+	 * Returns the document followed by a stream that fails if it is read
+	 */
+	private static InputStream prefixOnly(final String document) {
+		return new SequenceInputStream(new ByteArrayInputStream(document.getBytes(StandardCharsets.UTF_8)),
+				new InputStream() {
+					@Override
+					public int read() throws IOException {
+						throw new IOException("Read beyond the required prefix");
+					}
+				});
+	}
+
+	@Test
+	public void testEscape() {
+		assertEquals("plain", PrefixSniffer.escape("plain", true));
+		assertEquals("a &amp; &lt;b&gt; \"c\"", PrefixSniffer.escape("a & <b> \"c\"", false));
+		assertEquals("&quot;&#9;&#10;&#13;", PrefixSniffer.escape("\"\t\n\r", true));
+	}
+
+	@Test
+	public void testStopsAfterRootElement() throws SAXPathException, IOException, XPathException {
+		final XMLDog dog = new XMLDog(new DefaultNamespaceContext(), null, null);
+		final Expression detection = dog.addXPath(WFS_2_0);
+		final XPathResults results = PrefixSniffer.sniff(dog, prefixOnly(CAPABILITIES),
+				rootResults -> Collections.emptyList());
+		assertEquals(Boolean.TRUE, results.getResult(detection));
+	}
+
+	@Test
+	public void testStopsAfterPendingExpressions() throws SAXPathException, IOException, XPathException {
+		final XMLDog dog = new XMLDog(new DefaultNamespaceContext(), null, null);
+		final Expression detection = dog.addXPath(WFS_2_0);
+		final Expression label = dog.addXPath(OWS_LABEL);
+		// the rest of the document is never read
+		final XPathResults results = PrefixSniffer.sniff(dog, prefixOnly(CAPABILITIES + "<ows:Contents>"),
+				rootResults -> Collections.singletonList(ExpressionAnalysis.analyze(OWS_LABEL)));
+		assertEquals(Boolean.TRUE, results.getResult(detection));
+		final Collection<?> title = (Collection<?>) results.getResult(label);
+		assertEquals(1, title.size());
+		assertEquals("Cities & Rivers", ((NodeItem) title.iterator().next()).value);
+	}
+
+	@Test
+	public void testWholeDocumentForUnboundedExpressions() throws SAXPathException, IOException, XPathException {
+		final XMLDog dog = new XMLDog(new DefaultNamespaceContext(), null, null);
+		final String descendant = "boolean(//*[local-name() = 'FeatureTypeList'])";
+		final Expression expression = dog.addXPath(descendant);
+		final XPathResults results = PrefixSniffer.sniff(dog, new ByteArrayInputStream(
+				(CAPABILITIES + "<wfs:FeatureTypeList/></wfs:WFS_Capabilities>").getBytes(StandardCharsets.UTF_8)),
+				rootResults -> Collections.singletonList(ExpressionAnalysis.analyze(descendant)));
+		assertEquals(Boolean.TRUE, results.getResult(expression));
+	}
+
+	@Test(expected = XPathException.class)
+	public void testMalformedRequiredPart() throws SAXPathException, IOException, XPathException {
+		final XMLDog dog = new XMLDog(new DefaultNamespaceContext(), null, null);
+		dog.addXPath(OWS_LABEL);
+		PrefixSniffer.sniff(dog, new ByteArrayInputStream(("<Root><Service><Title>T</Service></Root>")
+				.getBytes(StandardCharsets.UTF_8)),
+				rootResults -> Collections.singletonList(ExpressionAnalysis.analyze(OWS_LABEL)));
+	}
+}
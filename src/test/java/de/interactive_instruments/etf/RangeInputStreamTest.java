@@ -0,0 +1,214 @@
+/**
+ * Copyright 2017 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+public class RangeInputStreamTest {
+
+	private static final String ETAG = "\"v1\"";
+
+	private final byte[] file = new byte[1000];
+	private final List<String> ranges = new CopyOnWriteArrayList<>();
+	private final List<String> ifRanges = new CopyOnWriteArrayList<>();
+	private HttpServer server;
+	private URI uri;
+
+	// ignore the range header
+	private volatile boolean ignoreRanges;
+	// answer with a range that does not start at the requested position
+	private volatile boolean shiftRanges;
+	// send an unknown length and 416 beyond the end
+	private volatile boolean unknownLength;
+	// answer the subsequent ranges with the complete file
+	private volatile boolean changed;
+
+	@Before
+	public void setUp() throws IOException {
+		for (int i = 0; i < file.length; i++) {
+			file[i] = (byte) i;
+		}
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/data.gml", this::handle);
+		server.createContext("/missing.gml", exchange -> {
+			exchange.sendResponseHeaders(404, -1);
+			exchange.close();
+		});
+		server.start();
+		uri = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/data.gml");
+	}
+
+	@After
+	public void tearDown() {
+		server.stop(0);
+	}
+
+	private void handle(final HttpExchange exchange) throws IOException {
+		final String range = exchange.getRequestHeaders().getFirst("Range");
+		ranges.add(range);
+		if (exchange.getRequestHeaders().getFirst("If-Range") != null) {
+			ifRanges.add(exchange.getRequestHeaders().getFirst("If-Range"));
+		}
+		exchange.getResponseHeaders().add("ETag", ETAG);
+		final String[] bounds = range.substring("bytes=".length()).split("-");
+		final int first = Integer.parseInt(bounds[0]);
+		final int last = Math.min(Integer.parseInt(bounds[1]), file.length - 1);
+		if (ignoreRanges || (changed && first > 0)) {
+			send(exchange, 200, file, 0, file.length);
+		} else if (first >= file.length) {
+			exchange.sendResponseHeaders(416, -1);
+			exchange.close();
+		} else {
+			final int shift = shiftRanges && first > 0 ? 1 : 0;
+			exchange.getResponseHeaders().add("Content-Range", "bytes " + (first + shift) + "-" + last + "/"
+					+ (unknownLength ? "*" : String.valueOf(file.length)));
+			send(exchange, 206, file, first + shift, last + 1);
+		}
+	}
+
+	private static void send(final HttpExchange exchange, final int status, final byte[] bytes, final int from,
+			final int to) throws IOException {
+		exchange.sendResponseHeaders(status, to - from);
+		try (final OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes, from, to - from);
+		}
+	}
+
+	private RangeInputStream open(final URI uri) throws IOException {
+		return RangeInputStream.open(
+				(range, ifRange) -> RemoteFetch.connect(uri, 5000, range, ifRange, null, null, null, new RequestAbort()),
+				100);
+	}
+
+	private static byte[] readAll(final InputStream in) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[64];
+		for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+			out.write(buffer, 0, read);
+		}
+		return out.toByteArray();
+	}
+
+	@Test
+	public void testPrefixOnly() throws IOException {
+		try (final RangeInputStream in = open(uri)) {
+			assertTrue(in.isPartial());
+			for (int i = 0; i < 100; i++) {
+				assertEquals(i, in.read());
+			}
+		}
+		assertEquals(Arrays.asList("bytes=0-99"), ranges);
+	}
+
+	@Test
+	public void testDoublingRanges() throws IOException {
+		try (final RangeInputStream in = open(uri)) {
+			assertArrayEquals(file, readAll(in));
+			assertEquals(-1, in.read());
+		}
+		assertEquals(Arrays.asList("bytes=0-99", "bytes=100-299", "bytes=300-699", "bytes=700-1499"), ranges);
+		assertEquals(Arrays.asList(ETAG, ETAG, ETAG), ifRanges);
+	}
+
+	@Test
+	public void testUnknownLength() throws IOException {
+		unknownLength = true;
+		try (final RangeInputStream in = open(uri)) {
+			assertArrayEquals(file, readAll(in));
+		}
+		// the end of the file is detected with a range that is not satisfiable
+		assertEquals(5, ranges.size());
+		assertEquals("bytes=1000-2599", ranges.get(4));
+	}
+
+	@Test
+	public void testRangesNotSupported() throws IOException {
+		ignoreRanges = true;
+		try (final RangeInputStream in = open(uri)) {
+			assertFalse(in.isPartial());
+			assertArrayEquals(file, readAll(in));
+		}
+		assertEquals(1, ranges.size());
+	}
+
+	@Test
+	public void testMissingFile() throws IOException {
+		assertNull(open(uri.resolve("missing.gml")));
+	}
+
+	@Test
+	public void testUnexpectedContentRange() throws IOException {
+		shiftRanges = true;
+		try (final RangeInputStream in = open(uri)) {
+			readAll(in);
+			fail("IOException expected");
+		} catch (final IOException e) {
+			assertTrue(e.getMessage().startsWith("Unexpected Content-Range header"));
+		}
+	}
+
+	@Test
+	public void testChangedFile() throws IOException {
+		changed = true;
+		try (final RangeInputStream in = open(uri)) {
+			readAll(in);
+			fail("IOException expected");
+		} catch (final IOException e) {
+			assertTrue(e.getMessage().contains("changed or does not support ranges"));
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testReadAfterClose() throws IOException {
+		final RangeInputStream in = open(uri);
+		in.close();
+		in.read();
+	}
+
+	@Test
+	public void testUsesRanges() {
+		final RemoteFetch remoteFetch = new RemoteFetch(100, true);
+		assertTrue(remoteFetch.usesRanges(URI.create("http://example.com/data/file.gml")));
+		assertFalse(remoteFetch.usesRanges(URI.create("http://example.com/wfs?SERVICE=WFS")));
+		assertFalse(remoteFetch.usesRanges(URI.create("http://example.com/data/file")));
+		assertFalse(remoteFetch.usesRanges(URI.create("ftp://example.com/data/file.gml")));
+		assertFalse(new RemoteFetch(0, true).usesRanges(URI.create("http://example.com/data/file.gml")));
+	}
+}
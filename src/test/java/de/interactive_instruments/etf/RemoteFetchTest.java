@@ -0,0 +1,315 @@
+/**
+ * Copyright 2017 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+import de.interactive_instruments.etf.model.capabilities.RemoteResource;
+import de.interactive_instruments.etf.model.capabilities.Resource;
+
+/**
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+public class RemoteFetchTest {
+
+	private static final String BODY = "<wfs:WFS_Capabilities xmlns:wfs=\"http://www.opengis.net/wfs/2.0\"/>";
+
+	/**
+	 * Credentials of a resource
+	 */
+	public static final class TestCredentials {
+		public String getUsername() {
+			return "user";
+		}
+
+		public char[] getPassword() {
+			return "secret".toCharArray();
+		}
+
+		public boolean isEmpty() {
+			return false;
+		}
+	}
+
+	/**
+	 * Resource that holds credentials and can not be opened by itself
+	 */
+	public static final class AuthenticatedResource implements RemoteResource {
+		private final URI uri;
+
+		private AuthenticatedResource(final URI uri) {
+			this.uri = uri;
+		}
+
+		public TestCredentials getCredentials() {
+			return new TestCredentials();
+		}
+
+		@Override
+		public String getName() {
+			return "test";
+		}
+
+		@Override
+		public URI getUri() {
+			return uri;
+		}
+
+		@Override
+		public InputStream openStream() throws IOException {
+			throw new IOException("Opened without timeouts");
+		}
+
+		@Override
+		public byte[] getBytes() throws IOException {
+			throw new IOException("Opened without timeouts");
+		}
+	}
+
+	private final List<String> authorizations = new CopyOnWriteArrayList<>();
+	private final List<String> acceptEncodings = new CopyOnWriteArrayList<>();
+	private final CountDownLatch release = new CountDownLatch(1);
+	private final ExecutorService serverExecutor = Executors.newCachedThreadPool();
+	private HttpServer server;
+	private URI baseUri;
+
+	@Before
+	public void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/wfs", exchange -> {
+			final String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+			acceptEncodings.add(String.valueOf(acceptEncoding));
+			final byte[] body;
+			if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+				exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+				body = gzip(BODY);
+			} else {
+				body = BODY.getBytes(StandardCharsets.UTF_8);
+			}
+			exchange.sendResponseHeaders(200, body.length);
+			try (final OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		});
+		server.createContext("/secured", exchange -> {
+			authorizations.add(String.valueOf(exchange.getRequestHeaders().getFirst("Authorization")));
+			final byte[] body = BODY.getBytes(StandardCharsets.UTF_8);
+			exchange.sendResponseHeaders(200, body.length);
+			try (final OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		});
+		server.createContext("/slow", exchange -> {
+			try {
+				release.await(10, TimeUnit.SECONDS);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			exchange.sendResponseHeaders(500, -1);
+			exchange.close();
+		});
+		server.createContext("/stalled", exchange -> {
+			// half of a compressed body, then the server stops sending
+			final StringBuilder text = new StringBuilder();
+			for (int i = 0; i < 2000; i++) {
+				text.append("<wfs:Feature id=\"f").append(i).append("\"/>");
+			}
+			final byte[] body = gzip(text.toString());
+			exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+			exchange.sendResponseHeaders(200, 0);
+			final OutputStream out = exchange.getResponseBody();
+			out.write(body, 0, body.length / 2);
+			out.flush();
+			try {
+				release.await(10, TimeUnit.SECONDS);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			exchange.close();
+		});
+		server.setExecutor(serverExecutor);
+		server.start();
+		baseUri = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/");
+	}
+
+	@After
+	public void tearDown() {
+		release.countDown();
+		server.stop(0);
+		serverExecutor.shutdownNow();
+	}
+
+	private static byte[] gzip(final String text) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (final GZIPOutputStream gzipOut = new GZIPOutputStream(out)) {
+			gzipOut.write(text.getBytes(StandardCharsets.UTF_8));
+		}
+		return out.toByteArray();
+	}
+
+	private static byte[] deflate(final String text, final boolean raw) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (final DeflaterOutputStream deflaterOut = new DeflaterOutputStream(out,
+				new Deflater(Deflater.DEFAULT_COMPRESSION, raw))) {
+			deflaterOut.write(text.getBytes(StandardCharsets.UTF_8));
+		}
+		return out.toByteArray();
+	}
+
+	private static String read(final InputStream in) throws IOException {
+		try (final InputStream stream = in) {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[64];
+			for (int read = stream.read(buffer); read != -1; read = stream.read(buffer)) {
+				out.write(buffer, 0, read);
+			}
+			return new String(out.toByteArray(), StandardCharsets.UTF_8);
+		}
+	}
+
+	private static String decode(final String contentEncoding, final byte[] body) throws IOException {
+		return read(RemoteFetch.decode(contentEncoding, new ByteArrayInputStream(body)));
+	}
+
+	@Test
+	public void testDecode() throws IOException {
+		final byte[] plain = BODY.getBytes(StandardCharsets.UTF_8);
+		assertEquals(BODY, decode(null, plain));
+		assertEquals(BODY, decode(" Identity ", plain));
+		assertEquals(BODY, decode("gzip", gzip(BODY)));
+		assertEquals(BODY, decode("x-gzip", gzip(BODY)));
+		assertEquals(BODY, decode("GZIP", gzip(BODY)));
+		// zlib format and raw deflate data
+		assertEquals(BODY, decode("deflate", deflate(BODY, false)));
+		assertEquals(BODY, decode("deflate", deflate(BODY, true)));
+		assertEquals("", decode("deflate", deflate("", true)));
+	}
+
+	@Test(expected = IOException.class)
+	public void testUnsupportedEncoding() throws IOException {
+		RemoteFetch.decode("br", new ByteArrayInputStream(new byte[0]));
+	}
+
+	@Test(expected = IOException.class)
+	public void testCorruptGzip() throws IOException {
+		decode("gzip", BODY.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testCompressedResponse() throws IOException {
+		final Resource resource = Resource.create("test", baseUri.resolve("wfs?SERVICE=WFS"));
+		assertEquals(BODY, read(new RemoteFetch(0, true).open(resource, 5000, null, new RequestAbort())));
+		assertEquals("gzip, deflate", acceptEncodings.get(0));
+
+		assertEquals(BODY, read(new RemoteFetch(0, false).open(resource, 5000, null, new RequestAbort())));
+		assertEquals("null", acceptEncodings.get(1));
+	}
+
+	@Test
+	public void testResourceCredentials() throws IOException {
+		final Resource resource = new AuthenticatedResource(baseUri.resolve("secured?SERVICE=WFS"));
+		assertTrue(ResourceCredentials.isAuthenticated(resource));
+		// sent with the timeouts of a connection instead of being opened by the resource
+		assertEquals(BODY, read(new RemoteFetch(0, true).open(resource, 5000, null, new RequestAbort())));
+		assertEquals("Basic " + Base64.getEncoder().encodeToString("user:secret".getBytes(StandardCharsets.UTF_8)),
+				authorizations.get(0));
+	}
+
+	@Test(timeout = 10000)
+	public void testOpenTimeout() throws IOException {
+		final Resource resource = Resource.create("test", baseUri.resolve("slow?SERVICE=WFS"));
+		final long start = System.nanoTime();
+		try {
+			new RemoteFetch(0, false).open(resource, 200, null, new RequestAbort());
+			fail("SocketTimeoutException expected");
+		} catch (final SocketTimeoutException e) {
+			assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void testAbort() throws IOException {
+		final Resource resource = Resource.create("test", baseUri.resolve("slow?SERVICE=WFS"));
+		final RequestAbort abort = new RequestAbort();
+		BoundedInputStream.abortAfter(abort, 100, TimeUnit.MILLISECONDS);
+		try {
+			new RemoteFetch(0, false).open(resource, 5000, null, abort);
+			fail("InterruptedIOException expected");
+		} catch (final InterruptedIOException e) {
+			assertTrue(abort.isAborted());
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void testStalledCompressedResponse() throws IOException {
+		final Resource resource = Resource.create("test", baseUri.resolve("stalled?SERVICE=WFS"));
+		final RequestAbort abort = new RequestAbort();
+		final InputStream stream = new RemoteFetch(0, true).open(resource, 5000, null, abort);
+		final BoundedInputStream in = new BoundedInputStream(stream, abort, 1024 * 1024, 300, 10000,
+				TimeUnit.MILLISECONDS, System.nanoTime());
+		final byte[] buffer = new byte[256];
+		long read = 0;
+		try {
+			for (int r = in.read(buffer); r != -1; r = in.read(buffer)) {
+				read += r;
+			}
+			fail("LimitExceededException expected");
+		} catch (final BoundedInputStream.LimitExceededException e) {
+			// the decoder is not closed by the watchdog while it inflates
+			assertTrue(in.isReadTimeoutExceeded());
+			assertTrue(abort.isAborted());
+			assertTrue(read > 0);
+		} finally {
+			in.close();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidRangeSize() {
+		new RemoteFetch(-1, true);
+	}
+}
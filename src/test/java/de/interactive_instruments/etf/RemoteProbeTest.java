@@ -0,0 +1,64 @@
+/**
+ * Copyright 2017 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf;
+
+import static org.junit.Assert.*;
+
+import java.net.URI;
+
+import org.junit.Test;
+
+/**
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+public class RemoteProbeTest {
+
+	private static String groupKey(final String uri) {
+		return RemoteProbe.groupKey(URI.create(uri));
+	}
+
+	@Test
+	public void testParameterNameCase() {
+		// WFS 2.0 and WFS 1.x default queries
+		assertEquals(groupKey("http://example.com/ows?REQUEST=GetCapabilities&SERVICE=WFS"),
+				groupKey("http://example.com/ows?request=GetCapabilities&service=WFS"));
+		assertEquals("http://example.com/ows?REQUEST=GetCapabilities&SERVICE=WFS",
+				groupKey("http://example.com/ows?service=WFS&Request=GetCapabilities"));
+	}
+
+	@Test
+	public void testParameterValuesAreNotChanged() {
+		assertNotEquals(groupKey("http://example.com/ows?SERVICE=WFS"), groupKey("http://example.com/ows?SERVICE=wfs"));
+		assertEquals("http://example.com/ows?MAP=%2Fdata%2Fa.map&SERVICE=WMS",
+				groupKey("http://example.com/ows?service=WMS&map=%2Fdata%2Fa.map"));
+	}
+
+	@Test
+	public void testWithoutQuery() {
+		assertEquals("http://example.com/data/file.gml", groupKey("http://example.com/data/../data/file.gml"));
+		assertEquals(groupKey("http://example.com/ows?"), groupKey("http://example.com/ows?&"));
+	}
+
+	@Test
+	public void testParametersWithoutValue() {
+		assertEquals("http://example.com/ows?FLAG&SERVICE=WMS#top",
+				groupKey("http://example.com/ows?service=WMS&flag#top"));
+	}
+}
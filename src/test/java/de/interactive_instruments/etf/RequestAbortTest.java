@@ -0,0 +1,81 @@
+/**
+ * Copyright 2017 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf;
+
+import static org.junit.Assert.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+public class RequestAbortTest {
+
+	@Test
+	public void testAbortClosesResources() throws IOException {
+		final AtomicInteger closed = new AtomicInteger();
+		final RequestAbort abort = new RequestAbort();
+		abort.register(closed::incrementAndGet);
+		abort.register(closed::incrementAndGet);
+		assertFalse(abort.isAborted());
+		assertEquals(0, closed.get());
+
+		abort.abort();
+		assertTrue(abort.isAborted());
+		assertEquals(2, closed.get());
+		// only once
+		abort.abort();
+		assertEquals(2, closed.get());
+	}
+
+	@Test
+	public void testRegisterAfterAbort() {
+		final AtomicInteger closed = new AtomicInteger();
+		final RequestAbort abort = new RequestAbort();
+		abort.abort();
+		try {
+			abort.register(closed::incrementAndGet);
+			fail("InterruptedIOException expected");
+		} catch (final InterruptedIOException e) {
+			assertEquals(1, closed.get());
+		}
+	}
+
+	@Test
+	public void testFailingCloseIsSuppressed() throws IOException {
+		final AtomicInteger closed = new AtomicInteger();
+		final RequestAbort abort = new RequestAbort();
+		abort.register(() -> {
+			throw new IOException("close failed");
+		});
+		final Closeable failingRuntime = () -> {
+			throw new IllegalStateException("close failed");
+		};
+		abort.register(failingRuntime);
+		abort.register(closed::incrementAndGet);
+		abort.abort();
+		assertEquals(1, closed.get());
+	}
+}
@@ -0,0 +1,257 @@
+/**
+ * Copyright 2017 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.After;
+import org.junit.Test;
+
+import de.interactive_instruments.etf.model.capabilities.Resource;
+
+/**
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+public class RequestHedgingTest {
+
+	private static final byte[] BODY = "<root/>".getBytes(StandardCharsets.UTF_8);
+
+	private final Resource resource = Resource.create("test", URI.create("http://example.com/wfs"));
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+	private final HostGuard hostGuard = new HostGuard(4, 1000000, 3, 1, TimeUnit.MINUTES);
+	private final List<Integer> attempts = new CopyOnWriteArrayList<>();
+	private final AtomicIntegerArray aborted = new AtomicIntegerArray(2);
+	private final CountDownLatch originalSent = new CountDownLatch(1);
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	private static String read(final InputStream inputStream) throws IOException {
+		final StringBuilder builder = new StringBuilder();
+		for (int b = inputStream.read(); b != -1; b = inputStream.read()) {
+			builder.append((char) b);
+		}
+		return builder.toString();
+	}
+
+	// fast responses, so that the next requests are hedged
+	private void warmUp(final RequestHedging hedging) throws IOException {
+		for (int i = 0; i < 20; i++) {
+			hedging.open(resource, (r, attempt, abort) -> new ByteArrayInputStream(BODY), executor, hostGuard,
+					new RequestAbort()).getStream().close();
+		}
+	}
+
+	// the original request blocks until it is aborted, the duplicate answers after the original has been sent
+	private InputStream blockUntilAborted(final int attempt, final RequestAbort abort) throws IOException {
+		attempts.add(attempt);
+		try {
+			if (attempt == 0) {
+				final CountDownLatch abortLatch = new CountDownLatch(1);
+				abort.register(abortLatch::countDown);
+				originalSent.countDown();
+				abortLatch.await(10, TimeUnit.SECONDS);
+				aborted.incrementAndGet(attempt);
+				throw new InterruptedIOException("aborted");
+			}
+			originalSent.await(10, TimeUnit.SECONDS);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return new ByteArrayInputStream(BODY);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidPercentile() {
+		new RequestHedging(1);
+	}
+
+	@Test
+	public void testWithoutHedging() throws IOException {
+		final RequestHedging hedging = new RequestHedging(0);
+		for (int i = 0; i < 25; i++) {
+			final RequestHedging.Response response = hedging.open(resource, (r, attempt, abort) -> {
+				attempts.add(attempt);
+				return new ByteArrayInputStream(BODY);
+			}, executor, hostGuard, new RequestAbort());
+			assertEquals(0, response.getAttempt());
+			// the first byte is not consumed
+			assertEquals("<root/>", read(response.getStream()));
+		}
+		assertEquals(25, attempts.size());
+		assertFalse(attempts.contains(1));
+	}
+
+	@Test(timeout = 30000)
+	public void testDuplicateWins() throws IOException, InterruptedException {
+		final RequestHedging hedging = new RequestHedging(0.5);
+		warmUp(hedging);
+		final RequestHedging.Response response = hedging.open(resource,
+				(r, attempt, abort) -> blockUntilAborted(attempt, abort), executor, hostGuard, new RequestAbort());
+		assertEquals(1, response.getAttempt());
+		assertEquals("<root/>", read(response.getStream()));
+
+		// the slower request is aborted and the permit of the duplicate is released
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		assertEquals(1, aborted.get(0));
+		assertEquals(0, hostGuard.metrics().get("example.com").getInFlight());
+	}
+
+	@Test(timeout = 30000)
+	public void testDuplicateWithoutHostLimits() throws IOException, InterruptedException {
+		final RequestHedging hedging = new RequestHedging(0.5);
+		warmUp(hedging);
+		final RequestHedging.Response response = hedging.open(resource,
+				(r, attempt, abort) -> blockUntilAborted(attempt, abort), executor, null, new RequestAbort());
+		assertEquals(1, response.getAttempt());
+		assertEquals("<root/>", read(response.getStream()));
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		assertEquals(1, aborted.get(0));
+	}
+
+	@Test(timeout = 30000)
+	public void testNoDuplicateWithoutPermit() throws IOException, InterruptedException {
+		final RequestHedging hedging = new RequestHedging(0.5);
+		warmUp(hedging);
+		final HostGuard busyGuard = new HostGuard(1, 1000000, 3, 1, TimeUnit.MINUTES);
+		final HostGuard.Permit permit = busyGuard.acquire(resource.getUri());
+		final RequestHedging.Response response = hedging.open(resource, (r, attempt, abort) -> {
+			attempts.add(attempt);
+			try {
+				Thread.sleep(100);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return new ByteArrayInputStream(BODY);
+		}, executor, busyGuard, new RequestAbort());
+		assertEquals(0, response.getAttempt());
+		assertEquals("<root/>", read(response.getStream()));
+		assertEquals(1, attempts.size());
+		permit.release(false);
+	}
+
+	@Test(timeout = 30000)
+	public void testAllRequestsFail() throws IOException {
+		final RequestHedging hedging = new RequestHedging(0.5);
+		warmUp(hedging);
+		try {
+			hedging.open(resource, (r, attempt, abort) -> {
+				attempts.add(attempt);
+				try {
+					Thread.sleep(100);
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				throw new IOException("failed " + attempt);
+			}, executor, hostGuard, new RequestAbort());
+			fail("IOException expected");
+		} catch (final IOException e) {
+			assertTrue(e.getMessage().startsWith("failed"));
+		}
+		assertEquals(2, attempts.size());
+	}
+
+	@Test(timeout = 30000)
+	public void testTimeoutsAreRecorded() throws IOException {
+		final RequestHedging hedging = new RequestHedging(0.5);
+		// more timed out than fast requests, the median is at least the elapsed time of the timeouts
+		for (int i = 0; i < 25; i++) {
+			try {
+				hedging.open(resource, (r, attempt, abort) -> {
+					try {
+						Thread.sleep(60);
+					} catch (final InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					throw new SocketTimeoutException("timed out");
+				}, executor, hostGuard, new RequestAbort());
+				fail("SocketTimeoutException expected");
+			} catch (final SocketTimeoutException e) {
+				assertEquals("timed out", e.getMessage());
+			}
+		}
+		warmUp(hedging);
+		// answered before the recorded timeouts, no duplicate is sent
+		final RequestHedging.Response response = hedging.open(resource, (r, attempt, abort) -> {
+			attempts.add(attempt);
+			try {
+				Thread.sleep(20);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return new ByteArrayInputStream(BODY);
+		}, executor, hostGuard, new RequestAbort());
+		assertEquals(0, response.getAttempt());
+		assertEquals(1, attempts.size());
+	}
+
+	@Test(timeout = 30000)
+	public void testAbort() throws IOException, InterruptedException {
+		final RequestHedging hedging = new RequestHedging(0.5);
+		warmUp(hedging);
+		final RequestAbort abort = new RequestAbort();
+		executor.execute(() -> {
+			try {
+				Thread.sleep(100);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			abort.abort();
+		});
+		try {
+			hedging.open(resource, (r, attempt, requestAbort) -> {
+				final CountDownLatch abortLatch = new CountDownLatch(1);
+				try {
+					// fails if the request has already been aborted
+					requestAbort.register(abortLatch::countDown);
+					abortLatch.await(10, TimeUnit.SECONDS);
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} finally {
+					aborted.incrementAndGet(attempt);
+				}
+				throw new InterruptedIOException("aborted");
+			}, executor, hostGuard, abort);
+			fail("IOException expected");
+		} catch (final InterruptedIOException e) {
+			assertEquals(1, aborted.get(0));
+			assertEquals(1, aborted.get(1));
+		}
+	}
+}
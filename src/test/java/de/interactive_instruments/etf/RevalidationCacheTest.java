@@ -0,0 +1,221 @@
+/**
+ * Copyright 2017 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import de.interactive_instruments.etf.model.EID;
+import de.interactive_instruments.etf.model.EidFactory;
+import de.interactive_instruments.etf.model.capabilities.Resource;
+
+/**
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+public class RevalidationCacheTest {
+
+	private static final String ETAG = "\"v1\"";
+	private static final String BODY = "<wfs:WFS_Capabilities xmlns:wfs=\"http://www.opengis.net/wfs/2.0\"/>";
+	private static final EID WFS_2_0_ID = EidFactory.getDefault()
+			.createAndPreserveStr("9b6ef734-981e-4d60-aa81-d6730a1c6389");
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private final List<String> ifNoneMatches = new CopyOnWriteArrayList<>();
+	private final DetectionEngine engine = new DetectionEngine(StdTestObjectTypes.types.values(), true);
+	private HttpServer server;
+	private Resource resource;
+	private Resource resourceWithoutValidators;
+
+	@Before
+	public void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/wfs", exchange -> {
+			final String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+			ifNoneMatches.add(String.valueOf(ifNoneMatch));
+			if (ETAG.equals(ifNoneMatch)) {
+				exchange.sendResponseHeaders(304, -1);
+				exchange.close();
+			} else {
+				exchange.getResponseHeaders().add("ETag", ETAG);
+				exchange.getResponseHeaders().add("Last-Modified", "Mon, 05 Oct 2026 10:00:00 GMT");
+				send(exchange);
+			}
+		});
+		server.createContext("/plain", RevalidationCacheTest::send);
+		server.start();
+		final URI baseUri = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/");
+		resource = Resource.create("test", baseUri.resolve("wfs?SERVICE=WFS"));
+		resourceWithoutValidators = Resource.create("test", baseUri.resolve("plain?SERVICE=WFS"));
+	}
+
+	@After
+	public void tearDown() {
+		server.stop(0);
+	}
+
+	private static void send(final HttpExchange exchange) throws IOException {
+		final byte[] body = BODY.getBytes(StandardCharsets.UTF_8);
+		exchange.sendResponseHeaders(200, body.length);
+		try (final OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	private static String fetch(final Resource resource, final RevalidationCache.Validators validators)
+			throws IOException {
+		try (final InputStream in = new RemoteFetch(0, false).open(resource, 5000, validators, new RequestAbort())) {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[64];
+			for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+				out.write(buffer, 0, read);
+			}
+			return new String(out.toByteArray(), StandardCharsets.UTF_8);
+		}
+	}
+
+	// fetch the resource and store the validators of the response
+	private void fetchAndPut(final RevalidationCache cache, final Resource resource) throws IOException {
+		final RevalidationCache.Validators validators = cache.validators(resource.getUri(), engine.getExpressions());
+		assertNull(validators.getStoredType());
+		assertEquals(BODY, fetch(resource, validators));
+		assertFalse(validators.isNotModified());
+		cache.put(resource.getUri(), engine.getExpressions(), validators,
+				(StdDetectedTestObjectType) engine.getExpression(WFS_2_0_ID).getDetectedTestObjectType(resource));
+	}
+
+	private List<Path> entries() throws IOException {
+		final List<Path> entries = new ArrayList<>();
+		try (final DirectoryStream<Path> files = Files.newDirectoryStream(folder.getRoot().toPath(), "*.properties")) {
+			for (final Path file : files) {
+				entries.add(file);
+			}
+		}
+		return entries;
+	}
+
+	@Test
+	public void testNotModified() throws IOException {
+		final RevalidationCache cache = new RevalidationCache(folder.getRoot(), 1, TimeUnit.HOURS);
+		fetchAndPut(cache, resource);
+		assertEquals(1, entries().size());
+
+		final RevalidationCache.Validators validators = cache.validators(resource.getUri(), engine.getExpressions());
+		assertNotNull(validators.getStoredType());
+		assertEquals(WFS_2_0_ID, validators.getStoredType().getId());
+		assertEquals(resource.getUri(), validators.getStoredType().getNormalizedResource().getUri());
+		// the body is not transferred again
+		assertEquals("", fetch(resource, validators));
+		assertTrue(validators.isNotModified());
+		assertEquals(ETAG, ifNoneMatches.get(1));
+
+		// each request uses its own instance
+		final RevalidationCache.Validators attempt = validators.forAttempt();
+		assertFalse(attempt.isNotModified());
+		assertSame(validators.getStoredType(), attempt.getStoredType());
+	}
+
+	@Test
+	public void testOtherExpressions() throws IOException {
+		final RevalidationCache cache = new RevalidationCache(folder.getRoot(), 1, TimeUnit.HOURS);
+		fetchAndPut(cache, resource);
+		final RevalidationCache.Validators validators = cache.validators(resource.getUri(),
+				engine.getExpressions().subList(0, 1));
+		assertNull(validators.getStoredType());
+		assertEquals(BODY, fetch(resource, validators));
+		assertEquals("null", ifNoneMatches.get(1));
+	}
+
+	@Test
+	public void testResponseWithoutValidators() throws IOException {
+		final RevalidationCache cache = new RevalidationCache(folder.getRoot(), 1, TimeUnit.HOURS);
+		fetchAndPut(cache, resourceWithoutValidators);
+		assertTrue(entries().isEmpty());
+	}
+
+	@Test
+	public void testOutdatedEntry() throws IOException, InterruptedException {
+		final RevalidationCache cache = new RevalidationCache(folder.getRoot(), 1, TimeUnit.MILLISECONDS);
+		fetchAndPut(cache, resource);
+		Thread.sleep(50);
+		assertNull(cache.validators(resource.getUri(), engine.getExpressions()).getStoredType());
+	}
+
+	@Test
+	public void testRemove() throws IOException {
+		final RevalidationCache cache = new RevalidationCache(folder.getRoot(), 1, TimeUnit.HOURS);
+		fetchAndPut(cache, resource);
+		cache.remove(resource.getUri());
+		assertTrue(entries().isEmpty());
+		assertNull(cache.validators(resource.getUri(), engine.getExpressions()).getStoredType());
+	}
+
+	@Test
+	public void testCorruptEntry() throws IOException {
+		final RevalidationCache cache = new RevalidationCache(folder.getRoot(), 1, TimeUnit.HOURS);
+		fetchAndPut(cache, resource);
+		final Path entry = entries().get(0);
+		final Properties properties = new Properties();
+		try (final InputStream in = Files.newInputStream(entry)) {
+			properties.load(in);
+		}
+		properties.setProperty("stored", "yesterday");
+		try (final OutputStream out = Files.newOutputStream(entry)) {
+			properties.store(out, null);
+		}
+		assertNull(cache.validators(resource.getUri(), engine.getExpressions()).getStoredType());
+		// the entry is removed
+		assertTrue(entries().isEmpty());
+	}
+
+	@Test
+	public void testUnreadableEntry() throws IOException {
+		final RevalidationCache cache = new RevalidationCache(folder.getRoot(), 1, TimeUnit.HOURS);
+		fetchAndPut(cache, resource);
+		// malformed unicode escape
+		Files.write(entries().get(0), "uri=\\uZZZZ".getBytes(StandardCharsets.ISO_8859_1));
+		assertNull(cache.validators(resource.getUri(), engine.getExpressions()).getStoredType());
+	}
+}
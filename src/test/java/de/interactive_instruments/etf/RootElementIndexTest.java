@@ -0,0 +1,101 @@
+/**
+ * Copyright 2017 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import de.interactive_instruments.etf.model.EidFactory;
+
+/**
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+public class RootElementIndexTest {
+
+	private static final String WFS_2_0_NS = "http://www.opengis.net/wfs/2.0";
+
+	private static DetectionEngine engine;
+	private static RootElementIndex index;
+
+	@BeforeClass
+	public static void setUp() {
+		engine = new DetectionEngine(StdTestObjectTypes.types.values(), true);
+		index = new RootElementIndex(engine.getExpressions());
+	}
+
+	private static CompiledDetectionExpression expression(final String id) {
+		return engine.getExpression(EidFactory.getDefault().createAndPreserveStr(id));
+	}
+
+	private static void assertSorted(final List<CompiledDetectionExpression> candidates) {
+		int last = -1;
+		for (final CompiledDetectionExpression candidate : candidates) {
+			final int position = engine.getExpressions().indexOf(candidate);
+			assertTrue(position > last);
+			last = position;
+		}
+	}
+
+	@Test
+	public void testExactName() {
+		final List<CompiledDetectionExpression> candidates = index.getCandidates(WFS_2_0_NS, "WFS_Capabilities");
+		// WFS 2.0
+		assertTrue(candidates.contains(expression("9b6ef734-981e-4d60-aa81-d6730a1c6389")));
+		// WFS 1.1 and WMS 1.3
+		assertFalse(candidates.contains(expression("bc6384f3-2652-4c7b-bc45-20cec488ecd0")));
+		assertFalse(candidates.contains(expression("9981e87e-d642-43b3-ad5f-e77469075e74")));
+		assertSorted(candidates);
+	}
+
+	@Test
+	public void testAnyNamespace() {
+		// WMS 1.1 does not restrict the namespace
+		final CompiledDetectionExpression wms11 = expression("d1836a8d-9909-4899-a0bc-67f512f5f5ac");
+		assertTrue(index.getCandidates("", "WMT_MS_Capabilities").contains(wms11));
+		assertTrue(index.getCandidates("http://example.com", "WMT_MS_Capabilities").contains(wms11));
+
+		// generic GML feature collections are candidates for feature collections in every namespace
+		final CompiledDetectionExpression gml = expression("e1d4a306-7a78-4a3b-ae2d-cf5f0810853e");
+		final List<CompiledDetectionExpression> candidates = index.getCandidates(WFS_2_0_NS, "FeatureCollection");
+		assertTrue(candidates.contains(gml));
+		assertTrue(candidates.contains(expression("a8a1b437-0ebf-454c-8204-bcf0b8548d8c")));
+		assertSorted(candidates);
+		assertTrue(index.getCandidates("http://example.com", "FeatureCollection").contains(gml));
+	}
+
+	@Test
+	public void testAlternativeRootNames() {
+		final CompiledDetectionExpression metadata = expression("5a60dded-0cb0-4977-9b06-16c6c2321d2e");
+		assertTrue(index.getCandidates("http://www.isotc211.org/2005/gmd", "MD_Metadata").contains(metadata));
+		assertTrue(index.getCandidates("http://www.opengis.net/cat/csw/2.0.2", "GetRecordsResponse")
+				.contains(metadata));
+		assertFalse(index.getCandidates("http://example.com", "MD_Metadata").contains(metadata));
+	}
+
+	@Test
+	public void testUnknownName() {
+		assertTrue(index.getCandidates(WFS_2_0_NS, "Unknown").isEmpty());
+		assertTrue(index.getCandidates("", "").isEmpty());
+	}
+}
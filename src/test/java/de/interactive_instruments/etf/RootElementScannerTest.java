@@ -0,0 +1,123 @@
+/**
+ * Copyright 2017 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+/**
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+public class RootElementScannerTest {
+
+	private static RootElementScanner.ScannedElement scan(final String document, final Charset charset)
+			throws IOException {
+		return RootElementScanner.scan(new ByteArrayInputStream(document.getBytes(charset)));
+	}
+
+	private static RootElementScanner.ScannedElement scan(final String document) throws IOException {
+		return scan(document, StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void testRootElement() throws IOException {
+		final RootElementScanner.ScannedElement element = scan(
+				"<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+						+ "<!-- comment -->\n<?xml-stylesheet href=\"s.xsl\"?>\n"
+						+ "<!DOCTYPE wfs:WFS_Capabilities SYSTEM \"http://example.com/caps.dtd\">\n"
+						+ "<wfs:WFS_Capabilities xmlns:wfs=\"http://www.opengis.net/wfs/2.0\"\n"
+						+ "  version=\"2.0.0\" xml:lang=\"en\" title=\"a &amp; b\"><wfs:Child/>");
+		assertNotNull(element);
+		assertEquals("http://www.opengis.net/wfs/2.0", element.getNamespaceUri());
+		assertEquals("WFS_Capabilities", element.getLocalName());
+		assertEquals("wfs:WFS_Capabilities", element.getQName());
+		assertEquals("2.0.0", element.getAttribute("version"));
+		assertEquals("a & b", element.getAttribute("title"));
+	}
+
+	@Test
+	public void testDefaultNamespaceAndEmptyElement() throws IOException {
+		final RootElementScanner.ScannedElement element = scan("<Root xmlns=\"urn:test\" a='1'/>");
+		assertNotNull(element);
+		assertEquals("urn:test", element.getNamespaceUri());
+		assertEquals("Root", element.getLocalName());
+		assertEquals("1", element.getAttribute("a"));
+	}
+
+	@Test
+	public void testByteOrderMarks() throws IOException {
+		assertEquals("Root", scan("\uFEFF<?xml version=\"1.0\" encoding=\"UTF-8\"?><Root/>").getLocalName());
+		assertEquals("Root", scan("\uFEFF<?xml version=\"1.0\" encoding=\"UTF-16\"?><Root/>",
+				StandardCharsets.UTF_16LE).getLocalName());
+		assertEquals("R\u00e4", scan("<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><R\u00e4/>",
+				StandardCharsets.ISO_8859_1).getLocalName());
+	}
+
+	@Test
+	public void testIncompleteDocument() throws IOException {
+		assertNull(scan(""));
+		assertNull(scan("<?xml version=\"1.0\"?>"));
+		assertNull(scan("<Root a=\"1"));
+	}
+
+	@Test
+	public void testMalformedProlog() throws IOException {
+		// declaration not at the start
+		assertNull(scan("<!-- comment --><?xml version=\"1.0\"?><Root/>"));
+		assertNull(scan(" <?xml version=\"1.0\"?><Root/>"));
+		assertNull(scan("<?xml version=\"1.0\"?><?xml version=\"1.0\"?><Root/>"));
+		// declaration without version or with reserved target
+		assertNull(scan("<?xml encoding=\"UTF-8\"?><Root/>"));
+		assertNull(scan("<?XML version=\"1.0\"?><Root/>"));
+		assertNull(scan("<? version=\"1.0\"?><Root/>"));
+		// declared encoding does not match the byte order mark
+		assertNull(scan("\uFEFF<?xml version=\"1.0\" encoding=\"UTF-8\"?><Root/>", StandardCharsets.UTF_16BE));
+		assertNull(scan("\uFEFF<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><Root/>"));
+		// double hyphen in comment
+		assertNull(scan("<!-- a -- b --><Root/>"));
+		assertNull(scan("<!-- a ---><Root/>"));
+		// two document type declarations or an internal subset
+		assertNull(scan("<!DOCTYPE Root><!DOCTYPE Root><Root/>"));
+		assertNull(scan("<!DOCTYPE Root [<!ENTITY e \"x\">]><Root a=\"&e;\"/>"));
+		// text before the root element
+		assertNull(scan("text<Root/>"));
+	}
+
+	@Test
+	public void testMalformedStartTag() throws IOException {
+		assertNull(scan("<1Root/>"));
+		assertNull(scan("<:Root/>"));
+		assertNull(scan("<a:b:Root xmlns:a=\"urn:a\"/>"));
+		assertNull(scan("<p:Root/>"));
+		assertNull(scan("<Root a=\"1\"b=\"2\"/>"));
+		assertNull(scan("<Root a=\"1\" a=\"2\"/>"));
+		assertNull(scan("<Root xmlns:p=\"urn:a\" xmlns:p=\"urn:b\"/>"));
+		assertNull(scan("<Root p:a=\"1\"/>"));
+		assertNull(scan("<Root a=1/>"));
+		assertNull(scan("<Root a=\"&unknown;\"/>"));
+		assertNull(scan("<Root / >"));
+	}
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright 2017 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.interactive_instruments.IFile;
+
+/**
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+public class SampleWalkerTest {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private static void createFiles(final File dir, final int count) throws IOException {
+		dir.mkdirs();
+		for (int i = 0; i < count; i++) {
+			assertTrue(new File(dir, "f" + i + ".xml").createNewFile());
+			assertTrue(new File(dir, "f" + i + ".txt").createNewFile());
+		}
+	}
+
+	private static void symlink(final Path link, final Path target) {
+		try {
+			Files.createSymbolicLink(link, target);
+		} catch (final IOException | UnsupportedOperationException e) {
+			Assume.assumeNoException(e);
+		}
+	}
+
+	@Test
+	public void testSampleIsStableAndFiltered() throws IOException {
+		createFiles(new File(tmp.getRoot(), "a/b"), 20);
+		final SampleWalker walker = new SampleWalker(6, 1000, 5, TimeUnit.SECONDS);
+		final IFile dir = new IFile(tmp.getRoot().getAbsolutePath());
+		final List<IFile> sample = walker.sample(dir, (d, name) -> name.endsWith(".xml"), 7);
+		assertEquals(7, sample.size());
+		for (final IFile file : sample) {
+			assertTrue(file.getName().endsWith(".xml"));
+		}
+		assertEquals(sample, walker.sample(dir, (d, name) -> name.endsWith(".xml"), 7));
+	}
+
+	@Test
+	public void testMaxDepth() throws IOException {
+		createFiles(new File(tmp.getRoot(), "a/b/c"), 1);
+		final IFile dir = new IFile(tmp.getRoot().getAbsolutePath());
+		assertTrue(new SampleWalker(2, 1000, 5, TimeUnit.SECONDS).sample(dir, (d, name) -> true, 7).isEmpty());
+		assertEquals(2, new SampleWalker(3, 1000, 5, TimeUnit.SECONDS).sample(dir, (d, name) -> true, 7).size());
+	}
+
+	@Test
+	public void testEntryLimitTruncatesWalk() throws IOException {
+		createFiles(tmp.getRoot(), 50);
+		final IFile dir = new IFile(tmp.getRoot().getAbsolutePath());
+		final List<IFile> sample = new SampleWalker(6, 10, 5, TimeUnit.SECONDS).sample(dir, (d, name) -> true, 100);
+		// the root directory is the first visited entry
+		assertEquals(9, sample.size());
+	}
+
+	@Test
+	public void testFollowsLinks() throws IOException {
+		final File target = tmp.newFolder("target");
+		createFiles(target, 2);
+		final File root = tmp.newFolder("root");
+		symlink(new File(root, "link").toPath(), target.toPath());
+		final List<IFile> sample = new SampleWalker(6, 1000, 5, TimeUnit.SECONDS)
+				.sample(new IFile(root.getAbsolutePath()), (d, name) -> true, 7);
+		assertEquals(4, sample.size());
+	}
+
+	@Test(timeout = 10000)
+	public void testSkipsLinkCycles() throws IOException {
+		final File root = tmp.newFolder("root");
+		createFiles(new File(root, "sub"), 1);
+		symlink(new File(root, "sub/loop").toPath(), root.toPath());
+		final List<IFile> sample = new SampleWalker(6, 1000, 5, TimeUnit.SECONDS)
+				.sample(new IFile(root.getAbsolutePath()), (d, name) -> true, 7);
+		assertEquals(2, sample.size());
+	}
+}
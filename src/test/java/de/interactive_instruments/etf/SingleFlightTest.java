@@ -0,0 +1,179 @@
+/**
+ * Copyright 2017 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import org.junit.Test;
+
+/**
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+public class SingleFlightTest {
+
+	private static final class Caller extends Thread {
+		private final SingleFlight<String, String> singleFlight;
+		private final Supplier<String> call;
+		private final AtomicReference<Object> result = new AtomicReference<>();
+
+		private Caller(final SingleFlight<String, String> singleFlight, final Supplier<String> call) {
+			this.singleFlight = singleFlight;
+			this.call = call;
+		}
+
+		@Override
+		public void run() {
+			try {
+				result.set(singleFlight.execute("key", call));
+			} catch (final RuntimeException e) {
+				result.set(e);
+			}
+		}
+	}
+
+	// waits until the caller is blocked by the running call
+	private static void awaitWaiting(final Thread thread) throws InterruptedException {
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (thread.getState() != Thread.State.WAITING && thread.getState() != Thread.State.TIMED_WAITING) {
+			assertTrue("caller is not waiting", System.nanoTime() < deadline);
+			Thread.sleep(5);
+		}
+	}
+
+	private static List<Caller> startFollowers(final SingleFlight<String, String> singleFlight,
+			final Supplier<String> call, final int count) throws InterruptedException {
+		final List<Caller> followers = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			final Caller follower = new Caller(singleFlight, call);
+			follower.start();
+			awaitWaiting(follower);
+			followers.add(follower);
+		}
+		return followers;
+	}
+
+	@Test(timeout = 30000)
+	public void testCoalesce() throws InterruptedException {
+		final SingleFlight<String, String> singleFlight = new SingleFlight<>();
+		final AtomicInteger calls = new AtomicInteger();
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final Supplier<String> call = () -> {
+			final int n = calls.incrementAndGet();
+			started.countDown();
+			try {
+				release.await();
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return "result " + n;
+		};
+		final Caller leader = new Caller(singleFlight, call);
+		leader.start();
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+		final List<Caller> followers = startFollowers(singleFlight, call, 3);
+		release.countDown();
+
+		leader.join();
+		assertEquals("result 1", leader.result.get());
+		for (final Caller follower : followers) {
+			follower.join();
+			assertEquals("result 1", follower.result.get());
+		}
+		assertEquals(1, calls.get());
+
+		// the call is executed again after the running call has finished
+		assertEquals("result 2", singleFlight.execute("key", call));
+		assertEquals(2, calls.get());
+	}
+
+	@Test
+	public void testDifferentKeys() {
+		final SingleFlight<String, String> singleFlight = new SingleFlight<>();
+		assertEquals("b", singleFlight.execute("a", () -> singleFlight.execute("b", () -> "b")));
+	}
+
+	@Test(timeout = 30000)
+	public void testExceptionIsPropagated() throws InterruptedException {
+		final SingleFlight<String, String> singleFlight = new SingleFlight<>();
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final IllegalStateException failure = new IllegalStateException("failed");
+		final Supplier<String> call = () -> {
+			started.countDown();
+			try {
+				release.await();
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			throw failure;
+		};
+		final Caller leader = new Caller(singleFlight, call);
+		leader.start();
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+		final List<Caller> followers = startFollowers(singleFlight, call, 2);
+		release.countDown();
+
+		leader.join();
+		assertSame(failure, leader.result.get());
+		for (final Caller follower : followers) {
+			follower.join();
+			assertSame(failure, follower.result.get());
+		}
+	}
+
+	@Test(timeout = 30000)
+	public void testInterruptedCallIsExecutedAgain() throws InterruptedException {
+		final SingleFlight<String, String> singleFlight = new SingleFlight<>();
+		final AtomicInteger calls = new AtomicInteger();
+		final CountDownLatch started = new CountDownLatch(1);
+		final Supplier<String> call = () -> {
+			if (calls.incrementAndGet() == 1) {
+				started.countDown();
+				try {
+					new CountDownLatch(1).await();
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return "incomplete";
+			}
+			return "complete";
+		};
+		final Caller leader = new Caller(singleFlight, call);
+		leader.start();
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+		final List<Caller> followers = startFollowers(singleFlight, call, 1);
+		leader.interrupt();
+
+		leader.join();
+		assertEquals("incomplete", leader.result.get());
+		followers.get(0).join();
+		assertEquals("complete", followers.get(0).result.get());
+		assertEquals(2, calls.get());
+	}
+}
@@ -0,0 +1,420 @@
+/**
+ * Copyright 2017 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sun.net.httpserver.HttpServer;
+
+import de.interactive_instruments.IFile;
+import de.interactive_instruments.etf.detector.DetectedTestObjectType;
+import de.interactive_instruments.etf.model.EID;
+import de.interactive_instruments.etf.model.EidFactory;
+import de.interactive_instruments.etf.model.capabilities.LocalResource;
+import de.interactive_instruments.etf.model.capabilities.Resource;
+
+/**
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+public class StdTestObjectDetectorTest {
+
+	private static final EID WFS_2_0_ID = EidFactory.getDefault()
+			.createAndPreserveStr("9b6ef734-981e-4d60-aa81-d6730a1c6389");
+	private static final EID WFS_1_1_ID = EidFactory.getDefault()
+			.createAndPreserveStr("bc6384f3-2652-4c7b-bc45-20cec488ecd0");
+
+	private static final EID GML_FEATURE_COLLECTION_ID = EidFactory.getDefault()
+			.createAndPreserveStr("e1d4a306-7a78-4a3b-ae2d-cf5f0810853e");
+	private static final EID GML32_FEATURE_COLLECTION_ID = EidFactory.getDefault()
+			.createAndPreserveStr("c8aaacd7-df33-4d64-89af-fabeae63a958");
+	private static final EID WFS20_FEATURE_COLLECTION_ID = EidFactory.getDefault()
+			.createAndPreserveStr("a8a1b437-0ebf-454c-8204-bcf0b8548d8c");
+
+	private static final String FEATURE_COLLECTION = "<FeatureCollection xmlns=\"http://example.com/features\"/>";
+	private static final String GML32_FEATURE_COLLECTION =
+			"<gml:FeatureCollection xmlns:gml=\"http://www.opengis.net/gml/3.2\"/>";
+	private static final String WFS20_FEATURE_COLLECTION =
+			"<wfs:FeatureCollection xmlns:wfs=\"http://www.opengis.net/wfs/2.0\"/>";
+
+	private static final String WFS_2_0_CAPABILITIES = "<wfs:WFS_Capabilities version=\"2.0.0\" "
+			+ "xmlns:wfs=\"http://www.opengis.net/wfs/2.0\" xmlns:ows=\"http://www.opengis.net/ows/1.1\">"
+			+ "<ows:ServiceIdentification><ows:Title>Test WFS</ows:Title></ows:ServiceIdentification>"
+			+ "</wfs:WFS_Capabilities>";
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private static final String WFS_1_1_CAPABILITIES = "<wfs:WFS_Capabilities version=\"1.1.0\" "
+			+ "xmlns:wfs=\"http://www.opengis.net/wfs\" xmlns:ows=\"http://www.opengis.net/ows\">"
+			+ "<ows:ServiceIdentification><ows:Title>Test WFS</ows:Title></ows:ServiceIdentification>"
+			+ "</wfs:WFS_Capabilities>";
+
+	// raw queries of the received requests
+	private final List<String> queries = new CopyOnWriteArrayList<>();
+	// the first requests to /blocking are answered after the release
+	private final AtomicInteger blockingRequests = new AtomicInteger();
+	private final CountDownLatch blockedRequestsReceived = new CountDownLatch(2);
+	private final CountDownLatch release = new CountDownLatch(1);
+	private final CountDownLatch wfs11Answered = new CountDownLatch(1);
+	private final ExecutorService serverExecutor = Executors.newCachedThreadPool();
+	private HttpServer server;
+	private URI baseUri;
+	private StdTestObjectDetector detector;
+
+	@Before
+	public void setUp() throws Exception {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/ows", exchange -> {
+			queries.add(String.valueOf(exchange.getRequestURI().getRawQuery()));
+			final byte[] body = WFS_2_0_CAPABILITIES.getBytes(StandardCharsets.UTF_8);
+			exchange.sendResponseHeaders(200, body.length);
+			try (final OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		});
+		server.createContext("/blocking", exchange -> {
+			if (blockingRequests.incrementAndGet() <= 2) {
+				blockedRequestsReceived.countDown();
+				try {
+					release.await(20, TimeUnit.SECONDS);
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			final byte[] body = WFS_2_0_CAPABILITIES.getBytes(StandardCharsets.UTF_8);
+			exchange.sendResponseHeaders(200, body.length);
+			try (final OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		});
+		server.createContext("/versions", exchange -> {
+			// the WFS 2.0 request is answered after the WFS 1.1 request
+			final boolean wfs20 = exchange.getRequestURI().getRawQuery().contains("VERSION=2.0.0");
+			if (wfs20) {
+				try {
+					wfs11Answered.await(10, TimeUnit.SECONDS);
+					Thread.sleep(100);
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			final byte[] body = (wfs20 ? WFS_2_0_CAPABILITIES : WFS_1_1_CAPABILITIES).getBytes(StandardCharsets.UTF_8);
+			exchange.sendResponseHeaders(200, body.length);
+			try (final OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+			if (!wfs20) {
+				wfs11Answered.countDown();
+			}
+		});
+		server.setExecutor(serverExecutor);
+		server.start();
+		baseUri = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/");
+		detector = new StdTestObjectDetector();
+		detector.init();
+	}
+
+	@After
+	public void tearDown() {
+		release.countDown();
+		server.stop(0);
+		serverExecutor.shutdownNow();
+	}
+
+	private static Set<EID> types(final EID... ids) {
+		return new HashSet<>(Arrays.asList(ids));
+	}
+
+	private static boolean hasVersion(final String query) {
+		return query.toUpperCase().contains("VERSION=");
+	}
+
+	@Test
+	public void testVersionNegotiation() {
+		final Resource resource = Resource.create("test", baseUri.resolve("ows?SERVICE=WFS&REQUEST=GetCapabilities"));
+		final DetectedTestObjectType detectedType = detector.detectType(resource, types(WFS_2_0_ID, WFS_1_1_ID));
+		assertNotNull(detectedType);
+		assertEquals(WFS_2_0_ID, detectedType.getId());
+		// answered by the request without version
+		assertEquals(1, queries.size());
+		assertFalse(hasVersion(queries.get(0)));
+	}
+
+	@Test
+	public void testNoNegotiationForPinnedVersion() {
+		final Resource resource = Resource.create("test",
+				baseUri.resolve("ows?SERVICE=WFS&REQUEST=GetCapabilities&VERSION=2.0.0"));
+		final DetectedTestObjectType detectedType = detector.detectType(resource, types(WFS_2_0_ID, WFS_1_1_ID));
+		assertNotNull(detectedType);
+		assertEquals(WFS_2_0_ID, detectedType.getId());
+		assertEquals(1, queries.size());
+		assertTrue(hasVersion(queries.get(0)));
+		assertTrue(queries.get(0).contains("ACCEPTVERSIONS=2.0.0"));
+	}
+
+	@Test
+	public void testHostLimitsAreOptIn() {
+		final Resource resource = Resource.create("test", baseUri.resolve("ows?SERVICE=WFS"));
+		assertNotNull(detector.detectType(resource, types(WFS_2_0_ID)));
+		assertTrue(detector.getHostMetrics().isEmpty());
+
+		detector.setHostLimits(4, 10, 3, 30, TimeUnit.SECONDS);
+		final Resource otherResource = Resource.create("test", baseUri.resolve("ows?SERVICE=WFS&MAP=other"));
+		assertNotNull(detector.detectType(otherResource, types(WFS_2_0_ID)));
+		final HostProbeMetrics metrics = detector.getHostMetrics().get("127.0.0.1");
+		assertNotNull(metrics);
+		assertEquals(1, metrics.getRequests());
+		assertEquals(0, metrics.getInFlight());
+	}
+
+	// the WFS 2.0 and WFS 1.1 requests of the blocked resource are sent in parallel
+	private Resource blockedResource() {
+		detector.setVersionNegotiation(false);
+		detector.setMaxParallelProbes(2);
+		return Resource.create("test", baseUri.resolve("blocking?SERVICE=WFS"));
+	}
+
+	@Test(timeout = 20000)
+	public void testCancelBlockedDetection() throws Exception {
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			final CompletableFuture<DetectedTestObjectType> detection = detector.detectTypeAsync(
+					blockedResource(), types(WFS_2_0_ID, WFS_1_1_ID), executor);
+			assertTrue(blockedRequestsReceived.await(10, TimeUnit.SECONDS));
+			assertTrue(detection.cancel(true));
+			assertTrue(detection.isCancelled());
+			// the requests are aborted and the thread is released long before the read timeout
+			executor.submit(() -> {}).get(5, TimeUnit.SECONDS);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test(timeout = 20000)
+	public void testFollowerRetriesAfterCancelledLeader() throws Exception {
+		final ExecutorService executor = Executors.newCachedThreadPool();
+		try {
+			final Resource resource = blockedResource();
+			final CompletableFuture<DetectedTestObjectType> leader = detector.detectTypeAsync(
+					resource, types(WFS_2_0_ID, WFS_1_1_ID), executor);
+			assertTrue(blockedRequestsReceived.await(10, TimeUnit.SECONDS));
+			final CompletableFuture<DetectedTestObjectType> follower = detector.detectTypeAsync(
+					resource, types(WFS_2_0_ID, WFS_1_1_ID), executor);
+			// coalesced, the follower does not send requests of its own
+			Thread.sleep(200);
+			assertFalse(follower.isDone());
+			assertEquals(2, blockingRequests.get());
+
+			assertTrue(leader.cancel(true));
+			// the follower detects the type itself instead of returning the incomplete result
+			final DetectedTestObjectType detectedType = follower.get(10, TimeUnit.SECONDS);
+			assertNotNull(detectedType);
+			assertEquals(WFS_2_0_ID, detectedType.getId());
+			assertTrue(blockingRequests.get() > 2);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test(timeout = 20000)
+	public void testParallelProbesInPriorityOrder() throws Exception {
+		detector.setVersionNegotiation(false);
+		detector.setMaxParallelProbes(2);
+		final Resource resource = Resource.create("test", baseUri.resolve("versions?SERVICE=WFS"));
+		final DetectedTestObjectType detectedType = detector.detectType(resource, types(WFS_2_0_ID, WFS_1_1_ID));
+		assertEquals(0, wfs11Answered.getCount());
+		// WFS 2.0 is evaluated before WFS 1.1, although its probe answered later
+		assertNotNull(detectedType);
+		assertEquals(WFS_2_0_ID, detectedType.getId());
+	}
+
+	@Test
+	public void testCachedResultWithoutExecutor() throws Exception {
+		final Resource resource = Resource.create("test", baseUri.resolve("ows?SERVICE=WFS"));
+		final DetectedTestObjectType detectedType = detector.detectType(resource, types(WFS_2_0_ID));
+		assertNotNull(detectedType);
+
+		final AtomicInteger executions = new AtomicInteger();
+		final CompletableFuture<DetectedTestObjectType> detection = detector.detectTypeAsync(resource,
+				types(WFS_2_0_ID), command -> executions.incrementAndGet());
+		assertTrue(detection.isDone());
+		assertEquals(WFS_2_0_ID, detection.get().getId());
+		assertEquals(0, executions.get());
+	}
+
+	/**
+	 * Holds the sample tasks. The tasks are either run in reverse order as soon as all samples
+	 * have been submitted, or only the first task is run.
+	 */
+	private static final class HoldingExecutor extends AbstractExecutorService {
+		private final List<Runnable> held = new CopyOnWriteArrayList<>();
+		// futures of the submitted samples
+		private final List<Future<?>> futures = new CopyOnWriteArrayList<>();
+		private final int samples;
+		private final boolean onlyFirst;
+
+		private HoldingExecutor(final int samples, final boolean onlyFirst) {
+			this.samples = samples;
+			this.onlyFirst = onlyFirst;
+		}
+
+		@Override
+		public void execute(final Runnable command) {
+			if (onlyFirst && held.isEmpty()) {
+				held.add(command);
+				command.run();
+			} else if (held.add(command) && !onlyFirst && held.size() == samples) {
+				new Thread(() -> {
+					for (int i = held.size() - 1; i >= 0; i--) {
+						held.get(i).run();
+					}
+				}).start();
+			}
+		}
+
+		@Override
+		protected <T> RunnableFuture<T> newTaskFor(final Callable<T> callable) {
+			final RunnableFuture<T> future = super.newTaskFor(callable);
+			futures.add(future);
+			return future;
+		}
+
+		@Override
+		public void shutdown() {}
+
+		@Override
+		public List<Runnable> shutdownNow() {
+			return new ArrayList<>(held);
+		}
+
+		@Override
+		public boolean isShutdown() {
+			return false;
+		}
+
+		@Override
+		public boolean isTerminated() {
+			return false;
+		}
+
+		@Override
+		public boolean awaitTermination(final long timeout, final TimeUnit unit) {
+			return false;
+		}
+	}
+
+	private LocalResource samples(final String... documents) throws IOException {
+		for (int i = 0; i < documents.length; i++) {
+			Files.write(new File(folder.getRoot(), "sample" + i + ".xml").toPath(),
+					documents[i].getBytes(StandardCharsets.UTF_8));
+		}
+		return new LocalResource("dir", new IFile(folder.getRoot().getAbsolutePath()));
+	}
+
+	@Test
+	public void testScopedEngines() throws Exception {
+		final Set<EID> expectedTypes = types(GML_FEATURE_COLLECTION_ID, WFS20_FEATURE_COLLECTION_ID);
+		final DetectionEnginePool engines = detector.getEngines(expectedTypes);
+		final DetectionEngine engine = engines.borrow();
+		final Set<EID> evaluatedTypes = new HashSet<>();
+		for (final CompiledDetectionExpression expression : engine.getExpressions()) {
+			evaluatedTypes.add(expression.getId());
+		}
+		assertEquals(expectedTypes, evaluatedTypes);
+		engines.release(engine);
+		// reused for the same types
+		assertSame(engines, detector.getEngines(types(WFS20_FEATURE_COLLECTION_ID, GML_FEATURE_COLLECTION_ID)));
+
+		// the GML 3.2 feature collection type is not evaluated
+		final LocalResource resource = samples(GML32_FEATURE_COLLECTION);
+		assertEquals(GML_FEATURE_COLLECTION_ID, detector.detectType(resource, expectedTypes).getId());
+		assertEquals(GML32_FEATURE_COLLECTION_ID, detector.detectType(resource).getId());
+	}
+
+	@Test(timeout = 20000)
+	public void testSamplesMergedInOrder() throws Exception {
+		// the later sample has the type with the higher priority and is parsed first
+		final LocalResource resource = samples(FEATURE_COLLECTION, GML32_FEATURE_COLLECTION);
+		detector.setSampleParallelism(1);
+		final DetectedTestObjectType sequentialType = detector.detectType(resource);
+		assertNotNull(sequentialType);
+		assertEquals(GML32_FEATURE_COLLECTION_ID, sequentialType.getId());
+
+		final HoldingExecutor executor = new HoldingExecutor(2, false);
+		detector.setSampleExecutor(executor);
+		final DetectedTestObjectType parallelType = detector.detectType(resource);
+		assertEquals(2, executor.held.size());
+		assertNotNull(parallelType);
+		assertEquals(sequentialType.getId(), parallelType.getId());
+
+		// the earlier sample has the type with the higher priority
+		final LocalResource reversedResource = samples(GML32_FEATURE_COLLECTION, FEATURE_COLLECTION);
+		detector.setSampleExecutor(new HoldingExecutor(2, false));
+		assertEquals(GML32_FEATURE_COLLECTION_ID, detector.detectType(reversedResource,
+				types(GML_FEATURE_COLLECTION_ID, GML32_FEATURE_COLLECTION_ID)).getId());
+	}
+
+	@Test(timeout = 20000)
+	public void testRemainingSamplesCancelled() throws Exception {
+		final LocalResource resource = samples(WFS20_FEATURE_COLLECTION, FEATURE_COLLECTION,
+				GML32_FEATURE_COLLECTION, FEATURE_COLLECTION);
+		final HoldingExecutor executor = new HoldingExecutor(4, true);
+		detector.setSampleExecutor(executor);
+		// the first sample has the only expected type, the result can not change any more
+		final DetectedTestObjectType detectedType = detector.detectType(resource, types(WFS20_FEATURE_COLLECTION_ID));
+		assertNotNull(detectedType);
+		assertEquals(WFS20_FEATURE_COLLECTION_ID, detectedType.getId());
+		assertEquals(4, executor.futures.size());
+		assertFalse(executor.futures.get(0).isCancelled());
+		for (final Future<?> future : executor.futures.subList(1, 4)) {
+			assertTrue(future.isCancelled());
+		}
+	}
+}